@@ -0,0 +1,228 @@
+package com.spartronics4915.frc2019.auto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import com.spartronics4915.frc2019.Constants;
+import com.spartronics4915.frc2019.auto.actions.Action;
+import com.spartronics4915.frc2019.auto.actions.SeriesAction;
+import com.spartronics4915.frc2019.loops.Looper;
+
+/**
+ * Measures how much time {@link ActionScheduler} saves an auto routine,
+ * off-robot and in real time:
+ * <pre>
+ * java -cp ... com.spartronics4915.frc2019.auto.ActionSchedulerSimulation
+ * </pre>
+ * The routine runs actions that each take a fixed time from their start()
+ * (like WaitAction), some one at a time and some in a SeriesAction, so its
+ * ideal duration is the sum of theirs. It's run with the actions handed to
+ * the scheduler in a looper ticking every kLooperDt, and then as before:
+ * polled from the routine's thread every m_update_rate, with SeriesAction's
+ * old one-action-per-update transitions. The time each run takes beyond
+ * the ideal is the latency the way of running actions added.
+ */
+public class ActionSchedulerSimulation
+{
+
+    private static final int kRuns = 3;
+    private static final double[] kActionDurations = { 0.25, 0.1, 0.4, 0.15, 0.3, 0.2, 0.35, 0.12 };
+    private static final double kSeriesActionDuration = 0.05;
+    private static final int kSeriesActions = 6;
+
+    private static class TimedAction implements Action
+    {
+
+        final long mNanos;
+        long mStart;
+
+        TimedAction(double seconds)
+        {
+            mNanos = (long) (seconds * 1e9);
+        }
+
+        @Override
+        public void start()
+        {
+            mStart = System.nanoTime();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return System.nanoTime() - mStart >= mNanos;
+        }
+
+        @Override
+        public void update()
+        {
+        }
+
+        @Override
+        public void done()
+        {
+        }
+    }
+
+    /**
+     * SeriesAction as it was: starts the next action on the update after the
+     * last one finished.
+     */
+    private static class LegacySeriesAction implements Action
+    {
+
+        private Action mCurAction = null;
+        private final List<Action> mRemainingActions;
+
+        LegacySeriesAction(List<Action> actions)
+        {
+            mRemainingActions = new ArrayList<>(actions);
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return mRemainingActions.isEmpty() && mCurAction == null;
+        }
+
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public void update()
+        {
+            if (mCurAction == null)
+            {
+                if (mRemainingActions.isEmpty())
+                    return;
+                mCurAction = mRemainingActions.remove(0);
+                mCurAction.start();
+            }
+            mCurAction.update();
+            if (mCurAction.isFinished())
+            {
+                mCurAction.done();
+                mCurAction = null;
+            }
+        }
+
+        @Override
+        public void done()
+        {
+        }
+    }
+
+    private static class SimulatedMode extends AutoModeBase
+    {
+
+        final boolean mLegacy;
+
+        SimulatedMode(boolean legacy)
+        {
+            mLegacy = legacy;
+        }
+
+        @Override
+        protected void routine() throws AutoModeEndedException
+        {
+            for (double duration : kActionDurations)
+            {
+                runAction(new TimedAction(duration));
+            }
+            Action[] series = new Action[kSeriesActions];
+            for (int i = 0; i < series.length; i++)
+            {
+                series[i] = new TimedAction(kSeriesActionDuration);
+            }
+            runAction(mLegacy ? new LegacySeriesAction(Arrays.asList(series)) : new SeriesAction(series));
+        }
+    }
+
+    private static final Looper.Clock kClock = new Looper.Clock()
+    {
+
+        @Override
+        public double getTimestamp()
+        {
+            return System.nanoTime() / 1e9;
+        }
+
+        @Override
+        public long getNanos()
+        {
+            return System.nanoTime();
+        }
+    };
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        double ideal = kSeriesActions * kSeriesActionDuration;
+        for (double duration : kActionDurations)
+            ideal += duration;
+        final int transitions = kActionDurations.length + kSeriesActions;
+
+        double scheduled = 0, polled = 0;
+        for (int run = 0; run < kRuns; run++)
+        {
+            scheduled += runRoutine(false) - ideal;
+            polled += runRoutine(true) - ideal;
+        }
+        scheduled /= kRuns;
+        polled /= kRuns;
+        System.out.printf("Routine of %d actions, ideally %.3f s%n", transitions, ideal);
+        System.out.printf("polled every %.0f ms: %.1f ms late (%.1f ms per action)%n",
+                new SimulatedMode(true).m_update_rate * 1e3, polled * 1e3, polled * 1e3 / transitions);
+        System.out.printf("scheduled every %.0f ms: %.1f ms late (%.1f ms per action)%n",
+                Constants.kLooperDt * 1e3, scheduled * 1e3, scheduled * 1e3 / transitions);
+        System.out.println("Handoffs: " + ActionScheduler.getInstance().getHandoffTimes().summary());
+    }
+
+    /**
+     * @return how long the routine took, in seconds
+     */
+    private static double runRoutine(boolean legacy) throws InterruptedException
+    {
+        final Looper looper = new Looper(kClock);
+        if (!legacy)
+        {
+            looper.register(ActionScheduler.getInstance(), Constants.kLooperDt, Looper.Priority.CRITICAL);
+            looper.start();
+        }
+        final SimulatedMode mode = new SimulatedMode(legacy);
+        mode.m_active = true;
+        final double[] elapsed = new double[1];
+        Thread routine = new Thread(() ->
+        {
+            long start = System.nanoTime();
+            try
+            {
+                mode.routine();
+            }
+            catch (AutoModeEndedException e)
+            {
+                throw new RuntimeException(e);
+            }
+            elapsed[0] = (System.nanoTime() - start) / 1e9;
+        }, "Routine");
+        routine.start();
+
+        // Stand in for the looper's Notifier
+        final long period = (long) (Constants.kLooperDt * 1e9);
+        long next = System.nanoTime();
+        while (routine.isAlive())
+        {
+            next += period;
+            LockSupport.parkNanos(next - System.nanoTime());
+            if (!legacy)
+                looper.runSimulatedTick(Looper.Priority.CRITICAL);
+        }
+        routine.join();
+        if (!legacy)
+            looper.stop();
+        return elapsed[0];
+    }
+}
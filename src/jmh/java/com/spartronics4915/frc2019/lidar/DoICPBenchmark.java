@@ -0,0 +1,77 @@
+package com.spartronics4915.frc2019.lidar;
+
+import com.spartronics4915.frc2019.lidar.icp.ICP;
+import com.spartronics4915.frc2019.lidar.icp.Point;
+import com.spartronics4915.frc2019.lidar.icp.ReferenceModel;
+import com.spartronics4915.frc2019.lidar.icp.Transform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link ICP#doICP} with its defaults, on the synthetic tower scans of
+ * {@link LidarICPBenchmark}, from a list of Points and from coordinate
+ * arrays. LidarICPBenchmark sweeps the solver's methods and options; this
+ * is the plain call, for the baseline. Scans ICP can't match are skipped
+ * when the trial is set up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoICPBenchmark {
+
+    private static final long kTimeoutMs = 100;
+
+    private List<LidarICPBenchmark.Scan> scans = new ArrayList<>();
+    private List<List<Point>> pointLists = new ArrayList<>();
+    private ICP icp;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        icp = new ICP(ReferenceModel.TOWER, kTimeoutMs);
+        for (LidarICPBenchmark.Scan scan : LidarICPBenchmark.synthesize(new Random(4915))) {
+            try {
+                icp.doICP(scan.xs, scan.ys, scan.n, scan.guess);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            List<Point> points = new ArrayList<>(scan.n);
+            for (int i = 0; i < scan.n; i++) {
+                points.add(new Point(scan.xs[i], scan.ys[i]));
+            }
+            scans.add(scan);
+            pointLists.add(points);
+        }
+    }
+
+    @Benchmark
+    public Transform doICPArrays() {
+        LidarICPBenchmark.Scan scan = scans.get(next);
+        next = (next + 1) % scans.size();
+        return icp.doICP(scan.xs, scan.ys, scan.n, scan.guess);
+    }
+
+    @Benchmark
+    public Transform doICPPoints() {
+        LidarICPBenchmark.Scan scan = scans.get(next);
+        List<Point> points = pointLists.get(next);
+        next = (next + 1) % scans.size();
+        return icp.doICP(points, scan.guess);
+    }
+}
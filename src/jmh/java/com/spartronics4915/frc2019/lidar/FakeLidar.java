@@ -0,0 +1,130 @@
+package com.spartronics4915.frc2019.lidar;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the <code>chezy_lidar</code> process, so the LidarServer
+ * protocol can be exercised and profiled on a laptop. Point
+ * {@link com.spartronics4915.frc2019.Constants#kLidarPath} at a script that
+ * runs this class, or pipe its output into anything that reads the
+ * chezy_lidar stream.
+ * <p>
+ * Usage: <code>FakeLidar [--binary] [--realtime] [capture.txt]</code>
+ * <ul>
+ * <li><code>capture.txt</code> is a recording of chezy_lidar's text output
+ * (<code>timestampMs,angle,distanceMm[s]</code> per line). Without it a
+ * synthetic 400 point/revolution sweep of a 10 ft square room is used.</li>
+ * <li><code>--binary</code> writes {@link LidarProtocol} binary frames
+ * instead of text.</li>
+ * <li><code>--realtime</code> paces output using the recorded timestamps
+ * (10 revolutions/sec for the synthetic sweep); otherwise points are
+ * written as fast as the reader takes them.</li>
+ * </ul>
+ * The recording is looped forever with its timestamps shifted to the
+ * current time.
+ */
+public class FakeLidar {
+
+    private static class Sample {
+        final long offsetMs; // from the start of the recording
+        final double angle, distance;
+        final boolean newScan;
+
+        Sample(long offsetMs, double angle, double distance, boolean newScan) {
+            this.offsetMs = offsetMs;
+            this.angle = angle;
+            this.distance = distance;
+            this.newScan = newScan;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean binary = false, realtime = false;
+        String capture = null;
+        for (String arg : args) {
+            if (arg.equals("--binary"))
+                binary = true;
+            else if (arg.equals("--realtime"))
+                realtime = true;
+            else
+                capture = arg;
+        }
+        List<Sample> samples = capture == null ? synthesize() : load(capture);
+        if (samples.isEmpty()) {
+            System.err.println("FakeLidar: no samples");
+            return;
+        }
+        long period = samples.get(samples.size() - 1).offsetMs + 1;
+
+        // Not System.out, which swallows the error when the reader goes away
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+        WritableByteChannel channel = Channels.newChannel(out);
+        PrintStream text = new PrintStream(out, false);
+        ByteBuffer frame = ByteBuffer.allocate(LidarProtocol.kFrameSize).order(LidarProtocol.kByteOrder);
+
+        long start = System.currentTimeMillis();
+        for (long loop = 0; !text.checkError(); loop++) {
+            for (Sample s : samples) {
+                long ts = start + loop * period + s.offsetMs;
+                if (realtime) {
+                    long wait = ts - System.currentTimeMillis();
+                    if (wait > 0) {
+                        out.flush();
+                        Thread.sleep(wait);
+                    }
+                }
+                if (binary) {
+                    frame.clear();
+                    LidarProtocol.encodeFrame(frame, ts, s.angle, s.distance, s.newScan);
+                    frame.flip();
+                    channel.write(frame);
+                } else {
+                    text.print(ts + "," + s.angle + "," + s.distance + (s.newScan ? "s\n" : "\n"));
+                }
+            }
+        }
+    }
+
+    private static List<Sample> load(String capture) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        long[] first = {-1};
+        for (String line : Files.readAllLines(Paths.get(capture))) {
+            LidarProtocol.parseLine(line, (ts, angle, distance, newScan) -> {
+                if (first[0] < 0)
+                    first[0] = ts;
+                samples.add(new Sample(ts - first[0], angle, distance, newScan));
+            });
+        }
+        return samples;
+    }
+
+    private static List<Sample> synthesize() {
+        final int kPointsPerScan = 400;
+        final double kHalfWidthMm = 5 * 12 * 25.4;
+        List<Sample> samples = new ArrayList<>();
+        for (int scan = 0; scan < 10; scan++) {
+            for (int i = 0; i < kPointsPerScan; i++) {
+                double angle = 360.0 * i / kPointsPerScan;
+                double radians = Math.toRadians(angle);
+                // Distance to the wall of a square room centered on the sensor
+                double distance = kHalfWidthMm / Math.max(Math.abs(Math.cos(radians)), Math.abs(Math.sin(radians)));
+                long offsetMs = (scan * kPointsPerScan + i) * 100L / kPointsPerScan;
+                samples.add(new Sample(offsetMs, angle, distance, i == 0));
+            }
+        }
+        return samples;
+    }
+
+}
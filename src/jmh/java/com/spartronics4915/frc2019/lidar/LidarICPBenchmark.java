@@ -0,0 +1,232 @@
+package com.spartronics4915.frc2019.lidar;
+
+import com.spartronics4915.frc2019.lidar.icp.ICP;
+import com.spartronics4915.frc2019.lidar.icp.ICPResult;
+import com.spartronics4915.frc2019.lidar.icp.Point;
+import com.spartronics4915.frc2019.lidar.icp.ReferenceModel;
+import com.spartronics4915.frc2019.lidar.icp.Transform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link ICP#solve(double[], double[], int, Transform, ICP.Method, double)} against the
+ * tower once per scan of a recorded lidar log, so ICP can be tuned
+ * off-robot.
+ * <p>
+ * Under JMH (<code>./gradlew jmh</code>) it reports the time per scan of
+ * synthetic scans. The build has no way to pass the <code>logFile</code>
+ * param, so to time a recorded log, build the benchmark jar and give it to
+ * JMH with <code>-p</code>:
+ * <pre>
+ * ./gradlew jmhJar
+ * java -jar build/libs/*-jmh.jar LidarICPBenchmark -p logFile=/path/to/lidarLog-xx.dat
+ * </pre>
+ * Run {@link #main(String[])} directly to get
+ * convergence time, iteration count and residual for every scan, and the
+ * pose error for synthetic scans:
+ * <pre>
+ * java -cp ... com.spartronics4915.frc2019.lidar.LidarICPBenchmark [lidarLog-xx.dat]
+ * </pre>
+ * Without a log, scans of the tower at known random poses (with noise and
+ * clutter) are generated instead, so accuracy can be checked against the
+ * ground truth. Like {@link LidarProcessor#getTowerPosition()}, each run
+ * starts from the centroid of the scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LidarICPBenchmark {
+
+    private static final int kNumSyntheticScans = 200;
+    private static final long kTimeoutMs = 100;
+    private static final double kEarlyExitThreshold = 0.01; // compared with running to convergence
+
+    static class Scan {
+        final double[] xs, ys;
+        final int n;
+        final Transform guess;
+        final Transform truth; // null for recorded scans
+
+        Scan(double[] xs, double[] ys, int n, Transform truth) {
+            this.xs = xs;
+            this.ys = ys;
+            this.n = n;
+            this.truth = truth;
+            double avgX = 0, avgY = 0;
+            for (int i = 0; i < n; i++) {
+                avgX += xs[i];
+                avgY += ys[i];
+            }
+            guess = new Transform(0, avgX / n, avgY / n);
+        }
+    }
+
+    @Param({""})
+    public String logFile;
+
+    @Param({"POINT_TO_POINT", "POINT_TO_LINE", "POINT_TO_LINE_HUBER"})
+    public ICP.Method method;
+
+    // 0 runs to convergence; otherwise see ICP.solve
+    @Param({"0", "0.01"})
+    public double minImprovement;
+
+    private List<Scan> scans;
+    private ICP icp;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        scans = logFile.isEmpty() ? synthesize(new Random(4915)) : load(new File(logFile));
+        icp = new ICP(ReferenceModel.TOWER, kTimeoutMs);
+    }
+
+    @Benchmark
+    public ICPResult icpPerScan() {
+        Scan scan = scans.get(next);
+        next = (next + 1) % scans.size();
+        return icp.solve(scan.xs, scan.ys, scan.n, scan.guess, method, minImprovement);
+    }
+
+    static List<Scan> load(File file) throws IOException {
+        List<Scan> scans = new ArrayList<>();
+        double[][] cur = {new double[512], new double[512]};
+        int[] n = {0};
+        try (LidarLogReader reader = LidarLogReader.open(file)) {
+            reader.read((timestamp, angle, distance, x, y, newScan) -> {
+                if (newScan && n[0] > 0) {
+                    scans.add(new Scan(Arrays.copyOf(cur[0], n[0]), Arrays.copyOf(cur[1], n[0]), n[0], null));
+                    n[0] = 0;
+                }
+                if (n[0] == cur[0].length) {
+                    cur[0] = Arrays.copyOf(cur[0], n[0] * 2);
+                    cur[1] = Arrays.copyOf(cur[1], n[0] * 2);
+                }
+                cur[0][n[0]] = x;
+                cur[1][n[0]] = y;
+                n[0]++;
+            });
+        }
+        if (n[0] > 0) {
+            scans.add(new Scan(Arrays.copyOf(cur[0], n[0]), Arrays.copyOf(cur[1], n[0]), n[0], null));
+        }
+        if (scans.isEmpty()) {
+            throw new IOException(file + " has no scans");
+        }
+        return scans;
+    }
+
+    /**
+     * Samples the tower's front face at a random pose in front of the
+     * sensor, with half an inch of noise and 20% clutter points nearby.
+     */
+    static List<Scan> synthesize(Random random) {
+        final int kFacePoints = 40, kClutterPoints = 10;
+        List<Scan> scans = new ArrayList<>();
+        for (int s = 0; s < kNumSyntheticScans; s++) {
+            Transform truth = new Transform(random.nextDouble() * 0.6 - 0.3, 60 + random.nextDouble() * 140,
+                    random.nextDouble() * 80 - 40);
+            int n = kFacePoints + kClutterPoints;
+            double[] xs = new double[n], ys = new double[n];
+            for (int i = 0; i < kFacePoints; i++) {
+                Point p = truth.apply(new Point(0,
+                        -ReferenceModel.TOWER_WIDTH / 2 + ReferenceModel.TOWER_WIDTH * i / (kFacePoints - 1)));
+                xs[i] = p.x + random.nextGaussian() * 0.5;
+                ys[i] = p.y + random.nextGaussian() * 0.5;
+            }
+            for (int i = kFacePoints; i < n; i++) {
+                xs[i] = truth.tx + random.nextDouble() * 60 - 30;
+                ys[i] = truth.ty + random.nextDouble() * 60 - 30;
+            }
+            scans.add(new Scan(xs, ys, n, truth));
+        }
+        return scans;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Scan> scans = args.length > 0 ? load(new File(args[0])) : synthesize(new Random(4915));
+        for (ICP.Method method : ICP.Method.values()) {
+            run(scans, method, 0);
+            run(scans, method, kEarlyExitThreshold);
+        }
+    }
+
+    private static void run(List<Scan> scans, ICP.Method method, double minImprovement) {
+        ICP icp = new ICP(ReferenceModel.TOWER, kTimeoutMs);
+
+        // Warm up the JIT so the first scans aren't dominated by interpretation
+        for (int i = 0; i < 2000; i++) {
+            Scan scan = scans.get(i % scans.size());
+            icp.solve(scan.xs, scan.ys, scan.n, scan.guess, method, minImprovement);
+        }
+
+        int m = scans.size();
+        double[] micros = new double[m], iterations = new double[m], residuals = new double[m];
+        double[] transErrors = new double[m], angleErrors = new double[m];
+        int failures = 0, withTruth = 0;
+        for (int i = 0; i < m; i++) {
+            Scan scan = scans.get(i);
+            long start = System.nanoTime();
+            ICPResult result = icp.solve(scan.xs, scan.ys, scan.n, scan.guess, method, minImprovement);
+            micros[i] = (System.nanoTime() - start) / 1000.0;
+            if (!result.isValid()) {
+                failures++;
+                continue;
+            }
+            iterations[i] = result.iterations;
+            residuals[i] = result.residual;
+            if (scan.truth != null) {
+                Transform t = result.transform;
+                transErrors[withTruth] = Math.hypot(t.tx - scan.truth.tx, t.ty - scan.truth.ty);
+                angleErrors[withTruth] = Math.toDegrees(Math.abs(t.theta - scan.truth.theta));
+                withTruth++;
+            }
+        }
+
+        System.out.println(m + " scans, " + method + ", minImprovement " + minImprovement + ", " + failures
+                + " failed");
+        report("time (us)", micros);
+        report("iterations", iterations);
+        report("mean residual (in)", residuals);
+        if (withTruth > 0) {
+            report("translation error (in)", Arrays.copyOf(transErrors, withTruth));
+            report("rotation error (deg)", Arrays.copyOf(angleErrors, withTruth));
+        }
+    }
+
+    private static void report(String name, double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (double v : sorted) {
+            sum += v;
+        }
+        System.out.printf("%-24s mean %10.3f  p50 %10.3f  p90 %10.3f  max %10.3f%n", name, sum / sorted.length,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), sorted[sorted.length - 1]);
+    }
+
+}
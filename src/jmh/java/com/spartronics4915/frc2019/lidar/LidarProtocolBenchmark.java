@@ -0,0 +1,99 @@
+package com.spartronics4915.frc2019.lidar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of getting one second of lidar points (10 revolutions
+ * of 400 points) out of the chezy_lidar pipe in the text and binary
+ * formats, the same way LidarServer's reader threads do it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LidarProtocolBenchmark {
+
+    private static final int kNumPoints = 4000;
+    private static final int kPointsPerScan = 400;
+
+    private byte[] text, binary;
+    private final ByteBuffer buf =
+            ByteBuffer.allocateDirect(LidarProtocol.kFrameSize * 256).order(LidarProtocol.kByteOrder);
+
+    private static class Sink implements LidarProtocol.Listener {
+        double sum;
+
+        @Override
+        public void onPoint(long timestampMs, double angle, double distance, boolean newScan) {
+            sum += angle + distance;
+        }
+    }
+
+    private final Sink sink = new Sink();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(4915);
+        StringBuilder sb = new StringBuilder();
+        ByteBuffer frames = ByteBuffer.allocate(kNumPoints * LidarProtocol.kFrameSize).order(LidarProtocol.kByteOrder);
+        long ts = 1500000000000L;
+        for (int i = 0; i < kNumPoints; i++) {
+            double angle = 360.0 * (i % kPointsPerScan) / kPointsPerScan;
+            double distance = 500 + random.nextInt(4000);
+            boolean newScan = i % kPointsPerScan == 0;
+            sb.append(ts + i / 4).append(',').append(angle).append(',').append(distance);
+            sb.append(newScan ? "s\n" : "\n");
+            LidarProtocol.encodeFrame(frames, ts + i / 4, angle, distance, newScan);
+        }
+        text = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        binary = frames.array();
+    }
+
+    @Benchmark
+    public double textParse() throws IOException {
+        sink.sum = 0;
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(text), StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            LidarProtocol.parseLine(line, sink);
+        }
+        return sink.sum;
+    }
+
+    @Benchmark
+    public double binaryDecode() throws IOException {
+        sink.sum = 0;
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(binary));
+        buf.clear();
+        while (channel.read(buf) >= 0) {
+            buf.flip();
+            LidarProtocol.decodeFrames(buf, sink);
+            buf.compact();
+        }
+        return sink.sum;
+    }
+
+}
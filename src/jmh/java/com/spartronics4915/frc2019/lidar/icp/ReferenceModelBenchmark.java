@@ -0,0 +1,109 @@
+package com.spartronics4915.frc2019.lidar.icp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of one ICP iteration's correspondence pass (finding the
+ * closest reference point for every lidar point) as the number of segments
+ * in the {@link ReferenceModel} grows, with and without the
+ * {@link SegmentGrid} index.
+ * <p>
+ * The model is a jagged outline of the field, and the point cloud is a
+ * noisy sampling of it, roughly the size of one culled ICP input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReferenceModelBenchmark {
+
+    private static final double kFieldWidth = 27 * 12, kFieldHeight = 54 * 12;
+    private static final int kNumPoints = 2000;
+
+    @Param({"1", "4", "16", "64", "256", "1024"})
+    public int segmentCount;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private ReferenceModel model;
+    private final double[] xs = new double[kNumPoints], ys = new double[kNumPoints];
+    private final double[] out = new double[2];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(4915);
+        Segment[] segments = makeFieldOutline(segmentCount, random);
+        model = new ReferenceModel(indexed ? ReferenceModel.GRID_CELL_SIZE : 0, segments);
+
+        for (int i = 0; i < kNumPoints; i++) {
+            Segment s = segments[random.nextInt(segments.length)];
+            double t = s.tMin + random.nextDouble() * (s.tMax - s.tMin);
+            Point p = s.line.getPoint(t);
+            xs[i] = p.x + random.nextGaussian();
+            ys[i] = p.y + random.nextGaussian();
+        }
+    }
+
+    /**
+     * Walks the field perimeter in <code>n</code> pieces, pushing every
+     * vertex in or out by a few inches so that segments aren't colinear.
+     */
+    static Segment[] makeFieldOutline(int n, Random random) {
+        final double perimeter = 2 * (kFieldWidth + kFieldHeight);
+        Point[] vertices = new Point[n];
+        for (int i = 0; i < n; i++) {
+            double d = perimeter * i / n;
+            double jitter = random.nextDouble() * 6 - 3;
+            double x, y;
+            if (d < kFieldWidth) {
+                x = d;
+                y = jitter;
+            } else if (d < kFieldWidth + kFieldHeight) {
+                x = kFieldWidth + jitter;
+                y = d - kFieldWidth;
+            } else if (d < 2 * kFieldWidth + kFieldHeight) {
+                x = 2 * kFieldWidth + kFieldHeight - d;
+                y = kFieldHeight + jitter;
+            } else {
+                x = jitter;
+                y = perimeter - d;
+            }
+            vertices[i] = new Point(x, y);
+        }
+        if (n == 1) {
+            return new Segment[]{new Segment(vertices[0], new Point(kFieldWidth, 0))};
+        }
+        Segment[] segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(vertices[i], vertices[(i + 1) % n]);
+        }
+        return segments;
+    }
+
+    @Benchmark
+    public double correspondencePass() {
+        double sum = 0;
+        for (int i = 0; i < kNumPoints; i++) {
+            model.getClosestPoint(xs[i], ys[i], out);
+            sum += out[0] + out[1];
+        }
+        return sum;
+    }
+
+}
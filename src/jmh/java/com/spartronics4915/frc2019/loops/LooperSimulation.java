@@ -0,0 +1,427 @@
+package com.spartronics4915.frc2019.loops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import com.spartronics4915.frc2019.Constants;
+import com.spartronics4915.frc2019.loops.Looper.Priority;
+import com.spartronics4915.lib.util.LatencyHistogram;
+
+/**
+ * Checks {@link Looper}'s scheduling off-robot, first against a simulated
+ * clock and then on real threads:
+ * <pre>
+ * java -cp ... com.spartronics4915.frc2019.loops.LooperSimulation
+ * </pre>
+ * Loops standing in for the robot's (with made-up costs) are registered with
+ * a simulated looper, and ten seconds of ticks are played out. Each tier is
+ * treated like a thread of its own that preempts lower tiers, so a tier
+ * starts a tick when its Notifier fires or when its previous tick ends,
+ * whichever is later. The connection monitor stalls for 50 ms every couple
+ * of seconds, and a loop registered with {@link Looper.OverrunPolicy#SHED}
+ * stalls every time. Stalling loops call {@link Looper#checkDeadlines()}
+ * half way through, standing in for the watchdog thread.
+ * <p>
+ * That part checks the looper's bookkeeping: every loop that never stalled
+ * ran at its period, the stalls were counted as overruns with a stack
+ * sample, the connection monitor was degraded and the always-stalling loop
+ * was shed. Since each tier runs on its own timeline there, it says nothing
+ * about whether the tiers are isolated from each other.
+ * <p>
+ * That is checked next, on the wall clock. Each tier is ticked by a thread
+ * of its own at its period, as its Notifier does on the robot, and takes its
+ * own lock as it does there. The loops spin for their costs, and the
+ * mechanisms loop in the NORMAL tier sleeps for 50 ms every tenth of a
+ * second. The check passes if the CRITICAL tier's ticks stayed close to its
+ * period meanwhile. The same loops are then run on one thread in a single
+ * tier, as the looper used to, which must show the stalls, or the check
+ * couldn't have seen them either. Loops in different tiers that share a
+ * lock aren't isolated by this; see {@link Looper}.
+ * <p>
+ * Exits with status 1 if a check fails. This isn't run by the build, so run
+ * it after changing the looper.
+ */
+public class LooperSimulation
+{
+
+    private static final double kDuration = 10;
+    private static final double kStall = 0.05;
+    private static final double kRealDuration = 3;
+
+    private static class SimulatedClock implements Looper.Clock
+    {
+
+        double mNow = 0;
+
+        @Override
+        public double getTimestamp()
+        {
+            return mNow;
+        }
+
+        @Override
+        public long getNanos()
+        {
+            return Math.round(mNow * 1e9);
+        }
+    }
+
+    /**
+     * Takes <code>cost</code> seconds per run (<code>stall</code> seconds
+     * every <code>stallEvery</code> runs), and remembers when it ran.
+     */
+    private static class FakeLoop implements Loop
+    {
+
+        final String mName;
+        final double mPeriod;
+        final Priority mPriority;
+        final Looper.OverrunPolicy mPolicy;
+        final double mCost;
+        final int mStallEvery;
+        final SimulatedClock mClock;
+        final List<Double> mRuns = new ArrayList<>();
+        Looper mLooper;
+
+        FakeLoop(SimulatedClock clock, String name, double period, Priority priority, Looper.OverrunPolicy policy,
+                double cost, int stallEvery)
+        {
+            mClock = clock;
+            mName = name;
+            mPeriod = period;
+            mPriority = priority;
+            mPolicy = policy;
+            mCost = cost;
+            mStallEvery = stallEvery;
+        }
+
+        @Override
+        public void onStart(double timestamp)
+        {
+            mRuns.clear();
+        }
+
+        @Override
+        public void onLoop(double timestamp)
+        {
+            mRuns.add(timestamp);
+            if (mStallEvery > 0 && mRuns.size() % mStallEvery == 0)
+            {
+                mClock.mNow += kStall / 2;
+                mLooper.checkDeadlines();
+                mClock.mNow += kStall / 2;
+            }
+            else
+            {
+                mClock.mNow += mCost;
+            }
+        }
+
+        @Override
+        public void onStop(double timestamp)
+        {
+        }
+    }
+
+    private static class WallClock implements Looper.Clock
+    {
+
+        @Override
+        public double getTimestamp()
+        {
+            return System.nanoTime() / 1e9;
+        }
+
+        @Override
+        public long getNanos()
+        {
+            return System.nanoTime();
+        }
+    }
+
+    /**
+     * Spins for <code>cost</code> seconds per run, and sleeps for kStall
+     * seconds every <code>stallEvery</code> runs instead.
+     */
+    private static class SpinningLoop implements Loop
+    {
+
+        final double mPeriod;
+        final Priority mPriority;
+        final long mCostNanos;
+        final int mStallEvery;
+        int mRuns = 0;
+
+        SpinningLoop(double period, Priority priority, double cost, int stallEvery)
+        {
+            mPeriod = period;
+            mPriority = priority;
+            mCostNanos = Math.round(cost * 1e9);
+            mStallEvery = stallEvery;
+        }
+
+        @Override
+        public void onStart(double timestamp)
+        {
+            mRuns = 0;
+        }
+
+        @Override
+        public void onLoop(double timestamp)
+        {
+            mRuns++;
+            if (mStallEvery > 0 && mRuns % mStallEvery == 0)
+            {
+                LockSupport.parkNanos(Math.round(kStall * 1e9));
+                return;
+            }
+            final long end = System.nanoTime() + mCostNanos;
+            while (System.nanoTime() < end)
+                ;
+        }
+
+        @Override
+        public void onStop(double timestamp)
+        {
+        }
+    }
+
+    private static List<SpinningLoop> makeSpinningLoops()
+    {
+        final double dt = Constants.kLooperDt;
+        List<SpinningLoop> loops = new ArrayList<>();
+        loops.add(new SpinningLoop(dt, Priority.CRITICAL, 0.0003, 0)); // RobotStateEstimator
+        loops.add(new SpinningLoop(dt, Priority.CRITICAL, 0.001, 0)); // Drive
+        loops.add(new SpinningLoop(dt, Priority.NORMAL, 0.0005, (int) Math.round(0.1 / dt))); // Superstructure
+        loops.add(new SpinningLoop(2 * dt, Priority.NORMAL, 0.0005, 0)); // Turret
+        loops.add(new SpinningLoop(Constants.kLooperBackgroundDt, Priority.BACKGROUND, 0.0002, 0)); // LED
+        return loops;
+    }
+
+    /**
+     * Ticks each of the looper's tiers from a thread of its own for
+     * kRealDuration seconds. Like a Notifier, a thread wakes at each multiple
+     * of its tier's period, or right away if the last tick ran past it.
+     */
+    private static void runThreads(final Looper looper) throws InterruptedException
+    {
+        looper.start();
+        final long start = System.nanoTime(), end = start + Math.round(kRealDuration * 1e9);
+        List<Thread> threads = new ArrayList<>();
+        for (final Priority priority : Priority.values())
+        {
+            final long period = Math.round(looper.getPeriod(priority) * 1e9);
+            if (period == 0)
+                continue;
+            Thread thread = new Thread(() ->
+            {
+                for (long wake = start + period; wake < end; wake += period)
+                {
+                    long wait;
+                    while ((wait = wake - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                    looper.runSimulatedTick(priority);
+                }
+            }, "LooperSimulation " + priority);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        looper.stop();
+    }
+
+    private static List<FakeLoop> makeLoops(SimulatedClock clock)
+    {
+        final double dt = Constants.kLooperDt, slowDt = Constants.kLooperBackgroundDt;
+        final Looper.OverrunPolicy log = Looper.OverrunPolicy.LOG, skip = Looper.OverrunPolicy.SKIP,
+                degrade = Looper.OverrunPolicy.DEGRADE;
+        List<FakeLoop> loops = new ArrayList<>();
+        loops.add(new FakeLoop(clock, "RobotStateEstimator", dt, Priority.CRITICAL, log, 0.0003, 0));
+        loops.add(new FakeLoop(clock, "Drive", dt, Priority.CRITICAL, log, 0.001, 0));
+        loops.add(new FakeLoop(clock, "Superstructure", dt, Priority.NORMAL, skip, 0.0005, 0));
+        loops.add(new FakeLoop(clock, "Turret", 2 * dt, Priority.NORMAL, skip, 0.0005, 0));
+        loops.add(new FakeLoop(clock, "LED", slowDt, Priority.BACKGROUND, degrade, 0.0002, 0));
+        loops.add(new FakeLoop(clock, "LidarProcessor", slowDt, Priority.BACKGROUND, degrade, 0.0001, 0));
+        loops.add(new FakeLoop(clock, "ConnectionMonitor", 5 * slowDt, Priority.BACKGROUND, degrade, 0.0001, 25));
+        loops.add(new FakeLoop(clock, "Stuck", 5 * slowDt, Priority.BACKGROUND, Looper.OverrunPolicy.SHED, 0, 1));
+        return loops;
+    }
+
+    /**
+     * Plays out kDuration seconds of the looper's tiers.
+     */
+    private static void simulate(Looper looper, SimulatedClock clock)
+    {
+        final int numTiers = Priority.values().length;
+        double[] nextWake = new double[numTiers], busyUntil = new double[numTiers];
+        looper.start();
+        while (true)
+        {
+            // The tier that can start a tick soonest; the higher priority wins ties
+            int next = -1;
+            double nextStart = Double.POSITIVE_INFINITY;
+            for (int t = 0; t < numTiers; t++)
+            {
+                if (looper.getPeriod(Priority.values()[t]) == 0)
+                    continue;
+                double start = Math.max(nextWake[t], busyUntil[t]);
+                if (start < nextStart - 1e-12)
+                {
+                    next = t;
+                    nextStart = start;
+                }
+            }
+            if (next < 0 || nextStart >= kDuration)
+                break;
+
+            Priority priority = Priority.values()[next];
+            clock.mNow = nextStart;
+            looper.runSimulatedTick(priority);
+            busyUntil[next] = clock.mNow;
+            nextWake[next] += looper.getPeriod(priority);
+        }
+        clock.mNow = kDuration;
+        looper.stop();
+    }
+
+    /**
+     * Prints each loop's timing, and checks that each loop that never
+     * overran ran at its period unless <code>ok</code> is null.
+     */
+    private static void report(Looper looper, List<FakeLoop> loops, boolean[] ok)
+    {
+        System.out.printf("%-20s %-10s %7s %7s %8s %10s %10s %8s%n", "loop", "priority", "period", "runs",
+                "expected", "mean (ms)", "worst (ms)", "overruns");
+        for (int l = 0; l < loops.size(); l++)
+        {
+            FakeLoop loop = loops.get(l);
+            long overruns = looper.getLoopOverruns(l);
+            int runs = loop.mRuns.size();
+            int expected = (int) Math.round(kDuration / loop.mPeriod);
+            double worst = 0;
+            for (int i = 1; i < runs; i++)
+            {
+                worst = Math.max(worst, Math.abs(loop.mRuns.get(i) - loop.mRuns.get(i - 1) - loop.mPeriod));
+            }
+            double mean = runs > 1 ? (loop.mRuns.get(runs - 1) - loop.mRuns.get(0)) / (runs - 1) : 0;
+            System.out.printf("%-20s %-10s %7.3f %7d %8d %10.3f %10.3f %8d%n", loop.mName, loop.mPriority,
+                    loop.mPeriod, runs, expected, mean * 1000, worst * 1000, overruns);
+            // Stalls cost the stalling tier a few runs, but never a whole period on average
+            if (ok != null && overruns == 0 && Math.abs(runs - expected) > expected * 0.05 + 1)
+            {
+                System.out.println("  FAIL: " + loop.mName + " ran " + runs + " times, expected " + expected);
+                ok[0] = false;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        boolean[] ok = {true};
+
+        System.out.println("Tiered looper, " + kDuration + " simulated seconds:");
+        SimulatedClock clock = new SimulatedClock();
+        Looper looper = new Looper(clock);
+        List<FakeLoop> loops = makeLoops(clock);
+        for (FakeLoop loop : loops)
+        {
+            looper.register(loop, loop.mPeriod, loop.mPriority, loop.mPolicy);
+            loop.mLooper = looper;
+        }
+        simulate(looper, clock);
+        report(looper, loops, ok);
+        for (Priority priority : Priority.values())
+        {
+            System.out.println(priority + ": " + looper.getOverruns(priority) + " overruns, jitter " +
+                    looper.getJitter(priority).summary());
+        }
+        if (looper.getOverruns(Priority.CRITICAL) != 0 || looper.getOverruns(Priority.BACKGROUND) == 0)
+        {
+            System.out.println("FAIL: expected overruns only in the BACKGROUND tier");
+            ok[0] = false;
+        }
+        for (int l = 0; l < loops.size(); l++)
+        {
+            FakeLoop loop = loops.get(l);
+            if (loop.mStallEvery == 0)
+                continue;
+            String sample = looper.getLoopStackSample(l);
+            if (looper.getLoopOverruns(l) == 0 || sample == null || !sample.contains("FakeLoop.onLoop"))
+            {
+                System.out.println("FAIL: " + loop.mName + "'s stalls weren't caught with a stack sample");
+                ok[0] = false;
+            }
+            int runs = loop.mRuns.size();
+            if (loop.mPolicy == Looper.OverrunPolicy.DEGRADE &&
+                    runs > 1 && (loop.mRuns.get(runs - 1) - loop.mRuns.get(0)) / (runs - 1) <= loop.mPeriod)
+            {
+                System.out.println("FAIL: " + loop.mName + " wasn't slowed down");
+                ok[0] = false;
+            }
+            if (loop.mPolicy == Looper.OverrunPolicy.SHED &&
+                    (!looper.isLoopShed(l) || runs != Constants.kLooperShedOverruns))
+            {
+                System.out.println("FAIL: " + loop.mName + " wasn't shed after " + Constants.kLooperShedOverruns +
+                        " overruns (ran " + runs + " times)");
+                ok[0] = false;
+            }
+        }
+
+        System.out.println();
+        System.out.println("Same loops in one tier:");
+        clock = new SimulatedClock();
+        looper = new Looper(clock);
+        loops = makeLoops(clock);
+        for (FakeLoop loop : loops)
+        {
+            looper.register(loop, loop.mPeriod, Priority.CRITICAL, loop.mPolicy);
+            loop.mLooper = looper;
+        }
+        simulate(looper, clock);
+        report(looper, loops, null);
+
+        System.out.println();
+        System.out.println("Tiered looper, a thread per tier, " + kRealDuration + " seconds:");
+        looper = new Looper(new WallClock());
+        for (SpinningLoop loop : makeSpinningLoops())
+            looper.register(loop, loop.mPeriod, loop.mPriority, Looper.OverrunPolicy.LOG);
+        runThreads(looper);
+        for (Priority priority : Priority.values())
+        {
+            System.out.println(priority + ": " + looper.getOverruns(priority) + " overruns, jitter " +
+                    looper.getJitter(priority).summary());
+        }
+        LatencyHistogram criticalJitter = looper.getJitter(Priority.CRITICAL);
+        // Leave the OS some room to be late waking a thread, but far less than a stall
+        if (criticalJitter.getPercentile(99) > kStall / 5 * 1e9 || criticalJitter.getMax() > kStall / 2 * 1e9)
+        {
+            System.out.println("FAIL: the NORMAL tier's stalls delayed the CRITICAL tier");
+            ok[0] = false;
+        }
+        if (looper.getOverruns(Priority.NORMAL) == 0)
+        {
+            System.out.println("FAIL: the NORMAL tier's stalls weren't counted as overruns");
+            ok[0] = false;
+        }
+
+        System.out.println();
+        System.out.println("Same loops on one thread:");
+        looper = new Looper(new WallClock());
+        for (SpinningLoop loop : makeSpinningLoops())
+            looper.register(loop, loop.mPeriod, Priority.CRITICAL, Looper.OverrunPolicy.LOG);
+        runThreads(looper);
+        criticalJitter = looper.getJitter(Priority.CRITICAL);
+        System.out.println(Priority.CRITICAL + ": jitter " + criticalJitter.summary());
+        if (criticalJitter.getMax() < kStall * 0.8 * 1e9)
+        {
+            System.out.println("FAIL: the stalls didn't delay a single tier either, so the check can't see them");
+            ok[0] = false;
+        }
+
+        System.out.println();
+        System.out.println(ok[0] ? "PASS" : "FAIL");
+        System.exit(ok[0] ? 0 : 1);
+    }
+}
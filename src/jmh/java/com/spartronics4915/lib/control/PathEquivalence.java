@@ -0,0 +1,179 @@
+package com.spartronics4915.lib.control;
+
+import java.util.Random;
+
+import com.spartronics4915.lib.math.Translation2d;
+
+/**
+ * Checks that {@link Path#getTargetPoint} answers as the {@link ListPath}
+ * it replaced, off-robot:
+ * <pre>
+ * java -cp ... com.spartronics4915.lib.control.PathEquivalence [trials]
+ * </pre>
+ * Each trial builds the same random path (2 to 60 lines and arcs, some with
+ * markers) into a Path and a ListPath, with a random Lookahead, and
+ * drives a robot along it: each step, both are asked for the target point
+ * from the robot's position, and the robot moves up to 1.3 in further along
+ * the path, with some noise. The step is checked if the reports' closest and
+ * lookahead points, speeds and distances remaining agree to within
+ * kTolerance (the cumulative lengths are summed in a different order), both
+ * have finished the same segments, and both have passed the same markers.
+ * Both must also run out of segments at the same step.
+ * <p>
+ * Prints the largest difference seen, and exits with status 1 on any
+ * mismatch. This isn't run by the build, so run it after changing Path.
+ */
+public class PathEquivalence
+{
+
+    private static final int kDefaultTrials = 1000;
+    private static final int kMaxSteps = 3000;
+    private static final double kTolerance = 1e-9;
+    private static final int kMaxReports = 10;
+
+    private static int sLookups = 0;
+    private static int sFinished = 0; // paths followed to the end
+    private static int sMismatches = 0;
+    private static double sWorstDifference = 0;
+
+    public static void main(String[] args)
+    {
+        final int trials = args.length > 0 ? Integer.parseInt(args[0]) : kDefaultTrials;
+        Random random = new Random(4915);
+        for (int trial = 0; trial < trials; trial++)
+        {
+            runTrial(random, trial);
+        }
+        System.out.println(sLookups + " lookups over " + trials + " paths (" + sFinished
+                + " followed to the end), " + sMismatches + " mismatches, largest difference " + sWorstDifference);
+        System.out.println(sMismatches == 0 ? "PASS" : "FAIL");
+        System.exit(sMismatches == 0 ? 0 : 1);
+    }
+
+    private static void runTrial(Random random, int trial)
+    {
+        Path path = new Path();
+        ListPath reference = new ListPath();
+        final int numSegments = 2 + random.nextInt(59);
+        double x = 0, y = 0;
+        for (int i = 0; i < numSegments; i++)
+        {
+            final String marker = random.nextInt(8) == 0 ? "marker" + i : null;
+            final double maxSpeed = 20 + random.nextDouble() * 100, endSpeed = random.nextDouble() * 60;
+            if (random.nextInt(3) == 0)
+            {
+                // An arc, turning by up to about 70 degrees either way about a center to one side
+                final double cx = x + (random.nextDouble() - 0.5) * 20, cy = y + (random.nextDouble() - 0.5) * 20;
+                final double angle = (random.nextDouble() - 0.5) * 2.4;
+                final double cos = Math.cos(angle), sin = Math.sin(angle);
+                final double x2 = cx + (x - cx) * cos - (y - cy) * sin, y2 = cy + (x - cx) * sin + (y - cy) * cos;
+                path.addSegment(new PathSegment(x, y, x2, y2, cx, cy, maxSpeed, path.getLastMotionState(),
+                        endSpeed, marker));
+                reference.addSegment(new PathSegment(x, y, x2, y2, cx, cy, maxSpeed,
+                        reference.getLastMotionState(), endSpeed, marker));
+                x = x2;
+                y = y2;
+            }
+            else
+            {
+                final double x2 = x + 0.5 + random.nextDouble() * 6, y2 = y + (random.nextDouble() - 0.5) * 4;
+                path.addSegment(new PathSegment(x, y, x2, y2, maxSpeed, path.getLastMotionState(), endSpeed,
+                        marker));
+                reference.addSegment(new PathSegment(x, y, x2, y2, maxSpeed, reference.getLastMotionState(),
+                        endSpeed, marker));
+                x = x2;
+                y = y2;
+            }
+        }
+        path.extrapolateLast();
+        reference.extrapolateLast();
+        path.verifySpeeds();
+        reference.verifySpeeds();
+        check(path.toString().equals(reference.toString()), trial, 0, "segments as built");
+
+        Lookahead lookahead = new Lookahead(5 + random.nextDouble() * 5, 20 + random.nextDouble() * 20, 0, 120);
+        double robotX = -0.5, robotY = 0.3;
+        for (int step = 0; step < kMaxSteps; step++)
+        {
+            Translation2d robot = new Translation2d(robotX, robotY);
+            ListPath.TargetPointReport expected;
+            try
+            {
+                expected = reference.getTargetPoint(robot, lookahead);
+            }
+            catch (IndexOutOfBoundsException e)
+            {
+                // The reference ran out of segments; so must the path
+                boolean pathEnded = false;
+                try
+                {
+                    path.getTargetPoint(robot, lookahead, step * 0.01);
+                }
+                catch (IndexOutOfBoundsException e2)
+                {
+                    pathEnded = true;
+                }
+                if (check(pathEnded, trial, step, "end of path"))
+                    sFinished++;
+                return;
+            }
+            Path.TargetPointReport report = path.getTargetPoint(robot, lookahead, step * 0.01);
+            sLookups++;
+
+            double difference = 0;
+            difference = Math.max(difference, distance(expected.closest_point, report.closest_point));
+            difference = Math.max(difference, distance(expected.lookahead_point, report.lookahead_point));
+            difference = Math.max(difference,
+                    Math.abs(expected.closest_point_distance - report.closest_point_distance));
+            difference = Math.max(difference, Math.abs(expected.closest_point_speed - report.closest_point_speed));
+            difference = Math.max(difference, Math.abs(expected.max_speed - report.max_speed));
+            difference = Math.max(difference,
+                    Math.abs(expected.lookahead_point_speed - report.lookahead_point_speed));
+            difference = Math.max(difference,
+                    Math.abs(expected.remaining_segment_distance - report.remaining_segment_distance));
+            difference = Math.max(difference,
+                    Math.abs(expected.remaining_path_distance - report.remaining_path_distance));
+            sWorstDifference = Math.max(sWorstDifference, difference);
+            boolean markersSame = true;
+            for (int i = 0; i < numSegments; i++)
+            {
+                markersSame &= path.hasPassedMarker("marker" + i) == reference.hasPassedMarker("marker" + i);
+            }
+            if (!check(difference <= kTolerance && markersSame, trial, step,
+                    "target point (difference " + difference + ")"))
+                return;
+            // Both on the same segment now, if any are left (toString would say, but it's far slower
+            // than the lookups)
+            final Translation2d closest = report.closest_point;
+            if (!reference.segments.isEmpty() && !check(path.getSegmentLength() == reference.getSegmentLength()
+                    && path.getSegmentRemainingDist(closest) == reference.getSegmentRemainingDist(closest),
+                    trial, step, "current segment"))
+                return;
+
+            // Move along the path, a little off it. (Heading for the lookahead point instead gets
+            // stuck at some of the corners between random arcs and lines.)
+            if (reference.segments.isEmpty())
+                continue;
+            final PathSegment segment = reference.segments.get(0);
+            final Translation2d next = segment.getPointByDistance(
+                    segment.getLength() - expected.remaining_segment_distance + 0.3 + random.nextDouble());
+            robotX = next.x() + (random.nextDouble() - 0.5) * 0.5;
+            robotY = next.y() + (random.nextDouble() - 0.5) * 0.5;
+        }
+    }
+
+    private static double distance(Translation2d a, Translation2d b)
+    {
+        return Math.hypot(a.x() - b.x(), a.y() - b.y());
+    }
+
+    private static boolean check(boolean same, int trial, int step, String what)
+    {
+        if (same)
+            return true;
+        if (sMismatches < kMaxReports)
+            System.out.println("  trial " + trial + ", step " + step + ": " + what + " differs");
+        sMismatches++;
+        return false;
+    }
+}
@@ -0,0 +1,162 @@
+package com.spartronics4915.lib.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.spartronics4915.frc2019.Constants;
+import com.spartronics4915.frc2019.paths.PathBuilder;
+import com.spartronics4915.frc2019.paths.PathBuilder.Waypoint;
+import com.spartronics4915.lib.math.Pose2d;
+import com.spartronics4915.lib.math.Rotation2d;
+import com.spartronics4915.lib.math.Twist2d;
+
+/**
+ * Times one control tick of path following: {@link Path#getTargetPoint},
+ * {@link AdaptivePurePursuitController#update} (which calls it) and
+ * {@link PathFollower#update} (which calls that, and the velocity
+ * profile), each per call.
+ * <p>
+ * Following a path consumes it, so each invocation drives a fresh copy of
+ * kPath from start to finish: it replays, at kSamples of the poses (and
+ * times, displacements and velocities) that a robot following the path
+ * perfectly at kDt passed through. The trajectory is simulated once, with
+ * Drive's PathFollower parameters, before the trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathFollowingBenchmark
+{
+
+    static final double kDt = Constants.kLooperDt;
+    static final int kSamples = 200;
+
+    static final Pose2d kStartPose = new Pose2d(0, 0, Rotation2d.identity());
+
+    static final List<Waypoint> kPath = new ArrayList<>();
+    static
+    {
+        kPath.add(new Waypoint(0, 0, 0, 0));
+        kPath.add(new Waypoint(60, 0, 20, 100));
+        kPath.add(new Waypoint(120, 60, 20, 100));
+        kPath.add(new Waypoint(200, 60, 0, 60));
+    }
+
+    static PathFollower.Parameters getParameters()
+    {
+        // As Drive.setWantDrivePath
+        return new PathFollower.Parameters(
+                new Lookahead(Constants.kMinLookAhead, Constants.kMaxLookAhead,
+                        Constants.kMinLookAheadSpeed, Constants.kMaxLookAheadSpeed),
+                Constants.kInertiaSteeringGain, Constants.kPathFollowingProfileKp,
+                Constants.kPathFollowingProfileKi, Constants.kPathFollowingProfileKv,
+                Constants.kPathFollowingProfileKffv,
+                Constants.kPathFollowingProfileKffa,
+                Constants.kPathFollowingMaxVel, Constants.kPathFollowingMaxAccel,
+                Constants.kPathFollowingGoalPosTolerance,
+                Constants.kPathFollowingGoalVelTolerance,
+                Constants.kPathStopSteeringDistance);
+    }
+
+    // The recorded trajectory, kSamples ticks spread over the whole drive
+    double[] mTimes = new double[kSamples];
+    Pose2d[] mPoses = new Pose2d[kSamples];
+    double[] mDisplacements = new double[kSamples];
+    double[] mVelocities = new double[kSamples];
+
+    Path mPath;
+    AdaptivePurePursuitController mController;
+    PathFollower mFollower;
+    final Lookahead mLookahead = getParameters().lookahead;
+
+    @Setup(Level.Trial)
+    public void recordTrajectory()
+    {
+        List<Double> times = new ArrayList<>(), displacements = new ArrayList<>(), velocities = new ArrayList<>();
+        List<Pose2d> poses = new ArrayList<>();
+        PathFollower follower = new PathFollower(PathBuilder.buildPathFromWaypoints(kPath), false, getParameters());
+        Pose2d pose = kStartPose;
+        double t = 0, displacement = 0, velocity = 0;
+        while (!follower.isFinished() && t < 15.0)
+        {
+            times.add(t);
+            poses.add(pose);
+            displacements.add(displacement);
+            velocities.add(velocity);
+
+            Twist2d command = follower.update(t, pose, displacement, velocity);
+            pose = pose.transformBy(Pose2d.exp(command.scaled(kDt)));
+            t += kDt;
+            velocity = command.dx;
+            displacement += velocity * kDt;
+        }
+        if (!follower.isFinished())
+            throw new IllegalStateException("Simulated robot didn't finish the path");
+        for (int i = 0; i < kSamples; i++)
+        {
+            int tick = i * (times.size() - 1) / (kSamples - 1);
+            mTimes[i] = times.get(tick);
+            mPoses[i] = poses.get(tick);
+            mDisplacements[i] = displacements.get(tick);
+            mVelocities[i] = velocities.get(tick);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void buildPath()
+    {
+        // Each invocation is a whole drive, well over JMH's per-invocation setup overhead
+        mPath = PathBuilder.buildPathFromWaypoints(kPath);
+        mController = new AdaptivePurePursuitController(PathBuilder.buildPathFromWaypoints(kPath), false,
+                mLookahead);
+        mFollower = new PathFollower(PathBuilder.buildPathFromWaypoints(kPath), false, getParameters());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(kSamples)
+    public void pathGetTargetPoint(Blackhole bh)
+    {
+        for (int i = 0; i < kSamples; i++)
+        {
+            bh.consume(mPath.getTargetPoint(mPoses[i].getTranslation(), mLookahead, mTimes[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(kSamples)
+    public void adaptivePurePursuitUpdate(Blackhole bh)
+    {
+        for (int i = 0; i < kSamples; i++)
+        {
+            bh.consume(mController.update(mPoses[i], mTimes[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(kSamples)
+    public void pathFollowerUpdate(Blackhole bh)
+    {
+        for (int i = 0; i < kSamples; i++)
+        {
+            bh.consume(mFollower.update(mTimes[i], mPoses[i], mDisplacements[i], mVelocities[i]));
+        }
+    }
+}
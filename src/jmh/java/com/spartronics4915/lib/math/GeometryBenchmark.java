@@ -0,0 +1,167 @@
+package com.spartronics4915.lib.math;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the immutable Pose2d operations with their {@link MutablePose2d}
+ * and {@link PoseArrays} forms, over kN random poses, points and twists.
+ * <p>
+ * Run with the GC profiler to see the allocation rate alongside the time
+ * (<code>gc.alloc.rate.norm</code> is bytes per operation):
+ * <pre>
+ * ./gradlew jmh -Pjmh.include=GeometryBenchmark -Pjmh.profilers=gc
+ * </pre>
+ * Note that escape analysis can remove some of the immutable API's
+ * allocations once it's inlined, so small differences here may not hold on
+ * the roboRIO's JIT.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+    static final int kN = 360; // about one lidar scan
+
+    Pose2d[] poses = new Pose2d[kN];
+    Twist2d[] twists = new Twist2d[kN];
+    Pose2d pose;
+
+    double[] xs = new double[kN], ys = new double[kN];
+    double[] dxs = new double[kN], dys = new double[kN], dthetas = new double[kN];
+    double[] out_x = new double[kN], out_y = new double[kN], out_cos = new double[kN], out_sin = new double[kN];
+    double[] out_twists = new double[3 * kN];
+    MutablePose2d scratch = new MutablePose2d();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(4915);
+        for (int i = 0; i < kN; i++) {
+            poses[i] = new Pose2d(random.nextDouble() * 100, random.nextDouble() * 100,
+                    Rotation2d.fromRadians((random.nextDouble() - 0.5) * 2 * Math.PI));
+            twists[i] = new Twist2d(random.nextDouble(), 0, (random.nextDouble() - 0.5) * 0.1);
+            xs[i] = random.nextDouble() * 100;
+            ys[i] = random.nextDouble() * 100;
+            dxs[i] = twists[i].dx;
+            dys[i] = twists[i].dy;
+            dthetas[i] = twists[i].dtheta;
+        }
+        pose = poses[0];
+    }
+
+    @Benchmark
+    public void transformByImmutable(Blackhole bh) {
+        for (int i = 0; i < kN; i++) {
+            bh.consume(pose.transformBy(poses[i]));
+        }
+    }
+
+    @Benchmark
+    public void transformByInto(Blackhole bh) {
+        for (int i = 0; i < kN; i++) {
+            bh.consume(pose.transformByInto(poses[i], scratch).x());
+        }
+    }
+
+    @Benchmark
+    public void interpolateImmutable(Blackhole bh) {
+        // The pre-kernel implementation, for comparison
+        for (int i = 1; i < kN; i++) {
+            final Twist2d twist = Pose2d.log(poses[i - 1].inverse().transformBy(poses[i]));
+            bh.consume(poses[i - 1].transformBy(Pose2d.exp(twist.scaled(0.5))));
+        }
+    }
+
+    @Benchmark
+    public void interpolate(Blackhole bh) {
+        for (int i = 1; i < kN; i++) {
+            bh.consume(poses[i - 1].interpolate(poses[i], 0.5));
+        }
+    }
+
+    @Benchmark
+    public void interpolateInto(Blackhole bh) {
+        for (int i = 1; i < kN; i++) {
+            bh.consume(scratch.setInterpolated(poses[i - 1], poses[i], 0.5).x());
+        }
+    }
+
+    @Benchmark
+    public Pose2d integrateImmutable() {
+        Pose2d p = pose;
+        for (int i = 0; i < kN; i++) {
+            p = p.transformBy(Pose2d.exp(twists[i]));
+        }
+        return p;
+    }
+
+    @Benchmark
+    public Pose2d integrateMutable() {
+        scratch.set(pose);
+        for (int i = 0; i < kN; i++) {
+            scratch.transformByExp(dxs[i], dys[i], dthetas[i]);
+        }
+        return scratch.toPose2d();
+    }
+
+    @Benchmark
+    public Pose2d integrateArrays() {
+        return PoseArrays.integrate(pose, dxs, dys, dthetas, out_x, out_y, out_cos, out_sin, kN);
+    }
+
+    @Benchmark
+    public void transformPointsImmutable(Blackhole bh) {
+        for (int i = 0; i < kN; i++) {
+            bh.consume(pose.transformBy(Pose2d.fromTranslation(new Translation2d(xs[i], ys[i]))).getTranslation());
+        }
+    }
+
+    @Benchmark
+    public double[] transformPointsArrays() {
+        PoseArrays.transformPoints(pose, xs, ys, out_x, out_y, kN);
+        return out_x;
+    }
+
+    @Benchmark
+    public void expImmutable(Blackhole bh) {
+        for (int i = 0; i < kN; i++) {
+            bh.consume(Pose2d.exp(twists[i]));
+        }
+    }
+
+    @Benchmark
+    public double[] expArrays() {
+        PoseArrays.exp(dxs, dys, dthetas, out_x, out_y, out_cos, out_sin, kN);
+        return out_x;
+    }
+
+    @Benchmark
+    public void logImmutable(Blackhole bh) {
+        for (int i = 0; i < kN; i++) {
+            bh.consume(Pose2d.log(poses[i]));
+        }
+    }
+
+    @Benchmark
+    public double[] logInto() {
+        for (int i = 0; i < kN; i++) {
+            scratch.set(poses[i]).log(out_twists, 3 * i);
+        }
+        return out_twists;
+    }
+}
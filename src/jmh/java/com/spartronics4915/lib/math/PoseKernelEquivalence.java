@@ -0,0 +1,157 @@
+package com.spartronics4915.lib.math;
+
+import com.spartronics4915.frc2019.Kinematics;
+
+import java.util.Random;
+
+/**
+ * Checks that the {@link MutablePose2d} and {@link PoseArrays} forms of the
+ * pose operations give bit-for-bit the same results as the immutable
+ * Pose2d ones they stand in for, off-robot:
+ * <pre>
+ * java -cp ... com.spartronics4915.lib.math.PoseKernelEquivalence [cases]
+ * </pre>
+ * Each case draws random poses and a twist, with every seventh angle tiny
+ * (within 1e-10 rad) or exactly zero so that exp's and log's small-angle
+ * branches are taken, and compares:
+ * <ul>
+ * <li>transformByInto, inverseInto, expInto and MutablePose2d.log with
+ * transformBy, inverse, exp and log</li>
+ * <li>transformByExp, and Kinematics.integrateForwardKinematics (which
+ * uses it), with transformBy(exp(twist))</li>
+ * <li>Pose2d.interpolate and distance, which now use the kernel, with the
+ * log/exp formulas they replaced</li>
+ * <li>PoseArrays.transformPoints, transformBy, exp and integrate with the
+ * same operations one pose at a time</li>
+ * </ul>
+ * Compared by their bits, so -0.0 and 0.0 differ. Exits with status 1 on any
+ * mismatch. This isn't run by the build, so run it after changing
+ * MutablePose2d, PoseArrays or Pose2d.
+ */
+public class PoseKernelEquivalence {
+
+    private static final int kDefaultCases = 200000;
+    private static final int kBatch = 8;
+    private static final int kMaxReports = 10;
+
+    private static long sChecks = 0;
+    private static int sMismatches = 0;
+
+    public static void main(String[] args) {
+        final int cases = args.length > 0 ? Integer.parseInt(args[0]) : kDefaultCases;
+        Random random = new Random(4915);
+        for (int k = 0; k < cases; k++) {
+            runCase(random, k);
+        }
+        System.out.println(sChecks + " values compared over " + cases + " cases, " + sMismatches + " mismatches");
+        System.out.println(sMismatches == 0 ? "PASS" : "FAIL");
+        System.exit(sMismatches == 0 ? 0 : 1);
+    }
+
+    private static double randomAngle(Random random, int k) {
+        if (k % 7 == 0) {
+            return k % 14 == 0 ? 0 : (random.nextDouble() - 0.5) * 1e-10;
+        }
+        return (random.nextDouble() - 0.5) * 7;
+    }
+
+    private static Pose2d randomPose(Random random, int k) {
+        return new Pose2d(random.nextGaussian() * 50, random.nextGaussian() * 50,
+                Rotation2d.fromRadians(randomAngle(random, k)));
+    }
+
+    private static void runCase(Random random, int k) {
+        final Pose2d p = randomPose(random, k);
+        final Pose2d q = k % 5 == 0 ? p : randomPose(random, k + 1);
+        final Twist2d twist = new Twist2d(random.nextGaussian(), k % 3 == 0 ? 0 : random.nextGaussian(),
+                randomAngle(random, k));
+
+        same("transformByInto", p.transformBy(q), p.transformByInto(q, new MutablePose2d()));
+        same("inverseInto", p.inverse(), p.inverseInto(new MutablePose2d()));
+        same("expInto", Pose2d.exp(twist), Pose2d.expInto(twist, new MutablePose2d()));
+        double[] log = new double[3];
+        new MutablePose2d(p).log(log, 0);
+        final Twist2d expectedLog = Pose2d.log(p);
+        same("log.dx", expectedLog.dx, log[0]);
+        same("log.dy", expectedLog.dy, log[1]);
+        same("log.dtheta", expectedLog.dtheta, log[2]);
+        same("transformBy(MutablePose2d)", p.transformBy(q),
+                new MutablePose2d(p).transformBy(new MutablePose2d(q)));
+
+        final Pose2d integrated = p.transformBy(Pose2d.exp(twist));
+        same("transformByExp", integrated, new MutablePose2d(p).transformByExp(twist.dx, twist.dy, twist.dtheta));
+        same("integrateForwardKinematics", integrated,
+                new MutablePose2d(Kinematics.integrateForwardKinematics(p, twist)));
+
+        final double x = random.nextDouble();
+        same("interpolate", p.transformBy(Pose2d.exp(Pose2d.log(p.inverse().transformBy(q)).scaled(x))),
+                new MutablePose2d(p.interpolate(q, x)));
+        same("distance", Pose2d.log(p.inverse().transformBy(q)).norm(), p.distance(q));
+
+        checkBatches(random, k, p, q);
+    }
+
+    private static void checkBatches(Random random, int k, Pose2d p, Pose2d q) {
+        double[] dx = new double[kBatch], dy = new double[kBatch], dtheta = new double[kBatch];
+        double[] x = new double[kBatch], y = new double[kBatch], cos = new double[kBatch], sin = new double[kBatch];
+        Pose2d[] poses = new Pose2d[kBatch];
+        for (int i = 0; i < kBatch; i++) {
+            dx[i] = random.nextGaussian();
+            dy[i] = random.nextGaussian();
+            dtheta[i] = randomAngle(random, k + i);
+            poses[i] = randomPose(random, k + i);
+            x[i] = poses[i].getTranslation().x();
+            y[i] = poses[i].getTranslation().y();
+            cos[i] = poses[i].getRotation().cos();
+            sin[i] = poses[i].getRotation().sin();
+        }
+
+        double[] outX = new double[kBatch], outY = new double[kBatch];
+        PoseArrays.transformPoints(p, dx, dy, outX, outY, kBatch);
+        for (int i = 0; i < kBatch; i++) {
+            Translation2d point = p.transformBy(Pose2d.fromTranslation(new Translation2d(dx[i], dy[i])))
+                    .getTranslation();
+            same("PoseArrays.transformPoints.x", point.x(), outX[i]);
+            same("PoseArrays.transformPoints.y", point.y(), outY[i]);
+        }
+
+        PoseArrays.transformBy(x, y, cos, sin, q, kBatch);
+        for (int i = 0; i < kBatch; i++) {
+            same("PoseArrays.transformBy", poses[i].transformBy(q),
+                    new MutablePose2d().set(x[i], y[i], cos[i], sin[i]));
+        }
+
+        double[] outCos = new double[kBatch], outSin = new double[kBatch];
+        PoseArrays.exp(dx, dy, dtheta, outX, outY, outCos, outSin, kBatch);
+        for (int i = 0; i < kBatch; i++) {
+            same("PoseArrays.exp", Pose2d.exp(new Twist2d(dx[i], dy[i], dtheta[i])),
+                    new MutablePose2d().set(outX[i], outY[i], outCos[i], outSin[i]));
+        }
+
+        Pose2d last = PoseArrays.integrate(p, dx, dy, dtheta, outX, outY, outCos, outSin, kBatch);
+        Pose2d expected = p;
+        for (int i = 0; i < kBatch; i++) {
+            expected = expected.transformBy(Pose2d.exp(new Twist2d(dx[i], dy[i], dtheta[i])));
+            same("PoseArrays.integrate", expected, new MutablePose2d().set(outX[i], outY[i], outCos[i], outSin[i]));
+        }
+        same("PoseArrays.integrate result", expected, new MutablePose2d(last));
+    }
+
+    private static void same(String what, Pose2d expected, MutablePose2d actual) {
+        same(what + ".x", expected.getTranslation().x(), actual.x());
+        same(what + ".y", expected.getTranslation().y(), actual.y());
+        same(what + ".cos", expected.getRotation().cos(), actual.cos());
+        same(what + ".sin", expected.getRotation().sin(), actual.sin());
+    }
+
+    private static void same(String what, double expected, double actual) {
+        sChecks++;
+        if (Double.doubleToLongBits(expected) == Double.doubleToLongBits(actual)) {
+            return;
+        }
+        if (sMismatches < kMaxReports) {
+            System.out.println("  " + what + ": " + expected + " != " + actual);
+        }
+        sMismatches++;
+    }
+}
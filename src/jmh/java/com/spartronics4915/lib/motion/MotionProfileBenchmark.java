@@ -0,0 +1,87 @@
+package com.spartronics4915.lib.motion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartronics4915.frc2019.Constants;
+
+/**
+ * Times {@link MotionProfileGenerator#generateProfile} for the kinds of
+ * move a ProfileFollower asks for, with the path following constraints:
+ * <ul>
+ * <li>REST_TO_REST: a move of 120 in from rest, which cruises</li>
+ * <li>SHORT: a move of 6 in from rest, too short to reach cruise
+ * speed</li>
+ * <li>REPLAN: a move from partway through another at speed, as each
+ * PathFollower update regenerates</li>
+ * <li>REVERSING: a move behind the start while driving forward, which
+ * stops first (and flips the profile)</li>
+ * </ul>
+ * This is the generator alone; SetpointGenerator's cache sits in front of
+ * it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotionProfileBenchmark
+{
+
+    public enum Move
+    {
+        REST_TO_REST, SHORT, REPLAN, REVERSING
+    }
+
+    @Param({"REST_TO_REST", "SHORT", "REPLAN", "REVERSING"})
+    public Move move;
+
+    MotionProfileConstraints mConstraints;
+    MotionProfileGoal mGoal;
+    MotionState mStart;
+
+    @Setup
+    public void setup()
+    {
+        mConstraints = new MotionProfileConstraints(Constants.kPathFollowingMaxVel,
+                Constants.kPathFollowingMaxAccel);
+        switch (move)
+        {
+            case REST_TO_REST:
+                mGoal = new MotionProfileGoal(120.0);
+                mStart = new MotionState(0.0, 0.0, 0.0, 0.0);
+                break;
+            case SHORT:
+                mGoal = new MotionProfileGoal(6.0);
+                mStart = new MotionState(0.0, 0.0, 0.0, 0.0);
+                break;
+            case REPLAN:
+                mGoal = new MotionProfileGoal(120.0, 0.0, MotionProfileGoal.CompletionBehavior.OVERSHOOT,
+                        Constants.kPathFollowingGoalPosTolerance, Constants.kPathFollowingGoalVelTolerance);
+                mStart = new MotionState(1.3, 57.4, 98.2, 0.0);
+                break;
+            case REVERSING:
+                mGoal = new MotionProfileGoal(-30.0);
+                mStart = new MotionState(0.0, 0.0, 60.0, 0.0);
+                break;
+        }
+    }
+
+    @Benchmark
+    public MotionProfile generateProfile()
+    {
+        return MotionProfileGenerator.generateProfile(mConstraints, mGoal, mStart);
+    }
+}
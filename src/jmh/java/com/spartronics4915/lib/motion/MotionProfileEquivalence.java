@@ -0,0 +1,142 @@
+package com.spartronics4915.lib.motion;
+
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Checks that {@link MotionProfile} answers exactly as the list-based
+ * {@link ListMotionProfile} it replaced, off-robot:
+ * <pre>
+ * java -cp ... com.spartronics4915.lib.motion.MotionProfileEquivalence [trials] 2&gt;/dev/null
+ * </pre>
+ * (MotionSegment.isValid() prints a line to stderr for every reversing
+ * segment it sees, and the reference checks them all on every call.)
+ * <p>
+ * Each trial generates a profile for a random move (sometimes with a second
+ * move appended, which can reverse), copies its segments into a
+ * ListMotionProfile, and compares the two:
+ * <ul>
+ * <li>isValid()</li>
+ * <li>stateByTime() and stateByTimeClamped() at random times around the
+ * profile, and at segment boundaries</li>
+ * <li>firstStateByPos() at random positions around the move</li>
+ * <li>trimming both in small random steps until they're empty, as
+ * SetpointGenerator does, now and then appending a segment, comparing the
+ * size, start state, validity and a state just ahead at each step</li>
+ * <li>consolidate() and isValid() once a discontinuous segment is
+ * appended</li>
+ * </ul>
+ * States must be identical, bit for bit; NaNs (from segments with infinite
+ * acceleration) match NaNs. Exits with status 1 on any mismatch. This
+ * isn't run by the build, so run it after changing MotionProfile.
+ */
+public class MotionProfileEquivalence
+{
+
+    private static final int kDefaultTrials = 3000;
+    private static final int kQueriesPerTrial = 30;
+    private static final int kMaxReports = 10;
+
+    private static int sChecks = 0;
+    private static int sMismatches = 0;
+
+    public static void main(String[] args)
+    {
+        final int trials = args.length > 0 ? Integer.parseInt(args[0]) : kDefaultTrials;
+        Random random = new Random(4915);
+        for (int trial = 0; trial < trials; trial++)
+        {
+            runTrial(random, trial);
+        }
+        System.out.println(sChecks + " checks over " + trials + " profiles, " + sMismatches + " mismatches");
+        System.out.println(sMismatches == 0 ? "PASS" : "FAIL");
+        System.exit(sMismatches == 0 ? 0 : 1);
+    }
+
+    private static void runTrial(Random random, int trial)
+    {
+        MotionProfileConstraints constraints = new MotionProfileConstraints(1 + random.nextDouble() * 10,
+                1 + random.nextDouble() * 10);
+        MotionProfileGoal goal = new MotionProfileGoal(random.nextGaussian() * 20, random.nextDouble() * 2,
+                MotionProfileGoal.CompletionBehavior.values()[random
+                        .nextInt(MotionProfileGoal.CompletionBehavior.values().length)],
+                0.1, 0.1);
+        MotionState start = new MotionState(random.nextDouble(), random.nextGaussian() * 5,
+                random.nextGaussian() * 5, 0);
+        MotionProfile profile = MotionProfileGenerator.generateProfile(constraints, goal, start);
+        if (random.nextBoolean())
+        {
+            profile.appendProfile(MotionProfileGenerator.generateProfile(constraints,
+                    new MotionProfileGoal(random.nextGaussian() * 20), profile.endState()));
+        }
+        ListMotionProfile reference = new ListMotionProfile(profile.segments());
+        check(profile.isValid() == reference.isValid(), trial, "isValid()");
+
+        for (int q = 0; q < kQueriesPerTrial; q++)
+        {
+            double t = profile.startTime() - 0.5 + random.nextDouble() * (profile.duration() + 1);
+            if (random.nextInt(5) == 0)
+                t = profile.segments().get(random.nextInt(profile.size())).start().t();
+            double direction = Math.signum(profile.endPos() - profile.startPos() + 1e-9);
+            double pos = profile.startPos() - 1
+                    + random.nextDouble() * (Math.abs(profile.endPos() - profile.startPos()) + 2) * direction;
+            check(same(profile.stateByTime(t), reference.stateByTime(t)), trial, "stateByTime(" + t + ")");
+            check(same(profile.stateByTimeClamped(t), reference.stateByTimeClamped(t)), trial,
+                    "stateByTimeClamped(" + t + ")");
+            check(same(profile.firstStateByPos(pos), reference.firstStateByPos(pos)), trial,
+                    "firstStateByPos(" + pos + ")");
+        }
+
+        double t = profile.startTime();
+        while (!profile.isEmpty())
+        {
+            t += random.nextDouble() * 0.05;
+            profile.trimBeforeTime(t);
+            reference.trimBeforeTime(t);
+            boolean same = profile.size() == reference.size() && profile.isValid() == reference.isValid()
+                    && (profile.isEmpty() || same(profile.startState(), reference.startState()))
+                    && same(profile.stateByTime(t + 0.01), reference.stateByTime(t + 0.01));
+            check(same, trial, "trimBeforeTime(" + t + ")");
+            if (!same)
+                break;
+            if (random.nextInt(50) == 0)
+            {
+                profile.appendControl(1, 0.5);
+                reference.appendControl(1, 0.5);
+            }
+        }
+
+        MotionProfile consolidated = new MotionProfile(reference.segments());
+        consolidated.appendSegment(new MotionSegment(new MotionState(9, 1, 0, 0), new MotionState(9, 1, 0, 0)));
+        ListMotionProfile referenceConsolidated = new ListMotionProfile(consolidated.segments());
+        check(consolidated.isValid() == referenceConsolidated.isValid(), trial, "isValid() after a jump");
+        consolidated.consolidate();
+        referenceConsolidated.consolidate();
+        check(consolidated.size() == referenceConsolidated.size(), trial, "consolidate()");
+    }
+
+    private static void check(boolean same, int trial, String what)
+    {
+        sChecks++;
+        if (same)
+            return;
+        if (sMismatches < kMaxReports)
+            System.out.println("  trial " + trial + ": " + what + " differs");
+        sMismatches++;
+    }
+
+    private static boolean same(Optional<MotionState> a, Optional<MotionState> b)
+    {
+        return a.isPresent() == b.isPresent() && (!a.isPresent() || same(a.get(), b.get()));
+    }
+
+    private static boolean same(MotionState a, MotionState b)
+    {
+        return same(a.t(), b.t()) && same(a.pos(), b.pos()) && same(a.vel(), b.vel()) && same(a.acc(), b.acc());
+    }
+
+    private static boolean same(double a, double b)
+    {
+        return a == b || (Double.isNaN(a) && Double.isNaN(b));
+    }
+}
@@ -0,0 +1,111 @@
+package com.spartronics4915.lib.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Compares a JMH run's JSON results (<code>./gradlew jmh</code> writes
+ * build/reports/jmh/results.json) against a baseline in the same format,
+ * off-robot, and fails if any benchmark got slower.
+ * <p>
+ * Usage: <code>BenchmarkCompare baseline.json results.json [threshold]</code>
+ * <p>
+ * A benchmark has regressed if its score is worse than the baseline's by
+ * more than threshold (a fraction, 0.1 by default) and by more than the
+ * two runs' error bars together, so noise alone doesn't fail it. Lower is
+ * better for the time modes and higher for throughput. Benchmarks are
+ * matched by name, mode and parameters; those in only one file are listed
+ * but don't fail the comparison. Only compare runs from the same machine
+ * and JVM.
+ */
+public class BenchmarkCompare
+{
+
+    private static class Result
+    {
+
+        final double score, error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Result(JSONObject benchmark)
+        {
+            JSONObject metric = (JSONObject) benchmark.get("primaryMetric");
+            score = ((Number) metric.get("score")).doubleValue();
+            // JMH writes "NaN" (a string) when there are too few iterations for an error
+            Object scoreError = metric.get("scoreError");
+            error = scoreError instanceof Number ? ((Number) scoreError).doubleValue() : 0.0;
+            unit = (String) metric.get("scoreUnit");
+            higherIsBetter = "thrpt".equals(benchmark.get("mode"));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, ParseException
+    {
+        if (args.length < 2 || args.length > 3)
+        {
+            System.err.println("Usage: BenchmarkCompare baseline.json results.json [threshold]");
+            System.exit(2);
+        }
+        Map<String, Result> baseline = load(args[0]);
+        Map<String, Result> results = load(args[1]);
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : 0.1;
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : results.entrySet())
+        {
+            Result now = entry.getValue();
+            Result then = baseline.get(entry.getKey());
+            if (then == null)
+            {
+                System.out.printf("  new         %s: %.3f %s%n", entry.getKey(), now.score, now.unit);
+                continue;
+            }
+            // Positive when worse
+            double change = (now.score - then.score) / then.score * (now.higherIsBetter ? -1 : 1);
+            boolean regressed = change > threshold
+                    && Math.abs(now.score - then.score) > now.error + then.error;
+            if (regressed)
+                regressions++;
+            System.out.printf("%s %+6.1f%%  %s: %.3f -> %.3f %s%n", regressed ? "! slower" : "        ",
+                    100 * change, entry.getKey(), then.score, now.score, now.unit);
+        }
+        for (String key : baseline.keySet())
+        {
+            if (!results.containsKey(key))
+                System.out.println("  missing     " + key);
+        }
+        System.out.println(regressions + " of " + results.size() + " benchmarks slower than the baseline by over "
+                + Math.round(100 * threshold) + "%");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static Map<String, Result> load(String fileName) throws IOException, ParseException
+    {
+        Map<String, Result> results = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8))
+        {
+            for (Object o : (JSONArray) new JSONParser().parse(reader))
+            {
+                JSONObject benchmark = (JSONObject) o;
+                StringBuilder key = new StringBuilder((String) benchmark.get("benchmark"));
+                key.append(" (").append(benchmark.get("mode")).append(')');
+                JSONObject params = (JSONObject) benchmark.get("params");
+                if (params != null)
+                    key.append(' ').append(new TreeMap<Object, Object>((Map<?, ?>) params));
+                results.put(key.toString(), new Result(benchmark));
+            }
+        }
+        return results;
+    }
+}
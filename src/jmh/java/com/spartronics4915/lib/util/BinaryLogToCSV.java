@@ -0,0 +1,44 @@
+package com.spartronics4915.lib.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Turns a log written by {@link BinaryLogWriter} (e.g. the path follower
+ * log pulled off the robot) into a CSV file, off-robot.
+ * <p>
+ * Usage: <code>BinaryLogToCSV log.bin [log.csv]</code>
+ * <p>
+ * Without an output file the CSV goes to standard output. A log that was
+ * cut off (the robot was switched off before it was closed) is converted
+ * up to its last whole record.
+ */
+public class BinaryLogToCSV
+{
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: BinaryLogToCSV log.bin [log.csv]");
+            System.exit(2);
+        }
+        try (BinaryLogReader reader = BinaryLogReader.open(args[0]);
+                Writer out = args.length == 2
+                        ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                        : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)))
+        {
+            long records = reader.writeCSV(out);
+            out.flush();
+            System.err.println(records + " records, " + reader.getNumFields() + " fields");
+            if (reader.getRecordsTruncated() > 0)
+                System.err.println("The log was cut off; its last block was missing " +
+                        reader.getRecordsTruncated() + " records");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.spartronics4915.lib.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartronics4915.lib.math.Pose2d;
+import com.spartronics4915.lib.math.Rotation2d;
+
+/**
+ * Times looking up an interpolated pose by timestamp, as RobotState and
+ * LidarProcessor do for every lidar point and vision target, in an
+ * {@link InterpolatingTreeMap} and in the {@link PoseHistory} that
+ * replaced it, holding the same kSize poses (RobotState's buffer, a second
+ * of odometry). Lookups cycle through kLookups random timestamps in the
+ * history's span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseInterpolationBenchmark
+{
+
+    static final int kSize = 100;
+    static final int kLookups = 1024; // a power of two
+    static final double kDt = 0.01;
+
+    InterpolatingTreeMap<InterpolatingDouble, Pose2d> mTreeMap = new InterpolatingTreeMap<>(kSize);
+    PoseHistory mHistory = new PoseHistory(kSize);
+    double[] mLookups = new double[kLookups];
+    InterpolatingDouble[] mLookupKeys = new InterpolatingDouble[kLookups];
+    int mNext = 0;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(4915);
+        Pose2d pose = Pose2d.identity();
+        for (int i = 0; i < kSize; i++)
+        {
+            pose = pose.transformBy(new Pose2d(random.nextDouble(), 0, Rotation2d.fromRadians(random.nextGaussian() * 0.02)));
+            mTreeMap.put(new InterpolatingDouble(i * kDt), pose);
+            mHistory.add(i * kDt, pose);
+        }
+        for (int i = 0; i < kLookups; i++)
+        {
+            mLookups[i] = random.nextDouble() * (kSize - 1) * kDt;
+            mLookupKeys[i] = new InterpolatingDouble(mLookups[i]);
+        }
+    }
+
+    @Benchmark
+    public Pose2d interpolatingTreeMap()
+    {
+        mNext = (mNext + 1) & (kLookups - 1);
+        return mTreeMap.getInterpolated(mLookupKeys[mNext]);
+    }
+
+    @Benchmark
+    public Pose2d poseHistory()
+    {
+        mNext = (mNext + 1) & (kLookups - 1);
+        return mHistory.getInterpolated(mLookups[mNext]);
+    }
+}
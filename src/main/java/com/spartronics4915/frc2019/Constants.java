@@ -1,5 +1,6 @@
 package com.spartronics4915.frc2019;
 
+import com.spartronics4915.frc2019.lidar.icp.ICP;
 import com.spartronics4915.lib.util.ConstantsBase;
 import com.spartronics4915.lib.math.Translation2d;
 
@@ -54,6 +55,14 @@ public class Constants extends ConstantsBase
 
     // Software configuration constants
     public static final double kLooperDt = 0.005;
+    public static final double kLooperBackgroundDt = 0.02; // LEDs, connection and lidar server watchdogs
+    public static final double kLooperWatchdogPeriod = 0.002; // seconds between checks for loops past their deadline
+    public static final int kLooperStackSampleDepth = 12; // frames logged for a loop past its deadline
+    public static final int kLooperMaxDegrade = 8; // DEGRADE slows a loop to at most this many times its period
+    public static final int kLooperRecoverRuns = 50; // on-time runs before a degraded loop speeds back up
+    public static final int kLooperShedOverruns = 10; // overruns in a row before SHED stops a loop
+    public static final double kLooperStatsLogPeriod = 30; // seconds between Looper timing dumps
+    public static final double kDashboardPublishPeriod = 0.1; // seconds between batches of dashboard values
     
     // Vision
     public static final int kAndroidAppTcpPort = 8254;
@@ -74,13 +83,27 @@ public class Constants extends ConstantsBase
     /* LIDAR CONSTANTS -------------------------------------------------------------------- */
     public static final int kLidarScanSize = 400;
     public static final int kLidarNumScansToStore = 10;
+    public static final int kLidarPoseHistorySize = 20; // ICP poses kept by LidarProcessor
     public static final String kLidarPath = "/home/root/chezy_lidar";
+    public static final boolean kLidarUseBinaryProtocol = false; // chezy_lidar must support kLidarBinaryProtocolArg
+    public static final String kLidarBinaryProtocolArg = "--binary";
     public static final double kLidarRestartTime = 2.5;
+    public static final boolean kLidarPublishPointCloud = false; // puts every lidar point to Lidar/points
 
     public static final String kLidarLogDir = "/home/lvuser/lidarLogs/";
     public static final int kNumLidarLogsToKeep = 10;
+    public static final int kLidarLogBlocks = 8; // scans buffered for the log writer before dropping
     public static final double kLidarICPTranslationEpsilon = 0.01; // convergence threshold for tx,ty
     public static final double kLidarICPAngleEpsilon = 0.01;       // convergence threshold for theta
+    public static final ICP.Method kLidarICPMethod = ICP.Method.POINT_TO_LINE_HUBER;
+    public static final boolean kLidarIncrementalICP = true;       // warm-start ICP from the last scan's solution
+    // Incremental ICP stops when the residual improves less than this (0 runs to convergence). At 0.01,
+    // LidarICPBenchmark shows POINT_TO_LINE_HUBER's mean translation error going from 0.38 to 0.45 in and its
+    // max from 1.6 to 9.3 in, for half the iterations, so it's off until that's tuned on the robot.
+    public static final double kLidarICPMinImprovement = 0;
+    public static final int kLidarICPMinIncrementalPoints = 50;    // fewer new points than this forces a full solve
+    public static final double kLidarICPMinInlierFraction = 0.25;  // incremental results with fewer inliers are rejected
+    public static final double kLidarICPMaxResidualGrowth = 1.5;   // ...as are those this much worse than the last full solve
 
     // Pose of the LIDAR frame w.r.t. the robot frame
     public static final double kLidarXOffset = -3.3211;
@@ -133,6 +156,7 @@ public class Constants extends ConstantsBase
     // We're using the CTRE Mag encoders: https://content.vexrobotics.com/vexpro/pdf/Magnetic-Encoder-User's-Guide-01282016.pdf
     public static final int kTurretEncoderCodesPerRev = 13653; // 4096 Quadrature CPR * (10 / 3) Belt reduction
     public static final Translation2d kTurretTargetFieldPosition = new Translation2d(0, 0);
+    public static final double kTurretMaxLidarPoseAge = 0.5; // seconds; older ICP poses aren't used to correct odometry
     public static final class TurretPIDConstants {
         public static final double kP = 1.0, kI = 0.0, kD = 0.0, kF = 0.0;
         public static final double kRampRate = 0.5 /* 0.5 seconds */;
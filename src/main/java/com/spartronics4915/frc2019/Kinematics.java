@@ -1,5 +1,6 @@
 package com.spartronics4915.frc2019;
 
+import com.spartronics4915.lib.math.MutablePose2d;
 import com.spartronics4915.lib.math.Pose2d;
 import com.spartronics4915.lib.math.Rotation2d;
 import com.spartronics4915.lib.math.Twist2d;
@@ -65,7 +66,11 @@ public class Kinematics
     public static Pose2d integrateForwardKinematics(Pose2d current_pose,
             Twist2d forward_kinematics)
     {
-        return current_pose.transformBy(Pose2d.exp(forward_kinematics));
+        // Runs every odometry update. Allocates a MutablePose2d and the result, but not exp's
+        // intermediate pose; escape analysis can often remove the MutablePose2d once this is inlined,
+        // but that isn't guaranteed
+        return new MutablePose2d(current_pose).transformByExp(forward_kinematics.dx, forward_kinematics.dy,
+                forward_kinematics.dtheta).toPose2d();
     }
 
     /**
@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
+import com.spartronics4915.frc2019.auto.ActionScheduler;
 import com.spartronics4915.frc2019.auto.AutoModeExecuter;
 import com.spartronics4915.frc2019.lidar.LidarProcessor;
 import com.spartronics4915.frc2019.lidar.LidarServer;
@@ -21,9 +22,11 @@ import com.spartronics4915.frc2019.subsystems.Superstructure;
 import com.spartronics4915.frc2019.subsystems.Turret;
 import com.spartronics4915.lib.util.CANProbe;
 import com.spartronics4915.lib.util.CheesyDriveHelper;
+import com.spartronics4915.lib.util.DashboardPublisher;
 import com.spartronics4915.lib.util.Logger;
 import com.spartronics4915.lib.util.DriveSignal;
 import com.spartronics4915.lib.math.Pose2d;
+import com.spartronics4915.lib.motion.SetpointGenerator;
 
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.IterativeRobot;
@@ -124,6 +127,8 @@ public class Robot extends IterativeRobot
         try
         {
             Logger.notice("Robot begin init ------------------");
+            // Subsystems and loops publish through this, off their own threads
+            DashboardPublisher.getInstance().start(Constants.kDashboardPublishPeriod);
             // NB: make sure to probe for can devices FIRST since subsystems
             //  may invoke its validate methods.
             CANProbe canProbe = CANProbe.getInstance();
@@ -153,8 +158,12 @@ public class Robot extends IterativeRobot
             mEnabledLooper = new Looper();
 
             mSubsystemManager.registerEnabledLoops(mEnabledLooper);
-            mEnabledLooper.register(RobotStateEstimator.getInstance());
-            mEnabledLooper.register(LidarProcessor.getInstance());
+            mEnabledLooper.register(RobotStateEstimator.getInstance(), Constants.kLooperDt, Looper.Priority.CRITICAL);
+            mEnabledLooper.register(LidarProcessor.getInstance(), Constants.kLooperBackgroundDt,
+                    Looper.Priority.BACKGROUND);
+            // After Drive and RobotStateEstimator in the CRITICAL tier, so actions see this tick's
+            // odometry; the NORMAL tier's subsystems run on another thread, in no set order with it
+            mEnabledLooper.register(ActionScheduler.getInstance(), Constants.kLooperDt, Looper.Priority.CRITICAL);
 
             try {
                 SmartDashboard.putString("LIDAR status", "starting");
@@ -400,6 +409,7 @@ public class Robot extends IterativeRobot
         mSubsystemManager.outputToSmartDashboard();
         mSubsystemManager.writeToLog();
         mEnabledLooper.outputToSmartDashboard();
+        SetpointGenerator.outputToSmartDashboard();
         mConnectionMonitor.setLastPacketTime(Timer.getFPGATimestamp());
     }
 
@@ -1,16 +1,21 @@
 package com.spartronics4915.frc2019;
 
 import com.spartronics4915.frc2019.subsystems.Drive;
+import com.spartronics4915.lib.math.MutablePose2d;
 import com.spartronics4915.lib.math.Pose2d;
 import com.spartronics4915.lib.math.Rotation2d;
 import com.spartronics4915.lib.math.Translation2d;
 import com.spartronics4915.lib.math.Twist2d;
-import com.spartronics4915.lib.util.InterpolatingDouble;
-import com.spartronics4915.lib.util.InterpolatingTreeMap;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
-
-import java.util.Map;
-
+import com.spartronics4915.lib.util.DashboardPublisher;
+import com.spartronics4915.lib.util.PoseHistory;
+
+/**
+ * The robot's pose history and velocity. {@link com.spartronics4915.frc2019.loops.RobotStateEstimator}
+ * is the only regular writer; the writer methods are synchronized with each
+ * other so that a reset from another thread is still safe. Readers (Drive,
+ * LidarProcessor, the dashboard) never take that lock, and never block the
+ * estimator.
+ */
 public class RobotState {
     private static RobotState instance_ = new RobotState();
 
@@ -24,11 +29,11 @@ public class RobotState {
             new Translation2d(Constants.kLidarXOffset, Constants.kLidarYOffset), Rotation2d.fromDegrees(Constants
             .kLidarYawAngleDegrees));
 
-    // FPGATimestamp -> RigidTransform2d or Rotation2d
-    private InterpolatingTreeMap<InterpolatingDouble, Pose2d> field_to_vehicle_;
-    private Twist2d vehicle_velocity_predicted_;
-    private Twist2d vehicle_velocity_measured_;
-    private double distance_driven_;
+    // FPGATimestamp -> Pose2d
+    private final PoseHistory field_to_vehicle_ = new PoseHistory(kObservationBufferSize);
+    private volatile Twist2d vehicle_velocity_predicted_;
+    private volatile Twist2d vehicle_velocity_measured_;
+    private volatile double distance_driven_;
 
     private RobotState() {
         reset(0, new Pose2d());
@@ -38,8 +43,7 @@ public class RobotState {
      * Resets the field to robot transform (robot's position on the field)
      */
     public synchronized void reset(double start_time, Pose2d initial_field_to_vehicle) {
-        field_to_vehicle_ = new InterpolatingTreeMap<>(kObservationBufferSize);
-        field_to_vehicle_.put(new InterpolatingDouble(start_time), initial_field_to_vehicle);
+        field_to_vehicle_.reset(start_time, initial_field_to_vehicle);
         Drive.getInstance().setGyroAngle(initial_field_to_vehicle.getRotation());
         vehicle_velocity_predicted_ = Twist2d.identity();
         vehicle_velocity_measured_ = Twist2d.identity();
@@ -54,38 +58,43 @@ public class RobotState {
      * Returns the robot's position on the field at a certain time. Linearly interpolates between stored robot positions
      * to fill in the gaps.
      */
-    public synchronized Pose2d getFieldToVehicle(double timestamp) {
-        return field_to_vehicle_.getInterpolated(new InterpolatingDouble(timestamp));
+    public Pose2d getFieldToVehicle(double timestamp) {
+        return field_to_vehicle_.getInterpolated(timestamp);
     }
 
-    public synchronized Map.Entry<InterpolatingDouble, Pose2d> getLatestFieldToVehicle() {
-        return field_to_vehicle_.lastEntry();
+    public Pose2d getLatestFieldToVehicle() {
+        return field_to_vehicle_.getLatest();
     }
 
-    public synchronized Pose2d getPredictedFieldToVehicle(double lookahead_time) {
-        return getLatestFieldToVehicle().getValue()
-                .transformBy(Pose2d.exp(vehicle_velocity_predicted_.scaled(lookahead_time)));
+    public double getLatestFieldToVehicleTimestamp() {
+        return field_to_vehicle_.getLatestTimestamp();
     }
 
-    public synchronized Pose2d getFieldToLidar(double timestamp) {
+    public Pose2d getPredictedFieldToVehicle(double lookahead_time) {
+        final Twist2d velocity = vehicle_velocity_predicted_;
+        return new MutablePose2d(getLatestFieldToVehicle()).transformByExp(velocity.dx * lookahead_time,
+                velocity.dy * lookahead_time, velocity.dtheta * lookahead_time).toPose2d();
+    }
+
+    public Pose2d getFieldToLidar(double timestamp) {
         return getFieldToVehicle(timestamp).transformBy(kVehicleToLidar);
     }
 
     public synchronized void addFieldToVehicleObservation(double timestamp, Pose2d observation) {
-        field_to_vehicle_.put(new InterpolatingDouble(timestamp), observation);
+        field_to_vehicle_.add(timestamp, observation);
     }
 
     public synchronized void addObservations(double timestamp, Twist2d measured_velocity,
                                              Twist2d predicted_velocity) {
         addFieldToVehicleObservation(timestamp,
-                Kinematics.integrateForwardKinematics(getLatestFieldToVehicle().getValue(), measured_velocity));
+                Kinematics.integrateForwardKinematics(getLatestFieldToVehicle(), measured_velocity));
         vehicle_velocity_measured_ = measured_velocity;
         vehicle_velocity_predicted_ = predicted_velocity;
     }
 
     public synchronized Twist2d generateOdometryFromSensors(double left_encoder_delta_distance, double
             right_encoder_delta_distance, Rotation2d current_gyro_angle) {
-        final Pose2d last_measurement = getLatestFieldToVehicle().getValue();
+        final Pose2d last_measurement = getLatestFieldToVehicle();
         final Twist2d delta = Kinematics.forwardKinematics(last_measurement.getRotation(),
                 left_encoder_delta_distance, right_encoder_delta_distance,
                 current_gyro_angle);
@@ -93,25 +102,32 @@ public class RobotState {
         return delta;
     }
 
-    public synchronized double getDistanceDriven() {
+    public double getDistanceDriven() {
         return distance_driven_;
     }
 
-    public synchronized Twist2d getPredictedVelocity() {
+    public Twist2d getPredictedVelocity() {
         return vehicle_velocity_predicted_;
     }
 
-    public synchronized Twist2d getMeasuredVelocity() {
+    public Twist2d getMeasuredVelocity() {
         return vehicle_velocity_measured_;
     }
 
+    // Only touched by outputToSmartDashboard, which runs on one thread
+    private Pose2d dashboard_pose_ = null;
+
     public void outputToSmartDashboard() {
-        Pose2d odometry = getLatestFieldToVehicle().getValue();
-        SmartDashboard.putString("RobotState/pose",  
-                            odometry.getTranslation().x() + 
-                            " " + odometry.getTranslation().y() +
-                            " " + odometry.getRotation().getDegrees());
-        SmartDashboard.putNumber("RobotState/velocity", vehicle_velocity_measured_.dx);
-        SmartDashboard.putNumber("RobotState/field_degrees", getLatestFieldToVehicle().getValue().getRotation().getDegrees());
+        DashboardPublisher dashboard = DashboardPublisher.getInstance();
+        Pose2d odometry = getLatestFieldToVehicle();
+        if (odometry != dashboard_pose_) { // don't format a pose we've already published
+            dashboard_pose_ = odometry;
+            dashboard.putString("RobotState/pose",
+                                odometry.getTranslation().x() +
+                                " " + odometry.getTranslation().y() +
+                                " " + odometry.getRotation().getDegrees());
+            dashboard.putNumber("RobotState/field_degrees", odometry.getRotation().getDegrees());
+        }
+        dashboard.putNumber("RobotState/velocity", vehicle_velocity_measured_.dx);
     }
 }
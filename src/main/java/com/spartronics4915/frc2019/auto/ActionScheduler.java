@@ -0,0 +1,181 @@
+package com.spartronics4915.frc2019.auto;
+
+import com.spartronics4915.frc2019.auto.actions.Action;
+import com.spartronics4915.frc2019.loops.Loop;
+import com.spartronics4915.lib.util.LatencyHistogram;
+import com.spartronics4915.lib.util.Logger;
+
+/**
+ * Runs the auto mode's actions in the enabled Looper's control tick, rather
+ * than on the auto mode's thread between sleeps.
+ * <p>
+ * The auto mode's thread hands an action over with
+ * {@link #runAction(AutoModeBase, Action)}, which starts it and then waits.
+ * Each tick of the CRITICAL tier, after Drive's and RobotStateEstimator's
+ * loops (it's registered after them in that tier), the scheduler updates
+ * the action. Subsystems in the other tiers, such as Superstructure and
+ * Turret, run on their own threads, so an action may see their state from
+ * this tick or the last. The tick in which the action finishes
+ * calls its done() and wakes the auto mode's thread straight away, so the
+ * next action starts right then and is first updated on the very next tick.
+ * An action that's finished as soon as it's started doesn't wait for a tick
+ * at all.
+ * <p>
+ * What an action throws in the tick is caught and logged, so it doesn't
+ * take the CRITICAL tier (and Drive with it) down; the auto mode's thread
+ * is woken and ends the auto mode.
+ * <p>
+ * The time from one action finishing to the next one's first update (the
+ * handoff) is recorded, and logged when the looper stops.
+ */
+public class ActionScheduler implements Loop
+{
+
+    static ActionScheduler mInstance = null;
+
+    public static ActionScheduler getInstance()
+    {
+        if (mInstance == null)
+        {
+            mInstance = new ActionScheduler();
+        }
+        return mInstance;
+    }
+
+    ActionScheduler()
+    {
+    }
+
+    private boolean mRunning = false;
+    private Action mAction = null; // the action being run, or null
+    private Action mFailedAction = null; // the action that threw, until runAction sees it
+    private long mFinishedNanos = 0; // when the last action finished; 0 if none since the auto mode's start
+    private boolean mAwaitingFirstUpdate = false;
+    private final LatencyHistogram mHandoffTimes = new LatencyHistogram();
+
+    @Override
+    public synchronized void onStart(double timestamp)
+    {
+        mRunning = true;
+        mFailedAction = null;
+        mFinishedNanos = 0;
+        mHandoffTimes.reset();
+    }
+
+    @Override
+    public synchronized void onLoop(double timestamp)
+    {
+        if (mAction == null)
+            return;
+        if (mAwaitingFirstUpdate)
+        {
+            if (mFinishedNanos != 0)
+                mHandoffTimes.record(System.nanoTime() - mFinishedNanos);
+            mAwaitingFirstUpdate = false;
+        }
+        final Action action = mAction;
+        try
+        {
+            action.update();
+            if (action.isFinished())
+            {
+                action.done();
+                finished();
+            }
+        }
+        catch (Throwable t)
+        {
+            Logger.logThrowableCrash("ActionScheduler: " + action.getClass().getSimpleName() + " failed", t);
+            mAction = null;
+            mFailedAction = action;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void onStop(double timestamp)
+    {
+        mRunning = false;
+        mAction = null;
+        notifyAll();
+        if (mHandoffTimes.getCount() > 0)
+            Logger.notice("ActionScheduler: handoffs " + mHandoffTimes.summary());
+    }
+
+    /**
+     * Starts action, then waits while the looper runs it to completion.
+     *
+     * @return false, without starting the action, if the looper isn't
+     *         running, so the caller has to run it itself
+     * @throws AutoModeEndedException
+     *         if the auto mode is stopped (or the looper stops) before the
+     *         action finishes, or the action throws in the looper's tick;
+     *         its done() isn't called
+     */
+    synchronized boolean runAction(AutoModeBase mode, Action action) throws AutoModeEndedException
+    {
+        if (!mRunning)
+            return false;
+        action.start();
+        if (action.isFinished())
+        {
+            action.done();
+            finished();
+            return true;
+        }
+        mAction = action;
+        mAwaitingFirstUpdate = true;
+        while (mAction == action)
+        {
+            if (!mode.isActive())
+            {
+                mAction = null;
+                throw new AutoModeEndedException();
+            }
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                mAction = null;
+                throw new AutoModeEndedException();
+            }
+        }
+        if (mFailedAction == action)
+        {
+            mFailedAction = null;
+            throw new AutoModeEndedException();
+        }
+        // Finished, unless the looper stopped under us
+        mode.isActiveWithThrow();
+        if (!mRunning)
+            throw new AutoModeEndedException();
+        return true;
+    }
+
+    /**
+     * Wakes the auto mode's thread, so it sees that its mode was stopped.
+     */
+    synchronized void wakeUp()
+    {
+        notifyAll();
+    }
+
+    /**
+     * @return the time from each action finishing to the next one's first
+     *         update, since the looper started
+     */
+    public LatencyHistogram getHandoffTimes()
+    {
+        return mHandoffTimes;
+    }
+
+    private void finished()
+    {
+        mAction = null;
+        mFinishedNanos = System.nanoTime();
+        notifyAll();
+    }
+}
@@ -1,5 +1,8 @@
 package com.spartronics4915.frc2019.auto;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.spartronics4915.frc2019.auto.actions.Action;
 import com.spartronics4915.lib.util.Logger;
 import com.spartronics4915.lib.util.Util;
@@ -8,18 +11,32 @@ import com.spartronics4915.lib.util.Util;
  * An abstract class that is the basis of the robot's autonomous routines. This
  * is implemented in auto modes (which are
  * routines that do actions).
+ * <p>
+ * runAction hands each action to the {@link ActionScheduler}, which runs it
+ * in the enabled Looper's control tick while the routine's thread waits. If
+ * the looper isn't running, the action is run on the routine's thread,
+ * updating it every m_update_rate seconds.
+ * <p>
+ * The routine's actions run one after another, so all of them are on its
+ * critical path; when it's done, when each ran is logged. (A
+ * {@link com.spartronics4915.frc2019.auto.actions.GraphAction} logs the
+ * critical path through its own actions.)
  */
 public abstract class AutoModeBase
 {
 
     protected double m_update_rate = 1.0 / 50.0;
     protected boolean m_active = false;
+    private long m_start_nanos;
+    private final List<String> m_action_times = new ArrayList<>();
 
     protected abstract void routine() throws AutoModeEndedException;
 
     public void run()
     {
         m_active = true;
+        m_start_nanos = System.nanoTime();
+        m_action_times.clear();
         try
         {
             Logger.notice("Game specific message: " + Util.getGameSpecificMessage());
@@ -32,7 +49,13 @@ public abstract class AutoModeBase
         }
 
         done();
-        Logger.notice("Auto mode done");
+        StringBuilder sb = new StringBuilder(
+                String.format("Auto mode done in %.2f s:", (System.nanoTime() - m_start_nanos) / 1e9));
+        for (String action_time : m_action_times)
+        {
+            sb.append('\n').append(action_time);
+        }
+        Logger.notice(sb.toString());
     }
 
     public void done()
@@ -42,6 +65,7 @@ public abstract class AutoModeBase
     public void stop()
     {
         m_active = false;
+        ActionScheduler.getInstance().wakeUp();
     }
 
     public boolean isActive()
@@ -60,8 +84,19 @@ public abstract class AutoModeBase
     }
 
     public void runAction(Action action) throws AutoModeEndedException
+    {
+        final long start = System.nanoTime();
+        runActionUntimed(action);
+        m_action_times.add(String.format("  %6.2f - %6.2f s  %s", (start - m_start_nanos) / 1e9,
+                (System.nanoTime() - m_start_nanos) / 1e9, action.getClass().getSimpleName()));
+    }
+
+    private void runActionUntimed(Action action) throws AutoModeEndedException
     {
         isActiveWithThrow();
+        if (ActionScheduler.getInstance().runAction(this, action))
+            return;
+
         action.start();
 
         while (isActiveWithThrow() && !action.isFinished())
@@ -5,6 +5,16 @@ package com.spartronics4915.frc2019.auto.actions;
  * by an autonomous action, called by the
  * method runAction in AutoModeBase (or more commonly in autonomous modes that
  * extend AutoModeBase)
+ * <p>
+ * A top-level action's start() is called on the auto mode's thread; its
+ * update(), isFinished() and done() are usually called on the enabled
+ * Looper's CRITICAL tier thread, by the ActionScheduler, alongside Drive and
+ * RobotStateEstimator. Actions that run others (SeriesAction, GraphAction)
+ * start them from update(), so a child's start() can run on that thread
+ * too. All of these must be quick, and shouldn't take the lock of a
+ * subsystem on another tier (such as Superstructure, or a
+ * {@link GraphAction.Node#when} condition that checks it): waiting on that
+ * stalls the CRITICAL tier behind the other tier's loop.
  *
  * @see com.spartronics4915.frc2019.auto.AutoModeBase#runAction
  */
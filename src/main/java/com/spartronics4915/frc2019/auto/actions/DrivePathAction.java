@@ -1,13 +1,17 @@
 package com.spartronics4915.frc2019.auto.actions;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.spartronics4915.frc2019.paths.PathContainer;
+import com.spartronics4915.frc2019.paths.profiles.PathAdapter;
 import com.spartronics4915.frc2019.subsystems.Drive;
 import com.spartronics4915.lib.control.Path;
 
 /**
  * Drives the robot along the Path defined in the PathContainer object. The
  * action finishes once the robot reaches the
- * end of the path.
+ * end of the path. The Path comes from the paths PathAdapter compiled ahead of
+ * time when it can.
  * 
  * @see PathContainer
  * @see Path
@@ -20,11 +24,12 @@ public class DrivePathAction implements Action
     private Path mPath;
     private Drive mDrive = Drive.getInstance();
     private String mStopMarker;
+    private CompletableFuture<Double> mStopEvent = null;
 
     public DrivePathAction(PathContainer p)
     {
         mPathContainer = p;
-        mPath = mPathContainer.buildPath();
+        mPath = PathAdapter.getPath(mPathContainer);
         mStopMarker = "";
     }
     
@@ -37,6 +42,8 @@ public class DrivePathAction implements Action
     public void start()
     {
         mDrive.setWantDrivePath(mPath, mPathContainer.isReversed());
+        if (!mStopMarker.equals(""))
+            mStopEvent = mDrive.getPathMarkerEvent(mStopMarker);
     }
 
     @Override
@@ -48,7 +55,7 @@ public class DrivePathAction implements Action
     @Override
     public void update()
     {
-        if (!mStopMarker.equals("") && mDrive.hasPassedMarker(mStopMarker))
+        if (mStopEvent != null && mStopEvent.isDone())
             mDrive.forceDoneWithPath();
     }
 
@@ -0,0 +1,422 @@
+package com.spartronics4915.frc2019.auto.actions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import com.spartronics4915.frc2019.subsystems.Drive;
+import com.spartronics4915.lib.util.Logger;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Composite action that runs its actions as a dependency graph: each action
+ * is started as soon as everything it depends on is ready, and the graph is
+ * finished when all of them are. An action may depend on other actions
+ * finishing, on the robot passing a path marker, or on any condition (a
+ * subsystem reaching a state, say):
+ *
+ * <pre>
+ * GraphAction graph = new GraphAction("ScaleMode");
+ * GraphAction.Node drive = graph.add("drive", new DrivePathAction(path));
+ * GraphAction.Node arm = graph.add("raiseArm", new RaiseArmAction())
+ *         .afterMarker(drive, "nearScale");
+ * graph.add("score", new ScoreAction()).after(drive, arm)
+ *         .when("arm up", () -> arm_is_up);
+ * runAction(graph);
+ * </pre>
+ *
+ * Like {@link SeriesAction}, an action whose inputs become ready in an
+ * update is started (and updated) in that same update.
+ * <p>
+ * When the graph is done it logs its critical path: the chain of actions,
+ * markers and conditions that the last action to finish was waiting on,
+ * with when each was started and ready. Time spent on that chain is what
+ * made the routine as long as it was; anything else had slack.
+ */
+public class GraphAction implements Action
+{
+
+    /**
+     * Something a node waits for. Once ready it stays ready.
+     */
+    private static abstract class Dependency
+    {
+
+        final Node mSource; // the node this waits on, or null
+        final boolean mOnFinish; // ready when mSource finishes, rather than at some point while it runs
+        double mReadyTime = Double.NaN;
+
+        Dependency(Node source, boolean onFinish)
+        {
+            mSource = source;
+            mOnFinish = onFinish;
+        }
+
+        boolean isReady()
+        {
+            if (Double.isNaN(mReadyTime) && check())
+                mReadyTime = readyTime();
+            return !Double.isNaN(mReadyTime);
+        }
+
+        abstract boolean check();
+
+        /**
+         * Forgets that the dependency was ready, for a new run of the graph.
+         */
+        void reset()
+        {
+            mReadyTime = Double.NaN;
+        }
+
+        /**
+         * @return when the dependency became ready; called once check() is
+         *         true
+         */
+        double readyTime()
+        {
+            return Timer.getFPGATimestamp();
+        }
+
+        abstract String describe();
+    }
+
+    /**
+     * An action in the graph, and what it waits for.
+     */
+    public class Node
+    {
+
+        private final String mName;
+        private final Action mAction;
+        private final List<Dependency> mDependencies = new ArrayList<>();
+        private double mStartTime = Double.NaN;
+        private double mFinishTime = Double.NaN;
+
+        private Node(String name, Action action)
+        {
+            mName = name;
+            mAction = action;
+        }
+
+        /**
+         * Waits for the given actions to finish.
+         */
+        public Node after(Node... nodes)
+        {
+            for (final Node node : nodes)
+            {
+                checkOwnNode(node);
+                mDependencies.add(new Dependency(node, true)
+                {
+
+                    @Override
+                    boolean check()
+                    {
+                        return node.isFinished();
+                    }
+
+                    @Override
+                    String describe()
+                    {
+                        return node.mName;
+                    }
+                });
+            }
+            return this;
+        }
+
+        /**
+         * Waits for the robot to pass marker on the path being driven by
+         * pathNode. The marker also counts as passed once pathNode finishes.
+         */
+        public Node afterMarker(final Node pathNode, final String marker)
+        {
+            checkOwnNode(pathNode);
+            mDependencies.add(new Dependency(pathNode, false)
+            {
+
+                CompletableFuture<Double> mEvent = null;
+
+                @Override
+                boolean check()
+                {
+                    // Don't take an event from an earlier path before pathNode has started its own
+                    if (mEvent == null && pathNode.isRunning())
+                        mEvent = Drive.getInstance().getPathMarkerEvent(marker);
+                    return pathNode.isFinished() || (mEvent != null && mEvent.isDone());
+                }
+
+                @Override
+                double readyTime()
+                {
+                    return mEvent != null && mEvent.isDone() ? mEvent.join() : super.readyTime();
+                }
+
+                @Override
+                void reset()
+                {
+                    super.reset();
+                    mEvent = null;
+                }
+
+                @Override
+                String describe()
+                {
+                    return "marker " + marker + " (" + pathNode.mName + ")";
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Waits for condition to hold (once), e.g. for a subsystem to reach
+         * a state. description names it in the critical path. condition is
+         * checked in the CRITICAL tier's tick, so it shouldn't wait on the
+         * lock of a subsystem on another tier; see {@link Action}.
+         */
+        public Node when(final String description, final BooleanSupplier condition)
+        {
+            mDependencies.add(new Dependency(null, false)
+            {
+
+                @Override
+                boolean check()
+                {
+                    return condition.getAsBoolean();
+                }
+
+                @Override
+                String describe()
+                {
+                    return description;
+                }
+            });
+            return this;
+        }
+
+        private void reset()
+        {
+            mStartTime = Double.NaN;
+            mFinishTime = Double.NaN;
+            for (Dependency dependency : mDependencies)
+            {
+                dependency.reset();
+            }
+        }
+
+        private boolean isRunning()
+        {
+            return !Double.isNaN(mStartTime) && Double.isNaN(mFinishTime);
+        }
+
+        private boolean isFinished()
+        {
+            return !Double.isNaN(mFinishTime);
+        }
+
+        /**
+         * @return true if everything this waits on is ready (checking all of
+         *         them, so each one's ready time is recorded)
+         */
+        private boolean isReady()
+        {
+            boolean ready = true;
+            for (Dependency dependency : mDependencies)
+            {
+                ready &= dependency.isReady();
+            }
+            return ready;
+        }
+
+        /**
+         * @return the dependency that was ready last, or null if this didn't
+         *         wait on anything
+         */
+        private Dependency getLastReady()
+        {
+            Dependency last = null;
+            for (Dependency dependency : mDependencies)
+            {
+                if (last == null || dependency.mReadyTime > last.mReadyTime)
+                    last = dependency;
+            }
+            return last;
+        }
+    }
+
+    private final String mName;
+    private final List<Node> mNodes = new ArrayList<>();
+    private double mStartTime;
+    private int mFinished = 0;
+    private boolean mReported = false;
+
+    public GraphAction(String name)
+    {
+        mName = name;
+    }
+
+    /**
+     * Adds action to the graph. It has no dependencies (and so starts with
+     * the graph) until some are given to the returned Node.
+     */
+    public Node add(String name, Action action)
+    {
+        Node node = new Node(name, action);
+        mNodes.add(node);
+        return node;
+    }
+
+    private void checkOwnNode(Node node)
+    {
+        if (!mNodes.contains(node))
+            throw new IllegalArgumentException(mName + ": " + node.mName + " isn't in this graph");
+    }
+
+    @Override
+    public void start()
+    {
+        checkForCycles();
+        // The graph may be run again; forget the last run
+        for (Node node : mNodes)
+        {
+            node.reset();
+        }
+        mStartTime = Timer.getFPGATimestamp();
+        mFinished = 0;
+        mReported = false;
+        update();
+    }
+
+    @Override
+    public void update()
+    {
+        for (Node node : mNodes)
+        {
+            if (node.isRunning())
+                updateNode(node);
+        }
+        // Starting or finishing an action may ready others; start them in this update too
+        boolean started = true;
+        while (started)
+        {
+            started = false;
+            for (Node node : mNodes)
+            {
+                if (node.isRunning() || node.isFinished() || !node.isReady())
+                    continue;
+                node.mStartTime = Timer.getFPGATimestamp();
+                node.mAction.start();
+                updateNode(node);
+                started = true;
+            }
+        }
+    }
+
+    private void updateNode(Node node)
+    {
+        node.mAction.update();
+        if (node.mAction.isFinished())
+        {
+            node.mAction.done();
+            node.mFinishTime = Timer.getFPGATimestamp();
+            mFinished++;
+        }
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return mFinished == mNodes.size();
+    }
+
+    @Override
+    public void done()
+    {
+        for (Node node : mNodes)
+        {
+            if (node.isRunning())
+                node.mAction.done();
+        }
+        if (!mReported)
+        {
+            mReported = true;
+            Logger.notice(getCriticalPath());
+        }
+    }
+
+    /**
+     * @return a description of the chain of actions, markers and conditions
+     *         the last action to finish waited on, with times relative to the
+     *         graph's start
+     */
+    public String getCriticalPath()
+    {
+        Node last = null;
+        for (Node node : mNodes)
+        {
+            if (node.isFinished() && (last == null || node.mFinishTime > last.mFinishTime))
+                last = node;
+        }
+        if (last == null)
+            return mName + ": nothing finished";
+
+        List<String> steps = new ArrayList<>();
+        Set<Node> seen = new HashSet<>();
+        Node node = last;
+        while (node != null && seen.add(node))
+        {
+            steps.add(0, String.format("  %6.2f - %6.2f s  %s", node.mStartTime - mStartTime,
+                    node.mFinishTime - mStartTime, node.mName));
+            Dependency dependency = node.getLastReady();
+            if (dependency == null)
+                break;
+            if (!dependency.mOnFinish)
+            {
+                // A marker or condition: say when it was ready
+                steps.add(0, String.format("  %6.2f s           %s", dependency.mReadyTime - mStartTime,
+                        dependency.describe()));
+            }
+            node = dependency.mSource;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %.2f s, critical path:", mName, last.mFinishTime - mStartTime));
+        for (String step : steps)
+        {
+            sb.append('\n').append(step);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Throws if some action depends, through others, on itself, and so could
+     * never start.
+     */
+    private void checkForCycles()
+    {
+        Set<Node> done = new HashSet<>();
+        for (Node node : mNodes)
+        {
+            visit(node, new HashSet<Node>(), done);
+        }
+    }
+
+    private void visit(Node node, Set<Node> path, Set<Node> done)
+    {
+        if (done.contains(node))
+            return;
+        if (!path.add(node))
+            throw new IllegalStateException(mName + ": " + node.mName + " depends on itself");
+        for (Dependency dependency : node.mDependencies)
+        {
+            if (dependency.mSource != null)
+                visit(dependency.mSource, path, done);
+        }
+        path.remove(node);
+        done.add(node);
+    }
+}
@@ -36,24 +36,32 @@ public class SeriesAction implements Action
     {
     }
 
+    /**
+     * Updates the current action. When it finishes, the next one is started
+     * and updated straight away, in the same call, rather than on the next.
+     */
     @Override
     public void update()
     {
-        if (mCurAction == null)
+        while (true)
         {
-            if (mRemainingActions.isEmpty())
+            if (mCurAction == null)
             {
-                return;
-            }
+                if (mRemainingActions.isEmpty())
+                {
+                    return;
+                }
 
-            mCurAction = mRemainingActions.remove(0);
-            mCurAction.start();
-        }
+                mCurAction = mRemainingActions.remove(0);
+                mCurAction.start();
+            }
 
-        mCurAction.update();
+            mCurAction.update();
 
-        if (mCurAction.isFinished())
-        {
+            if (!mCurAction.isFinished())
+            {
+                return;
+            }
             mCurAction.done();
             mCurAction = null;
         }
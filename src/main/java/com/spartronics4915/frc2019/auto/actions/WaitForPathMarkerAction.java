@@ -1,13 +1,14 @@
 package com.spartronics4915.frc2019.auto.actions;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.spartronics4915.frc2019.subsystems.Drive;
 
 /**
  * Waits for the robot to pass by a provided path marker (i.e. a waypoint on the
- * field). This action routinely compares
- * to the crossed path markers provided by the drivetrain (in Path Control mode)
- * and returns if the parameter path
- * marker is inside the drivetrain's Path Markers Crossed list
+ * field). The drivetrain (in Path Control mode) completes an event when the
+ * path passes the marker, and this action finishes once it has, in the same
+ * control tick.
  * 
  * @param A
  *        Path Marker to determine if crossed
@@ -17,6 +18,7 @@ public class WaitForPathMarkerAction implements Action
 
     private Drive mDrive = Drive.getInstance();
     private String mMarker;
+    private CompletableFuture<Double> mEvent = null;
 
     public WaitForPathMarkerAction(String marker)
     {
@@ -26,7 +28,7 @@ public class WaitForPathMarkerAction implements Action
     @Override
     public boolean isFinished()
     {
-        return mDrive.hasPassedMarker(mMarker);
+        return mEvent != null && mEvent.isDone();
     }
 
     @Override
@@ -42,6 +44,7 @@ public class WaitForPathMarkerAction implements Action
     @Override
     public void start()
     {
+        mEvent = mDrive.getPathMarkerEvent(mMarker);
     }
 
 }
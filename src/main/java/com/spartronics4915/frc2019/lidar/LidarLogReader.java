@@ -0,0 +1,124 @@
+package com.spartronics4915.frc2019.lidar;
+
+import edu.wpi.first.wpilibj.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads back the <code>lidarLog-*.dat</code> files written by
+ * {@link LidarLogWriter}, either point by point or by replaying them through
+ * {@link LidarProcessor#addPoint(double, double, double, boolean)}.
+ * <p>
+ * Replaying a log re-projects every point through the current
+ * {@link com.spartronics4915.frc2019.RobotState}, so the stored field
+ * coordinates are only reproduced if the robot's pose history matches the
+ * original run. Use {@link #read(Listener)} to get at the logged
+ * coordinates directly.
+ */
+public class LidarLogReader implements AutoCloseable {
+
+    public interface Listener {
+        /**
+         * @param timestamp FPGA timestamp of the original run
+         * @param angle     Angle in degrees
+         * @param distance  Distance in inches
+         * @param x         Field x, as computed on the robot
+         * @param y         Field y, as computed on the robot
+         * @param newScan   true if this point started a new revolution
+         */
+        void onPoint(double timestamp, double angle, double distance, double x, double y, boolean newScan);
+    }
+
+    private final DataInputStream mIn;
+
+    public static LidarLogReader open(File file) throws IOException {
+        return new LidarLogReader(new GZIPInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * @param in Uncompressed log contents
+     */
+    public LidarLogReader(InputStream in) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        int magic = mIn.readInt();
+        int version = mIn.readInt();
+        if (magic != LidarLogWriter.kMagic || version != LidarLogWriter.kVersion) {
+            throw new IOException("Not a version " + LidarLogWriter.kVersion + " lidar log");
+        }
+    }
+
+    /**
+     * Reads the next block (usually one scan) of the log.
+     *
+     * @return false at the end of the log
+     */
+    public boolean readBlock(Listener listener) throws IOException {
+        int numPoints;
+        try {
+            numPoints = mIn.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        boolean newScan = (mIn.readInt() & LidarLogWriter.kFlagNewScan) != 0;
+        double startTimestamp = mIn.readDouble();
+        for (int i = 0; i < numPoints; i++) {
+            double timestamp = startTimestamp + mIn.readInt() / 1e6;
+            double angle = mIn.readInt() / 100.0;
+            double distance = mIn.readInt() / 256.0;
+            double x = mIn.readInt() / 256.0;
+            double y = mIn.readInt() / 256.0;
+            listener.onPoint(timestamp, angle, distance, x, y, newScan && i == 0);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of the log.
+     *
+     * @return the number of blocks read
+     */
+    public int read(Listener listener) throws IOException {
+        int blocks = 0;
+        while (readBlock(listener)) {
+            blocks++;
+        }
+        return blocks;
+    }
+
+    /**
+     * Feeds the rest of the log to <code>processor</code>. Timestamps are
+     * shifted so that the first point happens now.
+     *
+     * @param realTime If true, points are delivered at the rate they were
+     *                 recorded; otherwise as fast as the processor takes them
+     */
+    public void replay(LidarProcessor processor, boolean realTime) throws IOException {
+        final double[] offset = {Double.NaN};
+        final double start = Timer.getFPGATimestamp();
+        read((timestamp, angle, distance, x, y, newScan) -> {
+            if (Double.isNaN(offset[0])) {
+                offset[0] = start - timestamp;
+            }
+            double replayTimestamp = timestamp + offset[0];
+            if (realTime) {
+                double wait = replayTimestamp - Timer.getFPGATimestamp();
+                if (wait > 0) {
+                    Timer.delay(wait);
+                }
+            }
+            processor.addPoint(replayTimestamp, angle, distance, newScan);
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
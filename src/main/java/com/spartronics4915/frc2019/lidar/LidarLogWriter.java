@@ -0,0 +1,282 @@
+package com.spartronics4915.frc2019.lidar;
+
+import com.spartronics4915.frc2019.Constants;
+import com.spartronics4915.lib.util.BoundedQueue;
+import com.spartronics4915.lib.util.CrashTrackingRunnable;
+import com.spartronics4915.lib.util.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes LIDAR points to a gzipped log file without putting file I/O or
+ * compression on the thread that receives the points.
+ * <p>
+ * Points are packed into preallocated blocks, one block per scan. A
+ * finished block is handed to a background thread through a
+ * {@link BoundedQueue}, written in one go, and returned to a pool of free
+ * blocks. If the writer falls so far behind that no free block is left,
+ * the scan that just finished is dropped rather than blocking the caller;
+ * see {@link #getBlocksDropped()}.
+ * <p>
+ * File format (big-endian, gzipped):
+ * <pre>
+ * header: int {@link #kMagic}, int {@link #kVersion}
+ * block:  int numPoints, int flags ({@link #kFlagNewScan}), double startTimestamp
+ *         numPoints x {int (timestamp - startTimestamp) * 1e6,
+ *                      int angle * 100, int distance * 256, int x * 256, int y * 256}
+ * </pre>
+ * {@link #logPoint(double, double, double, double, double, boolean)} must
+ * only be called from one thread at a time (the LidarServer reader thread).
+ */
+class LidarLogWriter {
+    public static final int kMagic = 0x4C494452; // "LIDR"
+    public static final int kVersion = 1;
+    public static final int kFlagNewScan = 0x1;
+    public static final int kIntsPerPoint = 5;
+    public static final int kBlockHeaderSize = 16; // bytes
+
+    private static final long kIdleParkNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long kCloseTimeoutMs = 2000;
+
+    private static class Block {
+        final int[] data;
+        int numPoints;
+        boolean newScan;
+        double startTimestamp;
+
+        Block(int maxPoints) {
+            data = new int[maxPoints * kIntsPerPoint];
+        }
+
+        boolean isFull() {
+            return numPoints * kIntsPerPoint == data.length;
+        }
+    }
+
+    private final DataOutputStream mOut;
+    private final BoundedQueue<Block> mFreeBlocks, mFullBlocks;
+    private final Thread mThread;
+    private volatile boolean mClosing = false;
+
+    private Block mCurrent; // only touched by the producer
+
+    private final AtomicLong mBlocksWritten = new AtomicLong();
+    private final AtomicLong mBlocksDropped = new AtomicLong();
+    private final AtomicLong mPointsDropped = new AtomicLong();
+    private volatile int mMaxQueueDepth = 0;
+
+    /**
+     * Opens a new log in {@link Constants#kLidarLogDir}, deleting the oldest
+     * logs if there are more than {@link Constants#kNumLidarLogsToKeep}.
+     */
+    public static LidarLogWriter open() throws IOException {
+        return new LidarLogWriter(new GZIPOutputStream(newLogFile(), 1 << 16), Constants.kLidarLogBlocks,
+                Constants.kLidarScanSize);
+    }
+
+    private static FileOutputStream newLogFile() throws IOException {
+        // delete old files if we're over the limit
+        File logDir = new File(Constants.kLidarLogDir);
+        File[] logFiles = logDir.listFiles();
+        if (logFiles == null)
+            throw new IOException("List files in " + Constants.kLidarLogDir);
+        Arrays.sort(logFiles, (f1, f2) -> {
+            return Long.compare(f1.lastModified(), f2.lastModified());
+        });
+        for (int i = 0; i < logFiles.length - Constants.kNumLidarLogsToKeep + 1; i++) {
+            logFiles[i].delete();
+        }
+
+        // create the new file and return
+        String dateStr = new SimpleDateFormat("MM-dd-HH_mm_ss").format(new Date());
+        File newFile = new File(logDir, "lidarLog-" + dateStr + ".dat");
+        newFile.createNewFile();
+        return new FileOutputStream(newFile, false);
+    }
+
+    /**
+     * @param out           Destination; closed by {@link #close()}
+     * @param numBlocks     Blocks in the pool, including the one being filled
+     * @param pointsPerBlock Usually one scan's worth
+     */
+    public LidarLogWriter(OutputStream out, int numBlocks, int pointsPerBlock) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        mOut.writeInt(kMagic);
+        mOut.writeInt(kVersion);
+
+        numBlocks = Math.max(2, numBlocks);
+        mFreeBlocks = new BoundedQueue<>(numBlocks);
+        mFullBlocks = new BoundedQueue<>(numBlocks);
+        for (int i = 1; i < numBlocks; i++) {
+            mFreeBlocks.offer(new Block(pointsPerBlock));
+        }
+        mCurrent = new Block(pointsPerBlock);
+
+        mThread = new Thread(new CrashTrackingRunnable() {
+            @Override
+            public void runCrashTracked() {
+                drain(pointsPerBlock);
+            }
+        }, "LidarLogWriter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Appends a point to the current block. Never blocks.
+     */
+    public void logPoint(double timestamp, double angle, double distance, double x, double y, boolean newScan) {
+        if (mClosing) {
+            mPointsDropped.incrementAndGet();
+            return;
+        }
+        Block b = mCurrent;
+        if (newScan && b.numPoints > 0) {
+            b = publish();
+        }
+        if (b.numPoints == 0) {
+            b.startTimestamp = timestamp;
+            b.newScan = newScan;
+        }
+        int i = b.numPoints * kIntsPerPoint;
+        b.data[i] = (int) ((timestamp - b.startTimestamp) * 1e6);
+        b.data[i + 1] = (int) (angle * 100);
+        b.data[i + 2] = (int) (distance * 256);
+        b.data[i + 3] = (int) (x * 256);
+        b.data[i + 4] = (int) (y * 256);
+        b.numPoints++;
+        if (b.isFull()) {
+            publish();
+        }
+    }
+
+    /**
+     * Hands the current block to the writer thread and takes a free one,
+     * or drops the current block if none is free.
+     *
+     * @return the new current block
+     */
+    private Block publish() {
+        Block next = mFreeBlocks.poll();
+        if (next == null || !mFullBlocks.offer(mCurrent)) {
+            if (next != null) {
+                mFreeBlocks.offer(next);
+            }
+            // The writer can't keep up; throw this block away and reuse it
+            mBlocksDropped.incrementAndGet();
+            mPointsDropped.addAndGet(mCurrent.numPoints);
+            mCurrent.numPoints = 0;
+            return mCurrent;
+        }
+        int depth = mFullBlocks.size();
+        if (depth > mMaxQueueDepth) {
+            mMaxQueueDepth = depth;
+        }
+        LockSupport.unpark(mThread);
+        next.numPoints = 0;
+        mCurrent = next;
+        return next;
+    }
+
+    private void drain(int pointsPerBlock) {
+        ByteBuffer bytes = ByteBuffer.allocate(kBlockHeaderSize + pointsPerBlock * kIntsPerPoint * 4);
+        try {
+            while (true) {
+                Block b = mFullBlocks.poll();
+                if (b == null) {
+                    if (mClosing && mFullBlocks.isEmpty()) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, kIdleParkNanos);
+                    continue;
+                }
+
+                bytes.clear();
+                bytes.putInt(b.numPoints);
+                bytes.putInt(b.newScan ? kFlagNewScan : 0);
+                bytes.putDouble(b.startTimestamp);
+                bytes.asIntBuffer().put(b.data, 0, b.numPoints * kIntsPerPoint);
+                mFreeBlocks.offer(b);
+                mOut.write(bytes.array(), 0, kBlockHeaderSize + b.numPoints * kIntsPerPoint * 4);
+                mBlocksWritten.incrementAndGet();
+            }
+        } catch (IOException e) {
+            Logger.warning("Lidar log write failed: " + e.getMessage());
+            mClosing = true;
+        } finally {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Logger.warning("Lidar log close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes out the partially filled block, waits for the writer thread to
+     * drain the queue, and closes the file. The producer must have stopped
+     * calling {@link #logPoint} (e.g. LidarServer has been stopped).
+     */
+    public void close() {
+        if (mClosing) {
+            return;
+        }
+        if (mCurrent.numPoints > 0) {
+            publish();
+        }
+        mClosing = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(kCloseTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) {
+            Logger.warning("Lidar log writer didn't finish within " + kCloseTimeoutMs + " ms");
+        }
+    }
+
+    public long getBlocksWritten() {
+        return mBlocksWritten.get();
+    }
+
+    /**
+     * @return blocks (scans) thrown away because the writer was behind
+     */
+    public long getBlocksDropped() {
+        return mBlocksDropped.get();
+    }
+
+    public long getPointsDropped() {
+        return mPointsDropped.get();
+    }
+
+    /**
+     * @return blocks waiting to be written right now
+     */
+    public int getQueueDepth() {
+        return mFullBlocks.size();
+    }
+
+    /**
+     * @return the most blocks that have ever been waiting to be written;
+     *         close to the pool size means the writer is struggling to
+     *         keep up
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+}
@@ -52,7 +52,6 @@ class LidarPoint {
             mRobotPoseMap.put(timestamp, robotPose);
         }
 
-        robotPose.transformBy(Pose2d.fromTranslation(cartesian));
-        return robotPose.getTranslation();
+        return robotPose.transformBy(Pose2d.fromTranslation(cartesian)).getTranslation();
     }
 }
\ No newline at end of file
@@ -3,32 +3,45 @@ package com.spartronics4915.frc2019.lidar;
 import com.spartronics4915.frc2019.Constants;
 import com.spartronics4915.frc2019.RobotState;
 import com.spartronics4915.frc2019.lidar.icp.ICP;
-import com.spartronics4915.frc2019.lidar.icp.Point;
+import com.spartronics4915.frc2019.lidar.icp.ICPResult;
+import com.spartronics4915.frc2019.lidar.icp.IncrementalICP;
 import com.spartronics4915.frc2019.lidar.icp.ReferenceModel;
 import com.spartronics4915.frc2019.lidar.icp.Transform;
 import com.spartronics4915.frc2019.loops.Loop;
 import com.spartronics4915.lib.math.Translation2d;
 import com.spartronics4915.lib.math.Pose2d;
+import com.spartronics4915.lib.util.CrashTrackingRunnable;
+import com.spartronics4915.lib.util.DashboardPublisher;
+import com.spartronics4915.lib.util.Logger;
+import com.spartronics4915.lib.util.PoseHistory;
 import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Receives LIDAR points from the {@link LidarServer}, stores a set number of
  * scans/revolutions, and provides methods for processing the data.
  * <p>
  * All interfacing with the LIDAR should be done through this class.
+ * <p>
+ * Every time a scan completes, ICP is run on a dedicated localization thread
+ * and the resulting field-to-lidar pose is saved in a history keyed by the
+ * scan's timestamp (like {@link RobotState}). Control loops should read
+ * from that history instead of calling {@link #doICP()}, which can take up
+ * to the ICP timeout.
+ * <p>
+ * With {@link Constants#kLidarIncrementalICP}, the localization thread only
+ * solves for the points that arrived since its last solve, starting from
+ * that solve's result, and falls back to a full solve over every stored
+ * scan when the incremental result looks poor.
  *
  * @see Constants.kLidarNumScansToStore
+ * @see getLatestFieldToLidar()
  * @see doICP()
  * @see getTowerPosition()
  */
@@ -45,70 +58,96 @@ public class LidarProcessor implements Loop {
     private final String kPointCloudDashboardKey = "Lidar/points";
 
     private RobotState mRobotState = RobotState.getInstance();
+    private final DashboardPublisher mDashboard = DashboardPublisher.getInstance();
     private LidarServer mLidarServer = LidarServer.getInstance();
 
-    private LinkedList<LidarScan> mScans = new LinkedList<>();
+    private final LidarScanBuffer mScans = new LidarScanBuffer(Constants.kLidarNumScansToStore,
+            Constants.kLidarScanSize);
     private double prev_timestamp;
 
-    private ICP icp = new ICP(ReferenceModel.TOWER, 100);
+    // Culled point cloud handed to ICP, reused between calls. Guarded by mICPLock.
+    private final Object mICPLock = new Object();
+    private final double[] mCulledX = new double[mScans.capacity()];
+    private final double[] mCulledY = new double[mScans.capacity()];
 
-    private DataOutputStream dataLogFile;
+    // Field-to-lidar pose at mPoseTimestamp. Consecutive points usually
+    // share a timestamp, so caching it saves a RobotState lookup per point.
+    // Only touched by the LidarServer reader thread.
+    private double mPoseTimestamp = Double.NaN;
+    private double mPoseX, mPoseY, mPoseCos, mPoseSin;
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ICP icp = new ICP(ReferenceModel.TOWER, 100);
 
-    private static FileOutputStream newLogFile() throws IOException {
-        // delete old files if we're over the limit
-        File logDir = new File(Constants.kLidarLogDir);
-        File[] logFiles = logDir.listFiles();
-        if (logFiles == null)
-            throw new IOException("List files in " + Constants.kLidarLogDir);
-        Arrays.sort(logFiles, (f1, f2) -> {
-            return Long.compare(f1.lastModified(), f2.lastModified());
-        });
-        for (int i = 0; i < logFiles.length - Constants.kNumLidarLogsToKeep + 1; i++) {
-            logFiles[i].delete();
-        }
+    // Scan-to-scan ICP for the localization thread, warm-started from the
+    // last solution. Guarded by mICPLock, like the fields below.
+    private final IncrementalICP mIncrementalICP = new IncrementalICP(icp, Constants.kLidarICPMethod,
+            Constants.kLidarICPMinImprovement);
+    private long mLastSolvedSeq = 0; // first point not yet seen by any solve
+    private double mFullSolveResidual = Double.POSITIVE_INFINITY;
+
+    // FPGATimestamp of a scan -> field-to-lidar pose found by ICP. Guarded by itself.
+    private final PoseHistory mFieldToLidar = new PoseHistory(Constants.kLidarPoseHistorySize);
+
+    // Runs ICP once per completed scan. At most one run is queued at a time;
+    // if ICP can't keep up, scans that complete while it's busy are skipped.
+    private final ExecutorService mLocalizationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LidarLocalization");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean mLocalizationPending = new AtomicBoolean(false);
+
+    // Open while the processor is started (one log per enable). Only
+    // replaced by the Looper thread, read by the LidarServer reader thread.
+    private volatile LidarLogWriter mLogWriter;
 
-        // create the new file and return
-        String dateStr = new SimpleDateFormat("MM-dd-HH_mm_ss").format(new Date());
-        File newFile = new File(logDir, "lidarLog-" + dateStr + ".dat");
-        newFile.createNewFile();
-        return new FileOutputStream(newFile, false);
-    }
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private LidarProcessor() {
-        mScans.add(new LidarScan());
-        try {
-            dataLogFile = new DataOutputStream(new GZIPOutputStream(newLogFile()));
-        } catch (IOException e) {
-            System.err.println("Failed to open lidar log file:");
-            e.printStackTrace();
-        }
-    }
-
-    private void logPoint(double angle, double dist, double x, double y) {
-        try {
-            dataLogFile.writeInt((int) (angle * 100));
-            dataLogFile.writeInt((int) (dist * 256));
-            dataLogFile.writeInt((int) (x * 256));
-            dataLogFile.writeInt((int) (y * 256));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
     }
 
     public void addPoint(LidarPoint point, boolean newScan) {
-        SmartDashboard.putNumber("Lidar/angle", point.angle);
+        addPoint(point.timestamp, point.angle, point.distance, newScan);
+    }
 
-        Translation2d cartesian = point.toCartesian();
-        logPoint(point.angle, point.distance, cartesian.x(), cartesian.y());
+    /**
+     * Adds a point given in polar coordinates relative to the LIDAR.
+     * The point is transformed into field coordinates using the robot's
+     * pose at <code>timestamp</code> and stored without allocating.
+     *
+     * @param timestamp FPGA timestamp the point was measured at
+     * @param angle     Angle in degrees
+     * @param distance  Distance in inches
+     * @param newScan   true if this point starts a new revolution
+     */
+    public void addPoint(double timestamp, double angle, double distance, boolean newScan) {
+        mDashboard.putNumber("Lidar/angle", angle);
+
+        if (timestamp != mPoseTimestamp) {
+            Pose2d fieldToLidar = mRobotState.getFieldToLidar(timestamp);
+            mPoseTimestamp = timestamp;
+            mPoseX = fieldToLidar.getTranslation().x();
+            mPoseY = fieldToLidar.getTranslation().y();
+            mPoseCos = fieldToLidar.getRotation().cos();
+            mPoseSin = fieldToLidar.getRotation().sin();
+        }
+        final double radians = Math.toRadians(angle);
+        final double lx = Math.cos(radians) * distance, ly = Math.sin(radians) * distance;
+        final double x = mPoseX + lx * mPoseCos - ly * mPoseSin;
+        final double y = mPoseY + lx * mPoseSin + ly * mPoseCos;
+        LidarLogWriter logWriter = mLogWriter;
+        if (logWriter != null) {
+            logWriter.logPoint(timestamp, angle, distance, x, y, newScan);
+        }
 
         lock.writeLock().lock();
         try {
             if (newScan) { // crosses the 360-0 threshold. start a new scan
                 prev_timestamp = Timer.getFPGATimestamp();
 
-                SmartDashboard.putString(kPointCloudDashboardKey, "new");
+                if (Constants.kLidarPublishPointCloud) {
+                    mDashboard.putString(kPointCloudDashboardKey, "new");
+                }
                 // long start = System.nanoTime();
                 // Translation2d towerPos = getTowerPosition();
                 // long end = System.nanoTime();
@@ -116,18 +155,19 @@ public class LidarProcessor implements Loop {
                 // SmartDashboard.putNumber("towerPosX", towerPos.x());
                 // SmartDashboard.putNumber("towerPosY", towerPos.y());
 
-                mScans.add(new LidarScan());
-                if (mScans.size() > Constants.kLidarNumScansToStore) {
-                    mScans.removeFirst();
-                }
+                requestLocalization(mScans.getCurrentScanTimestamp());
+                mScans.startScan();
             }
 
-            if (!excludePoint(cartesian.x(), cartesian.y())) {
-                getCurrentScan().addPoint(new Point(cartesian), point.timestamp);
+            if (!excludePoint(x, y)) {
+                mScans.add(x, y, timestamp);
 
                 // The point cloud output is relative to the robot's position, so it probably
-                // won't look to good if you move the robot around.
-                SmartDashboard.putString(kPointCloudDashboardKey, cartesian.x() + " " + cartesian.y());
+                // won't look to good if you move the robot around. Only the last point
+                // before each dashboard flush gets through, so it's off by default.
+                if (Constants.kLidarPublishPointCloud) {
+                    mDashboard.putString(kPointCloudDashboardKey, x + " " + y);
+                }
             }
         } finally {
             lock.writeLock().unlock();
@@ -144,79 +184,215 @@ public class LidarProcessor implements Loop {
         return x < RECT_X_MIN || x > RECT_X_MAX || y < RECT_Y_MIN || y > RECT_Y_MAX;
     }
 
-    private LidarScan getCurrentScan() {
-        return mScans.getLast();
+    private static final double BUCKET_SIZE = 3.0; // inches
+
+    // Points are only stored inside the rectangle, so a fixed grid covers them all
+    private final PointCuller mCuller = new PointCuller(RECT_X_MIN, RECT_Y_MIN, RECT_X_MAX, RECT_Y_MAX,
+            BUCKET_SIZE);
+
+    /**
+     * Thins the stored points roughly uniformly, copying the survivors into
+     * {@link #mCulledX} and {@link #mCulledY}. Callers must hold both
+     * {@link #mICPLock} and the read lock.
+     *
+     * @return the number of points copied
+     */
+    private int cullPoints() {
+        return mCuller.cull(mScans, mCulledX, mCulledY);
     }
 
-    private ArrayList<Point> getAllPoints() {
-        ArrayList<Point> list = new ArrayList<>();
-        for (LidarScan scan : mScans) {
-            list.addAll(scan.getPoints());
+    /**
+     * Chooses how the stored points are thinned before ICP. The default,
+     * {@link PointCuller.Strategy#FIRST}, keeps the oldest point in every
+     * {@link #BUCKET_SIZE} square.
+     */
+    public void setCullStrategy(PointCuller.Strategy strategy) {
+        synchronized (mICPLock) {
+            mCuller.setStrategy(strategy);
         }
-        return list;
     }
 
-    private Point getAveragePoint() {
-        double sumX = 0, sumY = 0;
-        int n = 0;
-        for (Point p : getAllPoints()) {
-            sumX += p.x;
-            sumY += p.y;
-            n++;
+    /**
+     * Runs ICP synchronously against the current scan. This blocks for up to
+     * the ICP timeout, so control loops should use
+     * {@link #getLatestFieldToLidar()} instead.
+     *
+     * @return the field-to-lidar pose, or null if ICP couldn't match the
+     *         points to the reference
+     */
+    public Pose2d doICP() {
+        double scanTimestamp;
+        lock.readLock().lock();
+        try {
+            scanTimestamp = mScans.getCurrentScanTimestamp();
+        } finally {
+            lock.readLock().unlock();
         }
-        return new Point(sumX / n, sumY / n);
+        return doICP(scanTimestamp);
     }
 
-    private static final double BUCKET_SIZE = 3.0; // inches
-
     /**
-     * Cantor pairing function (to bucket & hash two doubles)
+     * Solves against every stored point, culled, starting from odometry.
+     * The result becomes the incremental solver's new starting point.
+     *
+     * @return null if ICP failed
      */
-    private int getBucket(double x, double y) {
-        int ix = (int) (x / BUCKET_SIZE);
-        int iy = (int) (y / BUCKET_SIZE);
-        int a = ix >= 0 ? 2 * ix : -2 * ix - 1;
-        int b = iy >= 0 ? 2 * iy : -2 * iy - 1;
-        int sum = a + b;
-        return sum * (sum + 1) / 2 + a;
+    private Pose2d doICP(double scanTimestamp) {
+        synchronized (mICPLock) {
+            int n;
+            lock.readLock().lock();
+            try {
+                n = cullPoints();
+                mLastSolvedSeq = mScans.getNextSequence();
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Pose2d guess = mRobotState.getFieldToLidar(scanTimestamp);
+            ICPResult result = icp.solve(mCulledX, mCulledY, n, new Transform(guess).inverse(),
+                    Constants.kLidarICPMethod, 0);
+            mDashboard.putNumber("Lidar/cullTimeMs", mCuller.getLastDuration() * 1000);
+            mDashboard.putNumber("Lidar/cullPointsIn", mCuller.getLastInputCount());
+            mDashboard.putNumber("Lidar/cullPointsOut", mCuller.getLastOutputCount());
+            if (!result.isValid()) {
+                mIncrementalICP.reset(null);
+                mDashboard.putString("Lidar/icpStatus", result.status.toString());
+                return null;
+            }
+            mIncrementalICP.reset(result.transform);
+            mFullSolveResidual = result.residual;
+            return publishResult(result, false);
+        }
     }
 
     /**
-     * Returns a list of points that have been thinned roughly uniformly.
+     * Solves using only the points added since the last solve, warm-started
+     * from its result, and falls back to a full {@link #doICP(double)} when
+     * there's nothing to start from or the incremental result looks poor.
      */
-    private ArrayList<Point> getCulledPoints() {
-        ArrayList<Point> list = new ArrayList<>();
-        HashSet<Integer> buckets = new HashSet<>();
-        for (Point p : getAllPoints()) {
-            if (buckets.add(getBucket(p.x, p.y)))
-                list.add(p);
+    private Pose2d localize(double scanTimestamp) {
+        synchronized (mICPLock) {
+            if (!Constants.kLidarIncrementalICP || !mIncrementalICP.isWarm()) {
+                return doICP(scanTimestamp);
+            }
+
+            int n = 0;
+            lock.readLock().lock();
+            try {
+                for (int i = mScans.indexOf(mLastSolvedSeq); i < mScans.size(); i++) {
+                    mCulledX[n] = mScans.getX(i);
+                    mCulledY[n] = mScans.getY(i);
+                    n++;
+                }
+                mLastSolvedSeq = mScans.getNextSequence();
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (n < Constants.kLidarICPMinIncrementalPoints) {
+                return doICP(scanTimestamp);
+            }
+
+            ICPResult result = mIncrementalICP.update(mCulledX, mCulledY, n);
+            if (!result.isValid() || result.inliers < n * Constants.kLidarICPMinInlierFraction ||
+                    result.residual > mFullSolveResidual * Constants.kLidarICPMaxResidualGrowth) {
+                return doICP(scanTimestamp);
+            }
+            return publishResult(result, true);
         }
-        return list;
     }
 
-    public Pose2d doICP() {
-        lock.readLock().lock();
-        try {
-            Pose2d guess = mRobotState.getFieldToLidar(getCurrentScan().getTimestamp());
-            Pose2d finalPose = icp.doICP(getCulledPoints(), new Transform(guess).inverse()).inverse().toPose2d();
-            SmartDashboard.putString("Lidar/pose", finalPose.getTranslation().x() + " " + finalPose.getTranslation().y()
-                    + " " + finalPose.getRotation().getDegrees());
-            // TODO: Maybe put the processing into its own looper and save past poses (like
-            // RobotState)
-            return finalPose;
-        } finally {
-            lock.readLock().unlock();
+    private Pose2d publishResult(ICPResult result, boolean incremental) {
+        Pose2d finalPose = result.transform.inverse().toPose2d();
+        mDashboard.putString("Lidar/pose", finalPose.getTranslation().x() + " " + finalPose.getTranslation().y()
+                + " " + finalPose.getRotation().getDegrees());
+        mDashboard.putNumber("Lidar/icpIterations", result.iterations);
+        mDashboard.putNumber("Lidar/icpResidual", result.residual);
+        mDashboard.putNumber("Lidar/icpInliers", result.inliers);
+        mDashboard.putBoolean("Lidar/icpIncremental", incremental);
+        mDashboard.putString("Lidar/icpStatus", result.status.toString());
+        return finalPose;
+    }
+
+    /**
+     * Queues an ICP run on the localization thread for the scan that started
+     * at <code>scanTimestamp</code>, unless one is already queued or running.
+     */
+    private void requestLocalization(final double scanTimestamp) {
+        if (scanTimestamp == 0 || !mLocalizationPending.compareAndSet(false, true)) {
+            return; // empty scan, or ICP is still busy with an older one
         }
+        mLocalizationExecutor.execute(new CrashTrackingRunnable() {
+            @Override
+            public void runCrashTracked() {
+                try {
+                    Pose2d fieldToLidar = localize(scanTimestamp);
+                    if (fieldToLidar != null) {
+                        mFieldToLidar.add(scanTimestamp, fieldToLidar);
+                    }
+                } catch (RuntimeException e) {
+                    Logger.warning("Lidar localization failed: " + e.getMessage());
+                } finally {
+                    mLocalizationPending.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the most recent field-to-lidar pose found by the localization
+     *         thread, or null if ICP hasn't produced one yet
+     */
+    public Pose2d getLatestFieldToLidar() {
+        return mFieldToLidar.getLatest();
     }
 
+    /**
+     * @return the timestamp of the scan behind {@link #getLatestFieldToLidar()},
+     *         or NaN if ICP hasn't produced a pose yet
+     */
+    public double getLatestFieldToLidarTimestamp() {
+        return mFieldToLidar.getLatestTimestamp();
+    }
+
+    /**
+     * @return the field-to-lidar pose found by the localization thread,
+     *         interpolated to <code>timestamp</code>, or null if ICP hasn't
+     *         produced one yet
+     */
+    public Pose2d getFieldToLidar(double timestamp) {
+        return mFieldToLidar.getInterpolated(timestamp);
+    }
+
+    /**
+     * @return the midpoint of the tower's face, in the lidar's frame, found
+     *         by ICP from the centroid of the stored points, or null if there
+     *         are no points or ICP can't match them to the tower
+     */
     public Translation2d getTowerPosition() {
-        lock.readLock().lock();
-        try {
-            Point avg = getAveragePoint();
-            Transform trans = icp.doICP(getCulledPoints(), new Transform(0, avg.x, avg.y));
-            return trans.apply(icp.reference).getMidpoint().toTranslation2d();
-        } finally {
-            lock.readLock().unlock();
+        synchronized (mICPLock) {
+            double avgX = 0, avgY = 0;
+            int n;
+            lock.readLock().lock();
+            try {
+                if (mScans.size() == 0) {
+                    return null;
+                }
+                for (int i = 0; i < mScans.size(); i++) {
+                    avgX += mScans.getX(i);
+                    avgY += mScans.getY(i);
+                }
+                avgX /= mScans.size();
+                avgY /= mScans.size();
+                n = cullPoints();
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            ICPResult result = icp.solve(mCulledX, mCulledY, n, new Transform(0, avgX, avgY), 0);
+            if (!result.isValid()) {
+                return null;
+            }
+            return result.transform.apply(icp.reference).getMidpoint().toTranslation2d();
         }
     }
 
@@ -241,6 +417,14 @@ public class LidarProcessor implements Loop {
     @Override
     public void onStart(double timestamp) {
         setPrevTimestamp(Double.NEGATIVE_INFINITY);
+        if (mLogWriter == null) {
+            try {
+                mLogWriter = LidarLogWriter.open();
+            } catch (IOException e) {
+                System.err.println("Failed to open lidar log file:");
+                e.printStackTrace();
+            }
+        }
     }
 
     @Override
@@ -249,9 +433,9 @@ public class LidarProcessor implements Loop {
             if (!mLidarServer.isEnding() && !mLidarServer.isRunning()) {
                 if (mLidarServer.start()) {
                     setPrevTimestamp(timestamp);
-                    SmartDashboard.putString("Lidar/status", "Server started");
+                    mDashboard.putString("Lidar/status", "Server started");
                 } else {
-                    SmartDashboard.putString("Lidar/status", "Server couldn't start; sensor " +
+                    mDashboard.putString("Lidar/status", "Server couldn't start; sensor " +
                         (mLidarServer.isLidarConnected() ? "is" : "is not") + " connected");
                 }
             }
@@ -261,6 +445,15 @@ public class LidarProcessor implements Loop {
     @Override
     public void onStop(double timestamp) {
         mLidarServer.stop();
-        SmartDashboard.putString("Lidar/status", "Server stopped");
+        mDashboard.putString("Lidar/status", "Server stopped");
+
+        LidarLogWriter logWriter = mLogWriter;
+        if (logWriter != null) {
+            mLogWriter = null;
+            logWriter.close();
+            mDashboard.putNumber("Lidar/logBlocksWritten", logWriter.getBlocksWritten());
+            mDashboard.putNumber("Lidar/logBlocksDropped", logWriter.getBlocksDropped());
+            mDashboard.putNumber("Lidar/logMaxQueueDepth", logWriter.getMaxQueueDepth());
+        }
     }
 }
\ No newline at end of file
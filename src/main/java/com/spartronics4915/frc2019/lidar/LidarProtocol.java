@@ -0,0 +1,116 @@
+package com.spartronics4915.frc2019.lidar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the point stream written by the <code>chezy_lidar</code> process.
+ * <p>
+ * Two formats are understood:
+ * <ul>
+ * <li>Text: one point per line, <code>timestampMs,angleDegrees,distanceMm</code>,
+ * with a trailing <code>s</code> on the first point of a new scan.</li>
+ * <li>Binary: fixed-width, little-endian {@link #kFrameSize}-byte frames:
+ * <pre>
+ *   0  int64   timestamp (ms since the epoch)
+ *   8  float32 angle (degrees)
+ *  12  uint16  distance (1/4 mm)
+ *  14  uint8   flags ({@link #kFlagNewScan})
+ *  15  uint8   {@link #kSync}
+ * </pre>
+ * The sync byte lets the reader realign if it ever starts mid-frame.</li>
+ * </ul>
+ * Decoding the binary format allocates nothing.
+ */
+class LidarProtocol {
+
+    public interface Listener {
+        /**
+         * @param timestampMs System time the point was measured at, in ms
+         * @param angle       Angle in degrees
+         * @param distance    Distance in mm (never 0; empty returns are dropped)
+         * @param newScan     true if this point starts a new revolution
+         */
+        void onPoint(long timestampMs, double angle, double distance, boolean newScan);
+    }
+
+    public static final int kFrameSize = 16;
+    public static final byte kSync = (byte) 0xA5;
+    public static final int kFlagNewScan = 0x1;
+    public static final ByteOrder kByteOrder = ByteOrder.LITTLE_ENDIAN;
+
+    private static final double kDistanceScale = 0.25; // mm per count
+
+    /**
+     * Parses one line of the text format.
+     *
+     * @return false if the line is malformed
+     */
+    public static boolean parseLine(String line, Listener listener) {
+        if (line.isEmpty())
+            return false;
+        boolean isNewScan = line.charAt(line.length() - 1) == 's';
+        if (isNewScan) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        String[] parts = line.split(",");
+        if (parts.length != 3)
+            return false;
+        try {
+            long ts = Long.parseLong(parts[0]);
+            double angle = Double.parseDouble(parts[1]);
+            double distance = Double.parseDouble(parts[2]);
+            if (distance != 0)
+                listener.onPoint(ts, angle, distance, isNewScan);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes every complete binary frame between the buffer's position and
+     * limit. The buffer's position is left at the start of the first
+     * incomplete frame, ready for {@link ByteBuffer#compact()}.
+     * <p>
+     * The buffer must use {@link #kByteOrder}.
+     *
+     * @return the number of bytes skipped while looking for a sync byte
+     */
+    public static int decodeFrames(ByteBuffer buf, Listener listener) {
+        int skipped = 0;
+        while (buf.remaining() >= kFrameSize) {
+            int start = buf.position();
+            if (buf.get(start + 15) != kSync) {
+                // Misaligned: slide forward a byte and try again
+                buf.position(start + 1);
+                skipped++;
+                continue;
+            }
+            long ts = buf.getLong(start);
+            double angle = buf.getFloat(start + 8);
+            double distance = (buf.getShort(start + 12) & 0xFFFF) * kDistanceScale;
+            boolean newScan = (buf.get(start + 14) & kFlagNewScan) != 0;
+            buf.position(start + kFrameSize);
+            if (distance != 0)
+                listener.onPoint(ts, angle, distance, newScan);
+        }
+        return skipped;
+    }
+
+    /**
+     * Writes one binary frame at the buffer's position. Used by test and
+     * benchmark tools that stand in for <code>chezy_lidar</code>.
+     */
+    public static void encodeFrame(ByteBuffer buf, long timestampMs, double angle, double distance,
+            boolean newScan) {
+        buf.putLong(timestampMs);
+        buf.putFloat((float) angle);
+        buf.putShort((short) Math.min(0xFFFF, Math.round(distance / kDistanceScale)));
+        buf.put((byte) (newScan ? kFlagNewScan : 0));
+        buf.put(kSync);
+    }
+
+}
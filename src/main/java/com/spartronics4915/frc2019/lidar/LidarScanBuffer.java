@@ -0,0 +1,130 @@
+package com.spartronics4915.frc2019.lidar;
+
+/**
+ * Fixed-capacity ring buffer holding the most recent LIDAR scans.
+ * <p>
+ * Points are stored as parallel primitive arrays (x, y, timestamp) so that
+ * adding a point never allocates. Every point is addressed by a sequence
+ * number that increases forever; the point with sequence <code>s</code> lives
+ * at index <code>s % capacity</code>. Each scan is remembered by the sequence
+ * number of its first point, so dropping the oldest scan is just moving
+ * the oldest sequence number forward.
+ * <p>
+ * This class is not thread safe; {@link LidarProcessor} guards it with its
+ * read/write lock.
+ */
+class LidarScanBuffer {
+    private final int mCapacity;
+    private final double[] mX, mY, mT;
+
+    private final int mMaxScans;
+    private final long[] mScanStarts;
+    private final double[] mScanTimestamps;
+    private int mCurrentScan = -1;
+    private int mNumScans = 0;
+
+    private long mNextSeq = 0; // sequence number of the next point written
+    private long mOldestSeq = 0; // sequence number of the oldest stored point
+
+    public LidarScanBuffer(int maxScans, int scanSize) {
+        mMaxScans = maxScans;
+        mCapacity = maxScans * scanSize;
+        mX = new double[mCapacity];
+        mY = new double[mCapacity];
+        mT = new double[mCapacity];
+        mScanStarts = new long[maxScans];
+        mScanTimestamps = new double[maxScans];
+        startScan();
+    }
+
+    /**
+     * Begins a new scan, dropping the oldest one if we already hold
+     * <code>maxScans</code> scans.
+     */
+    public void startScan() {
+        mCurrentScan = (mCurrentScan + 1) % mMaxScans;
+        if (mNumScans == mMaxScans) {
+            // The slot we're about to reuse held the oldest scan, so the
+            // next slot over now holds the oldest one we keep.
+            long newOldest = mScanStarts[(mCurrentScan + 1) % mMaxScans];
+            mOldestSeq = Math.max(mOldestSeq, newOldest);
+        } else {
+            mNumScans++;
+        }
+        mScanStarts[mCurrentScan] = mNextSeq;
+        mScanTimestamps[mCurrentScan] = 0;
+    }
+
+    /**
+     * Adds a point to the current scan. If the buffer is full the oldest
+     * point is overwritten.
+     */
+    public void add(double x, double y, double timestamp) {
+        if (mNextSeq - mOldestSeq == mCapacity) {
+            mOldestSeq++;
+        }
+        if (mNextSeq == mScanStarts[mCurrentScan]) {
+            mScanTimestamps[mCurrentScan] = timestamp;
+        }
+        int i = (int) (mNextSeq % mCapacity);
+        mX[i] = x;
+        mY[i] = y;
+        mT[i] = timestamp;
+        mNextSeq++;
+    }
+
+    /**
+     * @return the number of points currently stored across all scans
+     */
+    public int size() {
+        return (int) (mNextSeq - mOldestSeq);
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the sequence number the next added point will get
+     */
+    public long getNextSequence() {
+        return mNextSeq;
+    }
+
+    /**
+     * @return the index of the point with sequence number <code>seq</code>,
+     *         clamped to [0, size()] if that point has been dropped or not
+     *         added yet
+     */
+    public int indexOf(long seq) {
+        return (int) Math.max(0, Math.min(seq - mOldestSeq, size()));
+    }
+
+    /**
+     * @return the timestamp of the first point of the current scan, or 0 if
+     *         the current scan is empty
+     */
+    public double getCurrentScanTimestamp() {
+        return mScanTimestamps[mCurrentScan];
+    }
+
+    /**
+     * Point accessors. Index 0 is the oldest stored point and
+     * <code>size() - 1</code> is the newest.
+     */
+    public double getX(int index) {
+        return mX[toArrayIndex(index)];
+    }
+
+    public double getY(int index) {
+        return mY[toArrayIndex(index)];
+    }
+
+    public double getTimestamp(int index) {
+        return mT[toArrayIndex(index)];
+    }
+
+    private int toArrayIndex(int index) {
+        return (int) ((mOldestSeq + index) % mCapacity);
+    }
+}
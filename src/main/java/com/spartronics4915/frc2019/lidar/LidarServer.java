@@ -7,20 +7,27 @@ import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Starts the <code>chezy_lidar</code> C++ program, parses its
  * output, and feeds the LIDAR points to the {@link LidarProcessor}.
  * <p>
  * Once started, a separate thread reads the stdout of the
- * <code>chezy_lidar</code> process and parses the (angle, distance)
- * values in each line. Each resulting {@link LidarPoint} is passed
- * to {@link LidarProcessor.addPoint(...)}.
+ * <code>chezy_lidar</code> process and decodes the (timestamp, angle,
+ * distance) of each point, either from text lines or, if
+ * {@link Constants#kLidarUseBinaryProtocol} is set, from fixed-width
+ * binary frames (see {@link LidarProtocol}). Each resulting point is passed
+ * to {@link LidarProcessor.addPoint(...)}. The thread blocks on the
+ * process's output rather than polling it.
  */
 public class LidarServer {
     private static LidarServer mInstance = null;
     private final LidarProcessor mLidarProcessor = LidarProcessor.getInstance();
     private static BufferedReader mBufferedReader;
+    private static ReadableByteChannel mChannel;
     private boolean mRunning = false;
     private Thread mThread;
     private Process mProcess;
@@ -71,10 +78,17 @@ public class LidarServer {
 
         System.out.println("Starting lidar");
         try {
-            mProcess = new ProcessBuilder().command(Constants.kLidarPath).start();
-            mThread = new Thread(new ReaderThread());
-            InputStreamReader reader = new InputStreamReader(mProcess.getInputStream());
-            mBufferedReader = new BufferedReader(reader);
+            if (Constants.kLidarUseBinaryProtocol) {
+                mProcess = new ProcessBuilder().command(Constants.kLidarPath, Constants.kLidarBinaryProtocolArg)
+                        .start();
+                mChannel = Channels.newChannel(mProcess.getInputStream());
+                mThread = new Thread(new BinaryReaderThread());
+            } else {
+                mProcess = new ProcessBuilder().command(Constants.kLidarPath).start();
+                InputStreamReader reader = new InputStreamReader(mProcess.getInputStream());
+                mBufferedReader = new BufferedReader(reader);
+                mThread = new Thread(new ReaderThread());
+            }
             mThread.start();
         } catch (Exception e) {
             e.printStackTrace();
@@ -94,7 +108,14 @@ public class LidarServer {
         }
 
         System.out.println("Stopping Lidar...");
+        return finishStopping();
+    }
 
+    /**
+     * Kills chezy_lidar and waits for the reader thread to exit. Must not be
+     * called from the reader thread, which it joins.
+     */
+    private boolean finishStopping() {
         try {
             mProcess.destroyForcibly();
             mProcess.waitFor();
@@ -123,50 +144,90 @@ public class LidarServer {
     }
 
 
-    private void handleLine(String line) {
-        boolean isNewScan = line.substring(line.length() - 1).equals("s");
-        if (isNewScan) {
-            line = line.substring(0, line.length() - 1);
+    /**
+     * Converts a chezy_lidar timestamp (system time in ms) to FPGA time and
+     * hands the point to the {@link LidarProcessor}. The clock pair is
+     * sampled once per read, not once per point.
+     */
+    private final LidarProtocol.Listener mListener = new LidarProtocol.Listener() {
+        @Override
+        public void onPoint(long timestampMs, double angle, double distance, boolean newScan) {
+            long ms_ago = mCurSystemTime - timestampMs;
+            double normalizedTs = mCurFPGATime - (ms_ago / 1000.0f);
+            mLidarProcessor.addPoint(normalizedTs, angle, distance * LidarPoint.MM_TO_IN, newScan);
         }
+    };
+    private long mCurSystemTime; // only touched by the reader thread
+    private double mCurFPGATime;
 
-        long curSystemTime = System.currentTimeMillis();
-        double curFPGATime = Timer.getFPGATimestamp();
+    private void sampleClocks() {
+        mCurSystemTime = System.currentTimeMillis();
+        mCurFPGATime = Timer.getFPGATimestamp();
+    }
 
-        String[] parts = line.split(",");
-        if (parts.length == 3) {
-            try {
-                long ts = Long.parseLong(parts[0]);
-                long ms_ago = curSystemTime - ts;
-                double normalizedTs = curFPGATime - (ms_ago / 1000.0f);
-                double angle = Double.parseDouble(parts[1]);
-                double distance = Double.parseDouble(parts[2]);
-                if (distance != 0)
-                    mLidarProcessor.addPoint(new LidarPoint(normalizedTs, angle, distance), isNewScan);
-            } catch (java.lang.NumberFormatException e) {
-                e.printStackTrace();
+    /**
+     * Called by the reader thread as it exits. If nobody asked it to stop,
+     * chezy_lidar ended (or its pipe broke) on its own: mark the server
+     * stopped, and clean up from another thread, since the cleanup joins
+     * this one. LidarProcessor restarts the server once that's done.
+     */
+    private void readerExited(IOException e) {
+        synchronized (this) {
+            if (!mRunning) {
+                return; // stop() is cleaning up
             }
+            mRunning = false;
+            mEnding = true;
+        }
+        if (!(e instanceof EOFException)) {
+            e.printStackTrace();
         }
+        System.err.println("LidarServer: chezy_lidar output ended; sensor " +
+                (isLidarConnected() ? "is" : "is not") + " connected");
+        Thread cleanup = new Thread(this::finishStopping);
+        cleanup.setName("LidarServer stop");
+        cleanup.start();
     }
 
     private class ReaderThread implements Runnable {
         @Override
         public void run() {
-            while (isRunning()) {
-                try {
-                    if (mBufferedReader.ready()) {
-                        String line = mBufferedReader.readLine();
-                        if (line == null) { // EOF
-                            throw new EOFException("End of chezy-lidar process InputStream");
-                        }
-                        handleLine(line);
+            try {
+                while (isRunning()) {
+                    String line = mBufferedReader.readLine(); // blocks
+                    if (line == null) { // EOF
+                        throw new EOFException("End of chezy-lidar process InputStream");
+                    }
+                    sampleClocks();
+                    LidarProtocol.parseLine(line, mListener);
+                }
+            } catch (IOException e) {
+                readerExited(e);
+            }
+        }
+    }
+
+    private class BinaryReaderThread implements Runnable {
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(LidarProtocol.kFrameSize * 256)
+                .order(LidarProtocol.kByteOrder);
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning()) {
+                    if (mChannel.read(mBuffer) < 0) { // blocks; EOF
+                        throw new EOFException("End of chezy-lidar process InputStream");
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    if (isLidarConnected()) {
-                        System.err.println("Lidar sensor disconnected");
-                        stop();
+                    sampleClocks();
+                    mBuffer.flip();
+                    int skipped = LidarProtocol.decodeFrames(mBuffer, mListener);
+                    if (skipped > 0) {
+                        System.err.println("LidarServer: skipped " + skipped + " bytes to resync");
                     }
+                    mBuffer.compact();
                 }
+            } catch (IOException e) {
+                readerExited(e);
             }
         }
     }
@@ -0,0 +1,141 @@
+package com.spartronics4915.frc2019.lidar;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Thins a point cloud roughly uniformly by dividing a bounded rectangle into
+ * square buckets and keeping one point per occupied bucket.
+ * <p>
+ * The buckets are a flat array over the rectangle, allocated once, so
+ * culling allocates nothing. Points outside the rectangle are treated as
+ * if they were in the nearest edge bucket.
+ * <p>
+ * Not thread safe; {@link LidarProcessor} only culls while holding its
+ * ICP lock.
+ */
+public class PointCuller {
+
+    public enum Strategy {
+        FIRST, // the oldest point in each bucket
+        CENTROID, // the mean of the points in each bucket
+        RANDOM, // a uniformly chosen point from each bucket
+    }
+
+    private final double mMinX, mMinY, mBucketSize;
+    private final int mCols, mRows;
+
+    private final int[] mBucketToOutput; // bucket -> index in the output, or -1
+    private final int[] mOutputToBucket; // so we can reset only the buckets we used
+    private final int[] mCounts; // points seen per output index
+    private final Random mRandom = new Random();
+
+    private Strategy mStrategy = Strategy.FIRST;
+
+    private int mLastInput, mLastOutput;
+    private long mLastNanos;
+
+    public PointCuller(double minX, double minY, double maxX, double maxY, double bucketSize) {
+        mBucketSize = bucketSize;
+        mMinX = Math.floor(minX / bucketSize) * bucketSize;
+        mMinY = Math.floor(minY / bucketSize) * bucketSize;
+        mCols = (int) Math.floor((maxX - mMinX) / bucketSize) + 1;
+        mRows = (int) Math.floor((maxY - mMinY) / bucketSize) + 1;
+        mBucketToOutput = new int[mCols * mRows];
+        Arrays.fill(mBucketToOutput, -1);
+        mOutputToBucket = new int[mCols * mRows];
+        mCounts = new int[mCols * mRows];
+    }
+
+    public void setStrategy(Strategy strategy) {
+        mStrategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return mStrategy;
+    }
+
+    private int getBucket(double x, double y) {
+        int col = Math.min(mCols - 1, Math.max(0, (int) Math.floor((x - mMinX) / mBucketSize)));
+        int row = Math.min(mRows - 1, Math.max(0, (int) Math.floor((y - mMinY) / mBucketSize)));
+        return row * mCols + col;
+    }
+
+    /**
+     * Culls every point in <code>scans</code>, oldest first, writing the
+     * survivors into <code>outX</code> and <code>outY</code>.
+     *
+     * @return the number of points written
+     */
+    int cull(LidarScanBuffer scans, double[] outX, double[] outY) {
+        final long start = System.nanoTime();
+        final Strategy strategy = mStrategy;
+        final int size = scans.size();
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            final double x = scans.getX(i), y = scans.getY(i);
+            final int bucket = getBucket(x, y);
+            int out = mBucketToOutput[bucket];
+            if (out < 0) {
+                out = n++;
+                mBucketToOutput[bucket] = out;
+                mOutputToBucket[out] = bucket;
+                mCounts[out] = 1;
+                outX[out] = x;
+                outY[out] = y;
+                continue;
+            }
+
+            final int count = ++mCounts[out];
+            switch (strategy) {
+            case CENTROID:
+                outX[out] += x; // summed here, divided below
+                outY[out] += y;
+                break;
+            case RANDOM:
+                // Reservoir sampling: the i'th point replaces the pick with probability 1/i
+                if (mRandom.nextInt(count) == 0) {
+                    outX[out] = x;
+                    outY[out] = y;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (int out = 0; out < n; out++) {
+            if (strategy == Strategy.CENTROID) {
+                outX[out] /= mCounts[out];
+                outY[out] /= mCounts[out];
+            }
+            mBucketToOutput[mOutputToBucket[out]] = -1;
+        }
+
+        mLastInput = size;
+        mLastOutput = n;
+        mLastNanos = System.nanoTime() - start;
+        return n;
+    }
+
+    /**
+     * @return the number of points passed to the last cull
+     */
+    public int getLastInputCount() {
+        return mLastInput;
+    }
+
+    /**
+     * @return the number of points that survived the last cull
+     */
+    public int getLastOutputCount() {
+        return mLastOutput;
+    }
+
+    /**
+     * @return how long the last cull took, in seconds
+     */
+    public double getLastDuration() {
+        return mLastNanos / 1e9;
+    }
+}
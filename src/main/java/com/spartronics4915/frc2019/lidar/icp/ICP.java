@@ -5,6 +5,15 @@ import com.spartronics4915.frc2019.Constants;
 public class ICP {
 
     public static final double OUTLIER_THRESH = 1.0; // multiplier of the mean distance
+    public static final double HUBER_DELTA = 2.0; // inches; POINT_TO_LINE_HUBER down-weights inliers farther than this
+    public static final double DAMPING = 1e-6; // Levenberg damping for the Gauss-Newton step, relative to its trace
+    public static final int GN_PATIENCE = 3; // Gauss-Newton iterations allowed without lowering the residual
+
+    public enum Method {
+        POINT_TO_POINT, // closed-form fit of each point to its closest reference point
+        POINT_TO_LINE, // Gauss-Newton on each point's distance to its closest segment
+        POINT_TO_LINE_HUBER, // POINT_TO_LINE, with Huber weights on the inliers
+    }
 
     public ReferenceModel reference;
     public long timeoutNs;
@@ -28,74 +37,237 @@ public class ICP {
      * @return The computed Transform
      */
     public Transform doICP(Iterable<Point> points, Transform trans) {
+        int n = 0;
+        for (Point p : points) {
+            n++;
+        }
+        double[] xs = new double[n], ys = new double[n];
+        int i = 0;
+        for (Point p : points) {
+            xs[i] = p.x;
+            ys[i] = p.y;
+            i++;
+        }
+        return doICP(xs, ys, n, trans);
+    }
+
+    /**
+     * Same as {@link #doICP(Iterable, Transform)}, but reads the point cloud
+     * from parallel coordinate arrays so that the per-point work allocates
+     * nothing.
+     *
+     * @param xs    X coordinates of the point cloud
+     * @param ys    Y coordinates of the point cloud
+     * @param n     The number of points to read from <code>xs</code> and <code>ys</code>
+     * @param trans An initial guess Transform (if null, the identity is used)
+     * @return The computed Transform
+     * @throws RuntimeException if no points match the reference; use
+     *                          {@link #solve} to get a status instead
+     */
+    public Transform doICP(double[] xs, double[] ys, int n, Transform trans) {
+        ICPResult result = solve(xs, ys, n, trans, 0);
+        if (!result.isValid()) throw new RuntimeException("ICP: " + result.status);
+        return result.transform;
+    }
+
+    /**
+     * Same as {@link #doICP(double[], double[], int, Transform)}, but also
+     * reports the iterations used, the final residual and the inlier count,
+     * and can give up early once the residual stops improving.
+     *
+     * @param minImprovement Stop once an iteration lowers the residual (the
+     *                       mean distance of the inliers to the reference)
+     *                       by less than this fraction of its previous value
+     *                       (0 to only stop on convergence or timeout)
+     */
+    public ICPResult solve(double[] xs, double[] ys, int n, Transform trans, double minImprovement) {
+        return solve(xs, ys, n, trans, Method.POINT_TO_POINT, minImprovement);
+    }
+
+    /**
+     * Same as {@link #solve(double[], double[], int, Transform, double)},
+     * using the given update method.
+     * <p>
+     * The point-to-line methods minimize each point's distance to the
+     * segment it's closest to rather than to one point on it, so points on a
+     * long flat face aren't dragged toward wherever they first projected.
+     * Points closest to a segment's end are still fit to the end point.
+     * Translation along a single straight face can't be observed by this
+     * metric and is held near the guess.
+     * <p>
+     * The Gauss-Newton methods start with one point-to-point update and
+     * return the lowest-residual transform they saw, stopping after
+     * {@link #GN_PATIENCE} iterations that fail to improve on it.
+     */
+    public ICPResult solve(double[] xs, double[] ys, int n, Transform trans, Method method, double minImprovement) {
         long startTime = System.nanoTime();
 
         double lastMeanDist = Double.POSITIVE_INFINITY;
+        double residual = Double.POSITIVE_INFINITY; // mean distance of the inliers
+        final double[] rp = new double[2]; // closest reference point
+        int iterations = 0, inliers = 0;
+        ICPResult best = null; // lowest residual so far, for the Gauss-Newton methods
+        ICPResult.Status status = ICPResult.Status.TIMED_OUT;
+        final boolean huber = method == Method.POINT_TO_LINE_HUBER;
+
+        // Point-to-line rotates about the cloud's centroid, which keeps rotation
+        // and translation from fighting each other when the cloud is far from the origin
+        double meanX = 0, meanY = 0;
+        if (method != Method.POINT_TO_POINT) {
+            for (int i = 0; i < n; i++) {
+                meanX += xs[i];
+                meanY += ys[i];
+            }
+            meanX /= n;
+            meanY /= n;
+        }
 
         trans = trans == null ? new Transform() : trans;
         while (System.nanoTime() - startTime < timeoutNs) {
+            iterations++;
             final Transform transInv = trans.inverse();
+            final double cx = meanX * transInv.cos - meanY * transInv.sin + transInv.tx;
+            final double cy = meanX * transInv.sin + meanY * transInv.cos + transInv.ty;
 
             final double threshold = lastMeanDist * OUTLIER_THRESH;
-            double sumDists = 0;
+            double sumDists = 0, sumInlierDists = 0;
+            // Nothing is rejected as an outlier in the first iteration, and far off points
+            // can throw a Gauss-Newton step wildly, so point-to-line starts with a point-to-point fit
+            final boolean pointToPoint = method == Method.POINT_TO_POINT || iterations == 1;
 
             /// get pairs of corresponding points
             double SumXa = 0, SumXb = 0, SumYa = 0, SumYb = 0;
             double Sxx = 0, Sxy = 0, Syx = 0, Syy = 0;
+            // Gauss-Newton normal equations (symmetric) for point-to-line
+            double H00 = 0, H01 = 0, H02 = 0, H11 = 0, H12 = 0, H22 = 0;
+            double g0 = 0, g1 = 0, g2 = 0;
             int N = 0;
-            for (Point p : points) {
-                Point p2 = transInv.apply(p);
-                Point rp = reference.getClosestPoint(p2);
-                double dist = p2.getDistance(rp);
+            for (int i = 0; i < n; i++) {
+                final double px = xs[i], py = ys[i];
+                final double p2x = px * transInv.cos - py * transInv.sin + transInv.tx;
+                final double p2y = px * transInv.sin + py * transInv.cos + transInv.ty;
+                reference.getClosestPoint(p2x, p2y, rp);
+                final double dx = p2x - rp[0], dy = p2y - rp[1];
+                double dist = Math.sqrt(dx * dx + dy * dy);
                 sumDists += dist;
                 if (dist > threshold) continue;
                 N++;
+                sumInlierDists += dist;
 
-                // Compute the terms:
-                SumXa += p.x;
-                SumYa += p.y;
+                if (pointToPoint) {
+                    // Compute the terms:
+                    SumXa += px;
+                    SumYa += py;
 
-                SumXb += rp.x;
-                SumYb += rp.y;
+                    SumXb += rp[0];
+                    SumYb += rp[1];
 
-                Sxx += p.x * rp.x;
-                Sxy += p.x * rp.y;
-                Syx += p.y * rp.x;
-                Syy += p.y * rp.y;
+                    Sxx += px * rp[0];
+                    Sxy += px * rp[1];
+                    Syx += py * rp[0];
+                    Syy += py * rp[1];
+                } else if (dist > 0) {
+                    // Residual is dist along the normal (nx, ny). Rotating p2 by theta about
+                    // (cx, cy) moves it along (p2 - c) rotated by 90 degrees.
+                    final double nx = dx / dist, ny = dy / dist;
+                    final double rx = p2x - cx, ry = p2y - cy;
+                    final double j0 = ny * rx - nx * ry;
+                    final double w = huber && dist > HUBER_DELTA ? HUBER_DELTA / dist : 1;
+                    H00 += w * j0 * j0;
+                    H01 += w * j0 * nx;
+                    H02 += w * j0 * ny;
+                    H11 += w * nx * nx;
+                    H12 += w * nx * ny;
+                    H22 += w * ny * ny;
+                    g0 += w * j0 * dist;
+                    g1 += w * nx * dist;
+                    g2 += w * ny * dist;
+                }
             }
 
+            if (N == 0) {
+                if (best != null) {
+                    // A Gauss-Newton step threw every point out; settle for the best we had
+                    status = ICPResult.Status.STALLED;
+                    break;
+                }
+                status = ICPResult.Status.NO_MATCHES;
+                break;
+            }
             lastMeanDist = sumDists / N;
+            final double prevResidual = residual;
+            residual = sumInlierDists / N;
+            inliers = N;
+            if (minImprovement > 0 && prevResidual - residual < minImprovement * prevResidual) {
+                status = ICPResult.Status.STALLED;
+                break; // no longer getting any closer; keep the transform we measured
+            }
+            if (method != Method.POINT_TO_POINT) {
+                // Once the inlier set starts flipping back and forth, Gauss-Newton steps
+                // can cycle until the timeout. Keep the best transform seen, and give up
+                // after a few iterations without beating it.
+                if (best == null || residual < best.residual) {
+                    best = new ICPResult(trans, iterations, residual, inliers, status);
+                } else if (iterations - best.iterations >= GN_PATIENCE) {
+                    status = ICPResult.Status.CONVERGED;
+                    break;
+                }
+            }
 
             /// calculate the new transform
-            // code based on http://mrpt.ual.es/reference/devel/se2__l2_8cpp_source.html#l00158
-            if (N == 0) throw new RuntimeException("ICP: no matching points"); // TODO: handle this better, or avoid it
-            final double N_inv = 1.0 / N;
+            Transform prevTrans = trans;
+            if (pointToPoint) {
+                // code based on http://mrpt.ual.es/reference/devel/se2__l2_8cpp_source.html#l00158
+                final double N_inv = 1.0 / N;
 
-            final double mean_x_a = SumXa * N_inv;
-            final double mean_y_a = SumYa * N_inv;
-            final double mean_x_b = SumXb * N_inv;
-            final double mean_y_b = SumYb * N_inv;
+                final double mean_x_a = SumXa * N_inv;
+                final double mean_y_a = SumYa * N_inv;
+                final double mean_x_b = SumXb * N_inv;
+                final double mean_y_b = SumYb * N_inv;
 
-            // Auxiliary variables Ax,Ay:
-            final double Ax = N * (Sxx + Syy) - SumXa * SumXb - SumYa * SumYb;
-            final double Ay = SumXa * SumYb + N * (Syx - Sxy) - SumXb * SumYa;
+                // Auxiliary variables Ax,Ay:
+                final double Ax = N * (Sxx + Syy) - SumXa * SumXb - SumYa * SumYb;
+                final double Ay = SumXa * SumYb + N * (Syx - Sxy) - SumXb * SumYa;
 
-            final double theta = (Ax == 0 && Ay == 0) ? 0.0 : Math.atan2(Ay, Ax);
+                final double theta = (Ax == 0 && Ay == 0) ? 0.0 : Math.atan2(Ay, Ax);
 
-            final double ccos = Math.cos(theta);
-            final double csin = Math.sin(theta);
+                final double ccos = Math.cos(theta);
+                final double csin = Math.sin(theta);
 
-            final double tx = mean_x_a - mean_x_b * ccos + mean_y_b * csin;
-            final double ty = mean_y_a - mean_x_b * csin - mean_y_b * ccos;
+                final double tx = mean_x_a - mean_x_b * ccos + mean_y_b * csin;
+                final double ty = mean_y_a - mean_x_b * csin - mean_y_b * ccos;
 
-            Transform prevTrans = trans;
-            trans = new Transform(theta, tx, ty, csin, ccos);
+                trans = new Transform(theta, tx, ty, csin, ccos);
+            } else {
+                // Solve (H + lambda*I) delta = -g by Cramer's rule
+                final double lambda = DAMPING * (H00 + H11 + H22);
+                final double a = H00 + lambda, b = H01, c = H02, d = H11 + lambda, e = H12, f = H22 + lambda;
+                final double i00 = d * f - e * e, i01 = c * e - b * f, i02 = b * e - c * d;
+                final double i11 = a * f - c * c, i12 = b * c - a * e, i22 = a * d - b * b;
+                final double det = a * i00 + b * i01 + c * i02;
+                if (!(det > 0)) {
+                    status = ICPResult.Status.DEGENERATE;
+                    break;
+                }
+                final double dTheta = -(i00 * g0 + i01 * g1 + i02 * g2) / det;
+                final double dtx = -(i01 * g0 + i11 * g1 + i12 * g2) / det;
+                final double dty = -(i02 * g0 + i12 * g1 + i22 * g2) / det;
+                // Apply the step after transInv: rotate about c, then translate
+                final double dcos = Math.cos(dTheta), dsin = Math.sin(dTheta);
+                final double ox = transInv.tx - cx, oy = transInv.ty - cy;
+                trans = new Transform(transInv.theta + dTheta, ox * dcos - oy * dsin + cx + dtx,
+                        ox * dsin + oy * dcos + cy + dty).inverse();
+            }
             if (isConverged(prevTrans, trans)) {
+                status = ICPResult.Status.CONVERGED;
                 break;
             }
         }
 
-        return trans;
+        if (best != null && (status != ICPResult.Status.CONVERGED || best.residual < residual)) {
+            return new ICPResult(best.transform, iterations, best.residual, best.inliers, status);
+        }
+        return new ICPResult(trans, iterations, residual, inliers, status);
     }
 
     private boolean isConverged(Transform prev, Transform cur) {
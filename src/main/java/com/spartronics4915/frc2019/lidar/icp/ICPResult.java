@@ -0,0 +1,46 @@
+package com.spartronics4915.frc2019.lidar.icp;
+
+/**
+ * The outcome of one ICP solve: the transform it settled on, how hard it
+ * had to work to get there, and whether it worked at all.
+ */
+public class ICPResult {
+
+    public enum Status {
+        CONVERGED, // the transform stopped changing
+        STALLED, // the residual stopped improving (early exit)
+        TIMED_OUT, // ran out of time; the transform is the last one computed
+        NO_MATCHES, // no point was close enough to the reference; the transform is the guess
+        DEGENERATE, // the points don't constrain the transform; it's the last good one
+    }
+
+    public final Transform transform;
+    public final int iterations;
+    // Mean distance from the inliers to the reference, measured in the last iteration
+    public final double residual;
+    // Points within the outlier threshold in the last iteration
+    public final int inliers;
+    public final Status status;
+
+    public ICPResult(Transform transform, int iterations, double residual, int inliers, Status status) {
+        this.transform = transform;
+        this.iterations = iterations;
+        this.residual = residual;
+        this.inliers = inliers;
+        this.status = status;
+    }
+
+    /**
+     * @return false if the solve failed and <code>transform</code> shouldn't
+     *         be trusted
+     */
+    public boolean isValid() {
+        return status != Status.NO_MATCHES && status != Status.DEGENERATE;
+    }
+
+    public String toString() {
+        return status + " " + transform + " after " + iterations + " iterations, residual " + residual + ", "
+                + inliers + " inliers";
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.spartronics4915.frc2019.lidar.icp;
+
+/**
+ * Scan-to-scan ICP: each solve starts from the previous solve's transform
+ * instead of the odometry guess, is only given the points that arrived
+ * since then, and stops as soon as the residual stops improving.
+ * <p>
+ * When the robot is still (or odometry is drifting slowly) the previous
+ * transform is already nearly right, so this takes a few iterations over a
+ * single scan rather than a full solve over every stored scan. Callers
+ * should check the returned {@link ICPResult} and fall back to a full solve
+ * (then {@link #reset(Transform)}) when it looks poor.
+ */
+public class IncrementalICP {
+
+    private final ICP icp;
+    private final ICP.Method method;
+    private final double minImprovement;
+    private Transform last = null;
+
+    /**
+     * @param minImprovement See {@link ICP#solve(double[], double[], int, Transform, ICP.Method, double)}
+     */
+    public IncrementalICP(ICP icp, ICP.Method method, double minImprovement) {
+        this.icp = icp;
+        this.method = method;
+        this.minImprovement = minImprovement;
+    }
+
+    /**
+     * @return true if there is a previous solution to warm-start from
+     */
+    public boolean isWarm() {
+        return last != null;
+    }
+
+    /**
+     * Solves for the new points, warm-started from the last solution. A
+     * failed solve leaves the last solution in place.
+     *
+     * @throws IllegalStateException if there is no previous solution yet
+     */
+    public ICPResult update(double[] xs, double[] ys, int n) {
+        if (last == null) throw new IllegalStateException("IncrementalICP has no solution to start from");
+        ICPResult result = icp.solve(xs, ys, n, last, method, minImprovement);
+        if (result.isValid()) {
+            last = result.transform;
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the warm-start transform, e.g. with the result of a full
+     * solve. Pass null to force the next caller to do a full solve.
+     */
+    public void reset(Transform trans) {
+        last = trans;
+    }
+
+    public Transform getLast() {
+        return last;
+    }
+
+}
@@ -18,28 +18,60 @@ public class ReferenceModel {
     );
 
 
+    // Models with fewer segments than this are cheaper to scan linearly
+    public static final int GRID_MIN_SEGMENTS = 8;
+    public static final double GRID_CELL_SIZE = 6.0; // inches
+    public static final double GRID_MARGIN = 24.0; // inches
+
     public final Segment[] segments;
+    private final SegmentGrid grid; // null if we scan every segment
 
     public ReferenceModel(Segment... ss) {
-        if (ss.length == 0) throw new IllegalArgumentException("zero Segments passed to ReferenceModel");
-        segments = ss;
+        this(ss.length >= GRID_MIN_SEGMENTS ? GRID_CELL_SIZE : 0, ss);
     }
 
     public ReferenceModel(Collection<Segment> ss) {
         this(ss.toArray(new Segment[ss.size()]));
     }
 
+    /**
+     * @param gridCellSize The cell size of the {@link SegmentGrid} used to speed
+     *                     up closest point queries, or 0 to always test every
+     *                     segment
+     */
+    public ReferenceModel(double gridCellSize, Segment... ss) {
+        if (ss.length == 0) throw new IllegalArgumentException("zero Segments passed to ReferenceModel");
+        segments = ss;
+        grid = gridCellSize > 0 ? new SegmentGrid(ss, gridCellSize, GRID_MARGIN) : null;
+    }
+
     public Point getClosestPoint(Point p) {
+        double[] out = new double[2];
+        getClosestPoint(p.x, p.y, out);
+        return new Point(out[0], out[1]);
+    }
+
+    /**
+     * Allocation-free variant of {@link #getClosestPoint(Point)}. The closest
+     * point is written into <code>out[0]</code> (x) and <code>out[1]</code> (y).
+     */
+    public void getClosestPoint(double x, double y, double[] out) {
+        if (grid != null && grid.getClosestPoint(x, y, out)) return;
+
         double minDist = Double.MAX_VALUE;
         Segment minSeg = null;
         for (Segment s : segments) {
-            double dist = s.getDistanceSq(p);
+            double dist = s.getDistanceSq(x, y);
             if (dist < minDist) {
                 minDist = dist;
                 minSeg = s;
             }
         }
-        return minSeg.getClosestPoint(p);
+        minSeg.getClosestPoint(x, y, out);
+    }
+
+    public boolean isIndexed() {
+        return grid != null;
     }
 
     public Point getMidpoint() {
@@ -50,6 +50,43 @@ public class Segment {
         return line.getPoint(t);
     }
 
+    /**
+     * Allocation-free variant of {@link #getDistanceSq(Point)}.
+     */
+    public double getDistanceSq(double x, double y) {
+        double t = line.getT(x, y);
+        double dx, dy;
+        if (t <= tMin) {
+            dx = x - pMin.x;
+            dy = y - pMin.y;
+        } else if (t >= tMax) {
+            dx = x - pMax.x;
+            dy = y - pMax.y;
+        } else {
+            dx = x - (line.x0 + line.vx * t);
+            dy = y - (line.y0 + line.vy * t);
+        }
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Allocation-free variant of {@link #getClosestPoint(Point)}. The closest
+     * point is written into <code>out[0]</code> (x) and <code>out[1]</code> (y).
+     */
+    public void getClosestPoint(double x, double y, double[] out) {
+        double t = line.getT(x, y);
+        if (t <= tMin) {
+            out[0] = pMin.x;
+            out[1] = pMin.y;
+        } else if (t >= tMax) {
+            out[0] = pMax.x;
+            out[1] = pMax.y;
+        } else {
+            out[0] = line.x0 + line.vx * t;
+            out[1] = line.y0 + line.vy * t;
+        }
+    }
+
     public Point getMidpoint() {
         return line.getPoint((tMin + tMax) / 2);
     }
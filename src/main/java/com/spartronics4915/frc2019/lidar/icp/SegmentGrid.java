@@ -0,0 +1,118 @@
+package com.spartronics4915.frc2019.lidar.icp;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the segments of a {@link ReferenceModel}, used to
+ * answer closest-segment queries without testing every segment.
+ * <p>
+ * Each cell keeps a list of the segments that could be the closest one to
+ * some point inside that cell. If the nearest segment to the cell's center
+ * is <code>d</code> away and the cell's half diagonal is <code>r</code>, then
+ * no segment farther than <code>d + 2r</code> from the center can win for any
+ * point in the cell, so only those segments are stored.
+ * <p>
+ * The grid covers the bounding box of the segments plus a margin. Queries
+ * outside of it are rejected and the caller should fall back to a linear
+ * scan.
+ */
+class SegmentGrid {
+
+    private final Segment[] mSegments;
+    private final double mMinX, mMinY;
+    private final double mCellSize;
+    private final int mCols, mRows;
+
+    // Compressed cell -> segment lists: the candidates for cell i are
+    // mCellSegments[mCellStart[i]] up to (but not including) mCellSegments[mCellStart[i + 1]]
+    private final int[] mCellStart;
+    private final int[] mCellSegments;
+
+    public SegmentGrid(Segment[] segments, double cellSize, double margin) {
+        mSegments = segments;
+        mCellSize = cellSize;
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Segment s : segments) {
+            minX = Math.min(minX, Math.min(s.pMin.x, s.pMax.x));
+            minY = Math.min(minY, Math.min(s.pMin.y, s.pMax.y));
+            maxX = Math.max(maxX, Math.max(s.pMin.x, s.pMax.x));
+            maxY = Math.max(maxY, Math.max(s.pMin.y, s.pMax.y));
+        }
+        mMinX = minX - margin;
+        mMinY = minY - margin;
+        mCols = Math.max(1, (int) Math.ceil((maxX + margin - mMinX) / cellSize));
+        mRows = Math.max(1, (int) Math.ceil((maxY + margin - mMinY) / cellSize));
+
+        final double twiceHalfDiagonal = cellSize * Math.sqrt(2);
+        final int numCells = mCols * mRows;
+        final double[] dists = new double[segments.length];
+        mCellStart = new int[numCells + 1];
+        int[] cellSegments = new int[numCells];
+        int count = 0;
+        for (int cell = 0; cell < numCells; cell++) {
+            double cx = mMinX + (cell % mCols + 0.5) * cellSize;
+            double cy = mMinY + (cell / mCols + 0.5) * cellSize;
+            double minDist = Double.MAX_VALUE;
+            for (int i = 0; i < segments.length; i++) {
+                dists[i] = Math.sqrt(segments[i].getDistanceSq(cx, cy));
+                minDist = Math.min(minDist, dists[i]);
+            }
+
+            mCellStart[cell] = count;
+            for (int i = 0; i < segments.length; i++) {
+                if (dists[i] <= minDist + twiceHalfDiagonal) {
+                    if (count == cellSegments.length) {
+                        cellSegments = Arrays.copyOf(cellSegments, cellSegments.length * 2);
+                    }
+                    cellSegments[count++] = i;
+                }
+            }
+        }
+        mCellStart[numCells] = count;
+        mCellSegments = Arrays.copyOf(cellSegments, count);
+    }
+
+    /**
+     * Finds the closest point on any segment to (x, y), writing it into
+     * <code>out[0]</code> (x) and <code>out[1]</code> (y).
+     *
+     * @return false if (x, y) lies outside of the grid, in which case
+     *         <code>out</code> is untouched
+     */
+    public boolean getClosestPoint(double x, double y, double[] out) {
+        int col = (int) Math.floor((x - mMinX) / mCellSize);
+        int row = (int) Math.floor((y - mMinY) / mCellSize);
+        if (col < 0 || col >= mCols || row < 0 || row >= mRows) {
+            return false;
+        }
+
+        int cell = row * mCols + col;
+        double minDist = Double.MAX_VALUE;
+        Segment minSeg = null;
+        for (int i = mCellStart[cell]; i < mCellStart[cell + 1]; i++) {
+            Segment s = mSegments[mCellSegments[i]];
+            double dist = s.getDistanceSq(x, y);
+            if (dist < minDist) {
+                minDist = dist;
+                minSeg = s;
+            }
+        }
+        minSeg.getClosestPoint(x, y, out);
+        return true;
+    }
+
+    /**
+     * @return the average number of candidate segments per cell
+     */
+    public double getAverageCandidates() {
+        return (double) mCellSegments.length / (mCols * mRows);
+    }
+
+    public String toString() {
+        return "SegmentGrid(" + mCols + "x" + mRows + " cells of " + mCellSize + ", "
+                + getAverageCandidates() + " segments/cell)";
+    }
+
+}
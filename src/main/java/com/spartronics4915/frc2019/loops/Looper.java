@@ -5,84 +5,436 @@ import java.util.List;
 
 import com.spartronics4915.frc2019.Constants;
 import com.spartronics4915.lib.util.CrashTrackingRunnable;
+import com.spartronics4915.lib.util.DashboardPublisher;
+import com.spartronics4915.lib.util.LatencyHistogram;
 import com.spartronics4915.lib.util.Logger;
 
 import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 /**
  * This code runs all of the robot's loops. Loop objects are stored in a List
  * object. They are started when the robot
  * powers up and stopped after the match.
+ * <p>
+ * Each loop is registered with a period and a {@link Priority}. The loops of
+ * each priority form a tier with its own Notifier (and so its own thread)
+ * and its own lock. A tier ticks at the shortest period among its loops, and
+ * runs each of its loops whenever that loop's period has elapsed, in the
+ * order they were registered. A slow or stuck loop can only delay loops in
+ * its own tier. Loops in different tiers may run at the same time, so they
+ * must synchronize on any state they share (subsystem loops synchronize on
+ * their subsystem).
+ * <p>
+ * Every tick is timed: how long each loop's onLoop took, how long the
+ * tier's whole tick took, and how far the time between ticks strayed from
+ * the tier's period (jitter). A tick that takes longer than the tier's
+ * period is an overrun. The statistics cover the time since the looper was
+ * last started. They are published to SmartDashboard (in milliseconds),
+ * logged every kLooperStatsLogPeriod seconds, and logged once more when the
+ * looper stops.
+ * <p>
+ * Each loop's deadline is its tier's period. A watchdog thread checks the
+ * running loops every kLooperWatchdogPeriod seconds. When a loop is past its
+ * deadline, the watchdog logs a warning with a stack sample of the tier's
+ * thread while the loop is still stuck, so a loop blocked on a lock shows
+ * where it's blocked. When an overrunning loop returns, its
+ * {@link OverrunPolicy} decides what happens to it, and its counters are
+ * kept until the looper restarts.
+ * <p>
+ * A looper built with {@link #Looper(Clock)} is simulated: it has no
+ * Notifiers, reads time from the given clock, and only ticks a tier when
+ * {@link #runSimulatedTick(Priority)} is called. This lets the scheduling be
+ * checked off-robot.
  */
 public class Looper
 {
 
-    public final double kPeriod = Constants.kLooperDt;
+    public enum Priority
+    {
+        CRITICAL, // odometry and closed-loop control
+        NORMAL, // mechanisms
+        BACKGROUND, // status, LEDs and watchdogs
+    }
 
-    private boolean running_;
+    /**
+     * What to do with a loop after it overruns its deadline.
+     */
+    public enum OverrunPolicy
+    {
+        LOG, // just count it
+        SKIP, // skip its next run, so the rest of the tier catches up
+        DEGRADE, // double its period (up to kLooperMaxDegrade times), and restore it once it's on time again
+        SHED, // stop running it, after kLooperShedOverruns overruns in a row, until the looper restarts
+    }
 
-    private final Notifier notifier_;
-    private final List<Loop> loops_;
-    private final Object taskRunningLock_ = new Object();
-    private double timestamp_ = 0;
-    private double dt_ = 0;
+    /**
+     * Where a looper gets the time from.
+     */
+    public interface Clock
+    {
+        /**
+         * @return the timestamp passed to the loops, in seconds
+         */
+        double getTimestamp();
 
-    private final CrashTrackingRunnable runnable_ = new CrashTrackingRunnable()
+        /**
+         * @return a monotonic time in nanoseconds, used for the statistics
+         */
+        long getNanos();
+    }
+
+    private static final Clock kFPGAClock = new Clock()
     {
 
         @Override
-        public void runCrashTracked()
+        public double getTimestamp()
+        {
+            return Timer.getFPGATimestamp();
+        }
+
+        @Override
+        public long getNanos()
         {
-            synchronized (taskRunningLock_)
+            return System.nanoTime();
+        }
+    };
+
+    public final double kPeriod = Constants.kLooperDt;
+    private static final long kNoTick = Long.MIN_VALUE;
+
+    private volatile boolean running_;
+
+    private final Clock clock_;
+    private final boolean simulated_;
+    private final Tier[] tiers_;
+    private final List<Entry> entries_ = new ArrayList<>(); // every loop, in registration order
+    private double lastStatsLogTime_ = 0;
+    private Thread watchdog_ = null;
+
+    private static class Entry
+    {
+
+        final Loop loop;
+        final String name;
+        final double period;
+        final Priority priority;
+        final OverrunPolicy policy;
+        final LatencyHistogram times = new LatencyHistogram();
+        double nextDue;
+
+        // Overrun handling; written by the tier's thread
+        double effectivePeriod; // period, unless degraded
+        int overrunsInARow = 0;
+        int onTimeInARow = 0;
+        volatile boolean shed = false;
+        volatile long overruns = 0;
+        volatile long skips = 0;
+
+        // Written by the tier's thread while the loop runs, read by the watchdog
+        volatile long startNanos;
+        volatile boolean sampled = false;
+        volatile String stackSample = null;
+
+        Entry(Loop loop, double period, Priority priority, OverrunPolicy policy)
+        {
+            this.loop = loop;
+            this.name = nameOf(loop);
+            this.period = period;
+            this.priority = priority;
+            this.policy = policy;
+            this.effectivePeriod = period;
+        }
+
+        void resetOverrunState()
+        {
+            effectivePeriod = period;
+            overrunsInARow = 0;
+            onTimeInARow = 0;
+            shed = false;
+            overruns = 0;
+            skips = 0;
+            sampled = false;
+            stackSample = null;
+        }
+
+        /**
+         * Applies the policy after a run that took longer than its deadline.
+         */
+        void onOverrun(double now)
+        {
+            overruns++;
+            overrunsInARow++;
+            onTimeInARow = 0;
+            switch (policy)
             {
-                if (running_)
-                {
-                    double now = Timer.getFPGATimestamp();
+                case SKIP:
+                    nextDue += effectivePeriod;
+                    skips++;
+                    break;
+                case DEGRADE:
+                    effectivePeriod = Math.min(effectivePeriod * 2, period * Constants.kLooperMaxDegrade);
+                    break;
+                case SHED:
+                    if (overrunsInARow >= Constants.kLooperShedOverruns)
+                    {
+                        shed = true;
+                        Logger.error("Looper: shedding " + name + " after " + overrunsInARow + " overruns in a row");
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void onTime()
+        {
+            overrunsInARow = 0;
+            if (effectivePeriod > period && ++onTimeInARow >= Constants.kLooperRecoverRuns)
+            {
+                effectivePeriod = Math.max(period, effectivePeriod / 2);
+                onTimeInARow = 0;
+            }
+        }
+    }
 
-                    for (Loop loop : loops_)
+    private class Tier
+    {
+
+        final Priority priority;
+        final List<Entry> entries = new ArrayList<>();
+        final LatencyHistogram cycleTimes = new LatencyHistogram();
+        final LatencyHistogram jitter = new LatencyHistogram();
+        Notifier notifier = null;
+        double period = 0; // the shortest period of its loops
+        long periodNanos = 0;
+        double timestamp = 0;
+        double dt = 0;
+        long lastCycleStartNanos = kNoTick;
+        volatile long overruns = 0;
+        volatile Thread thread = null; // running the current tick
+        volatile Entry current = null; // the loop that's running
+
+        final CrashTrackingRunnable runnable = new CrashTrackingRunnable()
+        {
+
+            @Override
+            public void runCrashTracked()
+            {
+                synchronized (Tier.this)
+                {
+                    if (running_)
                     {
-                        loop.onLoop(now);
+                        tick();
                     }
+                }
+            }
+        };
+
+        Tier(Priority priority)
+        {
+            this.priority = priority;
+        }
 
-                    dt_ = now - timestamp_;
-                    timestamp_ = now;
+        /**
+         * Called with this tier's lock held.
+         */
+        void tick()
+        {
+            final long cycleStart = clock_.getNanos();
+            final double now = clock_.getTimestamp();
+            thread = Thread.currentThread();
+
+            long loopStart = cycleStart;
+            for (int i = 0; i < entries.size(); i++)
+            {
+                final Entry entry = entries.get(i);
+                // Half a tick of slack, so a tick that fires a little early still counts
+                if (entry.shed || now < entry.nextDue - period / 2)
+                    continue;
+                entry.startNanos = loopStart;
+                current = entry;
+                try
+                {
+                    entry.loop.onLoop(now);
+                }
+                finally
+                {
+                    current = null;
                 }
+                final long loopEnd = clock_.getNanos();
+                entry.times.record(loopEnd - loopStart);
+                entry.nextDue += entry.effectivePeriod;
+                if (entry.nextDue < now)
+                    entry.nextDue = now + entry.effectivePeriod; // fell behind; don't run it back to back to catch up
+                if (loopEnd - loopStart > periodNanos)
+                    entry.onOverrun(now);
+                else
+                    entry.onTime();
+                entry.sampled = false;
+                loopStart = loopEnd;
             }
+
+            final long cycleTime = loopStart - cycleStart;
+            cycleTimes.record(cycleTime);
+            if (cycleTime > periodNanos)
+                overruns++;
+            if (lastCycleStartNanos != kNoTick)
+                jitter.record(Math.abs(cycleStart - lastCycleStartNanos - periodNanos));
+            lastCycleStartNanos = cycleStart;
+
+            dt = now - timestamp;
+            timestamp = now;
         }
-    };
+
+        /**
+         * Called with this tier's lock held.
+         */
+        void resetStats()
+        {
+            for (Entry entry : entries)
+            {
+                entry.times.reset();
+                entry.resetOverrunState();
+            }
+            cycleTimes.reset();
+            jitter.reset();
+            overruns = 0;
+            lastCycleStartNanos = kNoTick;
+        }
+    }
 
     public Looper()
     {
-        notifier_ = new Notifier(runnable_);
+        this(kFPGAClock, false);
+    }
+
+    /**
+     * Creates a simulated looper; see {@link #runSimulatedTick(Priority)}.
+     */
+    public Looper(Clock clock)
+    {
+        this(clock, true);
+    }
+
+    private Looper(Clock clock, boolean simulated)
+    {
+        clock_ = clock;
+        simulated_ = simulated;
         running_ = false;
-        loops_ = new ArrayList<>();
+        tiers_ = new Tier[Priority.values().length];
+        for (Priority priority : Priority.values())
+        {
+            tiers_[priority.ordinal()] = new Tier(priority);
+        }
+    }
+
+    /**
+     * Registers a loop to run every kPeriod at {@link Priority#NORMAL}.
+     */
+    public void register(Loop loop)
+    {
+        register(loop, kPeriod, Priority.NORMAL);
     }
 
-    public synchronized void register(Loop loop)
+    /**
+     * Registers a loop with the default policy for its priority: critical
+     * loops are only logged (skipping odometry or control would be worse
+     * than running late), normal ones skip a run, and background ones
+     * degrade.
+     */
+    public void register(Loop loop, double period, Priority priority)
     {
-        synchronized (taskRunningLock_)
+        register(loop, period, priority, priority == Priority.CRITICAL ? OverrunPolicy.LOG :
+                priority == Priority.NORMAL ? OverrunPolicy.SKIP : OverrunPolicy.DEGRADE);
+    }
+
+    /**
+     * @param period seconds between runs of the loop. If it's not a multiple
+     *               of the shortest period in its tier, it's rounded to the
+     *               nearest tick.
+     */
+    public synchronized void register(Loop loop, double period, Priority priority, OverrunPolicy policy)
+    {
+        Tier tier = tiers_[priority.ordinal()];
+        synchronized (tier)
         {
-            loops_.add(loop);
+            Entry entry = new Entry(loop, period, priority, policy);
+            tier.entries.add(entry);
+            entries_.add(entry);
+            if (tier.period == 0 || period < tier.period)
+            {
+                tier.period = period;
+                tier.periodNanos = (long) (period * 1e9);
+            }
         }
     }
 
+    /**
+     * @return the name of the loop's class, or of the class it was declared
+     *         in if it's anonymous (e.g. "Drive")
+     */
+    private static String nameOf(Loop loop)
+    {
+        Class<?> c = loop.getClass();
+        while (c.isAnonymousClass() && c.getEnclosingClass() != null)
+            c = c.getEnclosingClass();
+        return c.getSimpleName();
+    }
+
     public synchronized void start()
     {
         if (!running_)
         {
             Logger.notice("Looper starting subsystem loops");
-            synchronized (taskRunningLock_)
+            for (Tier tier : tiers_)
             {
-                timestamp_ = Timer.getFPGATimestamp();
-                for (Loop loop : loops_)
+                synchronized (tier)
                 {
-                    loop.onStart(timestamp_);
+                    tier.resetStats();
+                    tier.timestamp = clock_.getTimestamp();
+                    for (Entry entry : tier.entries)
+                    {
+                        entry.nextDue = tier.timestamp;
+                        entry.loop.onStart(tier.timestamp);
+                    }
                 }
-                running_ = true;
             }
-            notifier_.startPeriodic(kPeriod);
+            running_ = true;
+            for (Tier tier : tiers_)
+            {
+                if (simulated_ || tier.entries.isEmpty())
+                    continue;
+                if (tier.notifier == null)
+                    tier.notifier = new Notifier(tier.runnable);
+                tier.notifier.startPeriodic(tier.period);
+            }
+            if (!simulated_)
+            {
+                watchdog_ = new Thread(new CrashTrackingRunnable()
+                {
+
+                    @Override
+                    public void runCrashTracked()
+                    {
+                        final long sleepMs = Math.max(1, Math.round(Constants.kLooperWatchdogPeriod * 1000));
+                        while (running_)
+                        {
+                            checkDeadlines();
+                            try
+                            {
+                                Thread.sleep(sleepMs);
+                            }
+                            catch (InterruptedException e)
+                            {
+                                return;
+                            }
+                        }
+                    }
+                }, "Looper watchdog");
+                watchdog_.setDaemon(true);
+                watchdog_.start();
+            }
         }
     }
 
@@ -91,22 +443,218 @@ public class Looper
         if (running_)
         {
             Logger.notice("Looper stopping subsystem loops");
-            notifier_.stop();
-            synchronized (taskRunningLock_)
+            for (Tier tier : tiers_)
+            {
+                if (tier.notifier != null)
+                    tier.notifier.stop();
+            }
+            running_ = false;
+            if (watchdog_ != null)
+            {
+                watchdog_.interrupt();
+                watchdog_ = null;
+            }
+            for (Tier tier : tiers_)
             {
-                running_ = false;
-                timestamp_ = Timer.getFPGATimestamp();
-                for (Loop loop : loops_)
+                // Waits for a tick that's already running to finish
+                synchronized (tier)
                 {
-                    Logger.notice("Looper stopping " + loop);
-                    loop.onStop(timestamp_);
+                    tier.timestamp = clock_.getTimestamp();
+                    for (Entry entry : tier.entries)
+                    {
+                        Logger.notice("Looper stopping " + entry.loop);
+                        entry.loop.onStop(tier.timestamp);
+                    }
                 }
             }
+            logStats();
+        }
+    }
+
+    /**
+     * Looks for loops that have been running past their deadline, and logs
+     * a stack sample of each once. Called by the watchdog thread; a
+     * simulated looper's loops can call it themselves.
+     */
+    public void checkDeadlines()
+    {
+        final long now = clock_.getNanos();
+        for (Tier tier : tiers_)
+        {
+            final Entry entry = tier.current;
+            final Thread thread = tier.thread;
+            if (entry == null || thread == null || entry.sampled || now - entry.startNanos <= tier.periodNanos)
+                continue;
+            entry.sampled = true;
+            StringBuilder sample = new StringBuilder();
+            sample.append(thread.getName()).append(' ').append(thread.getState());
+            StackTraceElement[] stack = thread.getStackTrace();
+            for (int i = 0; i < Math.min(stack.length, Constants.kLooperStackSampleDepth); i++)
+            {
+                sample.append("\n    at ").append(stack[i]);
+            }
+            entry.stackSample = sample.toString();
+            Logger.warning("Looper: " + entry.name + " has been running for " + (now - entry.startNanos) / 1e6 +
+                    " ms (deadline " + tier.period * 1000 + " ms); " + entry.stackSample);
+        }
+    }
+
+    /**
+     * Runs one tick of a tier, as its Notifier would, at the clock's current
+     * time. Only for simulated loopers.
+     */
+    public void runSimulatedTick(Priority priority)
+    {
+        if (!simulated_)
+            throw new IllegalStateException("Looper isn't simulated");
+        tiers_[priority.ordinal()].runnable.run();
+    }
+
+    /**
+     * @return seconds between ticks of the tier, or 0 if no loop has that
+     *         priority
+     */
+    public double getPeriod(Priority priority)
+    {
+        return tiers_[priority.ordinal()].period;
+    }
+
+    public int getNumLoops()
+    {
+        return entries_.size();
+    }
+
+    public String getLoopName(int index)
+    {
+        return entries_.get(index).name;
+    }
+
+    public Priority getLoopPriority(int index)
+    {
+        return entries_.get(index).priority;
+    }
+
+    public double getLoopPeriod(int index)
+    {
+        return entries_.get(index).period;
+    }
+
+    /**
+     * @return how long the <code>index</code>th registered loop's onLoop
+     *         takes, in nanoseconds
+     */
+    public LatencyHistogram getLoopTimes(int index)
+    {
+        return entries_.get(index).times;
+    }
+
+    public OverrunPolicy getLoopPolicy(int index)
+    {
+        return entries_.get(index).policy;
+    }
+
+    /**
+     * @return the number of times the loop took longer than its deadline
+     */
+    public long getLoopOverruns(int index)
+    {
+        return entries_.get(index).overruns;
+    }
+
+    /**
+     * @return the number of runs skipped by {@link OverrunPolicy#SKIP}
+     */
+    public long getLoopSkips(int index)
+    {
+        return entries_.get(index).skips;
+    }
+
+    /**
+     * @return true if {@link OverrunPolicy#SHED} stopped running the loop
+     */
+    public boolean isLoopShed(int index)
+    {
+        return entries_.get(index).shed;
+    }
+
+    /**
+     * @return the thread state and stack the watchdog saw the last time the
+     *         loop ran past its deadline, or null if it never has
+     */
+    public String getLoopStackSample(int index)
+    {
+        return entries_.get(index).stackSample;
+    }
+
+    /**
+     * @return how long a whole tick of the tier takes, in nanoseconds
+     */
+    public LatencyHistogram getCycleTimes(Priority priority)
+    {
+        return tiers_[priority.ordinal()].cycleTimes;
+    }
+
+    /**
+     * @return how far the time between the starts of consecutive ticks of
+     *         the tier is from its period, in nanoseconds
+     */
+    public LatencyHistogram getJitter(Priority priority)
+    {
+        return tiers_[priority.ordinal()].jitter;
+    }
+
+    /**
+     * @return the number of ticks of the tier that took longer than its
+     *         period
+     */
+    public long getOverruns(Priority priority)
+    {
+        return tiers_[priority.ordinal()].overruns;
+    }
+
+    public void logStats()
+    {
+        for (Tier tier : tiers_)
+        {
+            if (tier.entries.isEmpty())
+                continue;
+            Logger.notice("Looper " + tier.priority + " every " + tier.period * 1000 + " ms: " +
+                    tier.cycleTimes.summary() + ", " + tier.overruns + " overruns");
+            Logger.notice("Looper " + tier.priority + " jitter: " + tier.jitter.summary());
+        }
+        for (Entry entry : entries_)
+        {
+            Logger.notice("Looper " + entry.name + ": " + entry.times.summary() + ", " + entry.overruns +
+                    " overruns (" + entry.policy + ", " + entry.skips + " skipped" +
+                    (entry.shed ? ", shed" : "") + ")");
         }
     }
 
     public void outputToSmartDashboard()
     {
-        SmartDashboard.putNumber("looper_dt", dt_);
+        DashboardPublisher dashboard = DashboardPublisher.getInstance();
+        dashboard.putNumber("looper_dt", tiers_[Priority.CRITICAL.ordinal()].dt);
+        for (Tier tier : tiers_)
+        {
+            if (tier.entries.isEmpty())
+                continue;
+            String prefix = "Looper/" + tier.priority + "/";
+            dashboard.putNumber(prefix + "cycleP99", tier.cycleTimes.getPercentile(99) / 1e6);
+            dashboard.putNumber(prefix + "cycleMax", tier.cycleTimes.getMax() / 1e6);
+            dashboard.putNumber(prefix + "jitterP99", tier.jitter.getPercentile(99) / 1e6);
+            dashboard.putNumber(prefix + "overruns", tier.overruns);
+        }
+        for (Entry entry : entries_)
+        {
+            dashboard.putNumber("Looper/" + entry.name + "P99", entry.times.getPercentile(99) / 1e6);
+            dashboard.putNumber("Looper/" + entry.name + "Overruns", entry.overruns);
+        }
+
+        double now = clock_.getTimestamp();
+        if (running_ && now - lastStatsLogTime_ > Constants.kLooperStatsLogPeriod)
+        {
+            lastStatsLogTime_ = now;
+            logStats();
+        }
     }
 }
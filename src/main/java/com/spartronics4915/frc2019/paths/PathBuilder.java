@@ -2,6 +2,7 @@ package com.spartronics4915.frc2019.paths;
 
 import java.util.List;
 
+import com.spartronics4915.frc2019.Constants;
 import com.spartronics4915.frc2019.auto.actions.WaitForPathMarkerAction;
 import com.spartronics4915.lib.util.Logger;
 import com.spartronics4915.lib.control.Path;
@@ -46,6 +47,26 @@ public class PathBuilder
         return p;
     }
 
+    /**
+     * @return a fingerprint of everything buildPathFromWaypoints(w) depends
+     *         on, so a path built ahead of time can be checked against the
+     *         waypoints it's meant to follow
+     * @see com.spartronics4915.lib.control.CompiledPaths
+     */
+    public static long fingerprint(List<Waypoint> w)
+    {
+        long h = Double.doubleToLongBits(Constants.kPathFollowingMaxAccel);
+        for (Waypoint p : w)
+        {
+            h = 31 * h + Double.doubleToLongBits(p.position.x());
+            h = 31 * h + Double.doubleToLongBits(p.position.y());
+            h = 31 * h + Double.doubleToLongBits(p.radius);
+            h = 31 * h + Double.doubleToLongBits(p.speed);
+            h = 31 * h + (p.marker == null ? 0 : p.marker.hashCode());
+        }
+        return h;
+    }
+
     private static Waypoint getPoint(List<Waypoint> w, int i)
     {
         if (i > w.size())
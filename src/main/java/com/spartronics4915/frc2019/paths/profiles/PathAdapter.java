@@ -1,9 +1,27 @@
 package com.spartronics4915.frc2019.paths.profiles;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.spartronics4915.frc2019.paths.CrossBaselinePath;
+import com.spartronics4915.frc2019.paths.PathBuilder;
+import com.spartronics4915.frc2019.paths.PathContainer;
+import com.spartronics4915.frc2019.paths.TestPath;
+import com.spartronics4915.lib.control.CompiledPaths;
+import com.spartronics4915.lib.control.Path;
+import com.spartronics4915.lib.util.Logger;
+
 /**
  * Uses a field and robot profile to calculate Waypoints for the paths used by
  * the GearThenHopperShoot auto modes.
- * 
+ * <p>
+ * Also compiles every path in {@link #kPaths} ahead of time, into a
+ * {@link CompiledPaths} file per robot and field profile, so that starting an
+ * auto mode doesn't wait on PathBuilder. Run main() to compile them all at
+ * build time; calculatePaths() loads the file for our profiles at robot init,
+ * compiling (and saving) any paths that are missing or out of date.
+ *
  * @see RobotProfile
  * @see FieldProfile
  */
@@ -13,22 +31,125 @@ public class PathAdapter
     static final RobotProfile kRobotProfile = new CompBot();
     static final FieldProfile kFieldProfile = new PracticeField();
 
+    static final RobotProfile[] kRobotProfiles = { new CompBot(), new PracticeBot() };
+    static final FieldProfile[] kFieldProfiles = { new PracticeField() };
+
+    // Every path an auto mode may drive; paths not listed here are built when they're driven
+    static final PathContainer[] kPaths = { new CrossBaselinePath(), new TestPath() };
+
+    private static final String kCompiledPathDirectory = "/home/lvuser";
+
+    private static volatile CompiledPaths sCompiledPaths = null;
+
     public static RobotProfile getRobotProfile() {
         return kRobotProfile;
     }
-    
+
     public static FieldProfile getFieldProfile() {
         return kFieldProfile;
     }
-    
-    public static void main(String[] args)
+
+    /**
+     * Compiles the paths for every robot and field profile into the directory
+     * given (the working directory by default), to be deployed to
+     * /home/lvuser.
+     */
+    public static void main(String[] args) throws IOException
     {
-        // You can put print the path out here
+        String directory = args.length > 0 ? args[0] : ".";
+        for (RobotProfile robot : kRobotProfiles)
+        {
+            for (FieldProfile field : kFieldProfiles)
+            {
+                String fileName = getCompiledPathFileName(directory, robot, field);
+                compilePaths(fileName);
+                System.out.println("Compiled " + kPaths.length + " paths to " + fileName);
+            }
+        }
     }
 
+    /**
+     * Loads the compiled paths for our profiles, compiling any that are
+     * missing or out of date. Slow the first time it's called (if the file
+     * has to be written), then free.
+     */
     public static void calculatePaths()
     {
-        // TODO?
+        if (sCompiledPaths != null)
+            return;
+        final String fileName = getCompiledPathFileName(kCompiledPathDirectory, kRobotProfile, kFieldProfile);
+        CompiledPaths compiled = null;
+        try
+        {
+            compiled = CompiledPaths.open(fileName);
+        }
+        catch (IOException e)
+        {
+            Logger.notice("PathAdapter: can't load " + fileName + " (" + e.getMessage() + ")");
+        }
+        if (compiled == null || !isUpToDate(compiled))
+        {
+            try
+            {
+                compilePaths(fileName);
+                compiled = CompiledPaths.open(fileName);
+                Logger.notice("PathAdapter: compiled " + kPaths.length + " paths to " + fileName);
+            }
+            catch (IOException e)
+            {
+                Logger.warning("PathAdapter: can't compile paths to " + fileName + ": " + e.getMessage());
+            }
+        }
+        sCompiledPaths = compiled;
+    }
+
+    /**
+     * @return the container's path, from the compiled paths if they have it
+     *         (and it's up to date), otherwise built from its waypoints
+     */
+    public static Path getPath(PathContainer container)
+    {
+        final CompiledPaths compiled = sCompiledPaths;
+        if (compiled != null)
+        {
+            Path path = compiled.getPath(getPathName(container), PathBuilder.fingerprint(container.getWaypoints()));
+            if (path != null)
+                return path;
+        }
+        return container.buildPath();
+    }
+
+    public static String getCompiledPathFileName(String directory, RobotProfile robot, FieldProfile field)
+    {
+        return directory + "/paths-" + robot.getClass().getSimpleName() + "-"
+                + field.getClass().getSimpleName() + ".bin";
+    }
+
+    private static String getPathName(PathContainer container)
+    {
+        return container.getClass().getSimpleName();
+    }
+
+    private static boolean isUpToDate(CompiledPaths compiled)
+    {
+        for (PathContainer container : kPaths)
+        {
+            if (!compiled.hasPath(getPathName(container), PathBuilder.fingerprint(container.getWaypoints())))
+                return false;
+        }
+        return true;
+    }
+
+    private static void compilePaths(String fileName) throws IOException
+    {
+        Map<String, Long> keys = new LinkedHashMap<>();
+        Map<String, Path> paths = new LinkedHashMap<>();
+        for (PathContainer container : kPaths)
+        {
+            keys.put(getPathName(container), PathBuilder.fingerprint(container.getWaypoints()));
+            paths.put(getPathName(container), container.buildPath());
+        }
+        CompiledPaths.write(fileName, keys, paths);
     }
 
 }
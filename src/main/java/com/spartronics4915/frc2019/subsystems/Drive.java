@@ -1,16 +1,20 @@
 package com.spartronics4915.frc2019.subsystems;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.spartronics4915.frc2019.Constants;
 import com.spartronics4915.frc2019.Kinematics;
 import com.spartronics4915.frc2019.RobotState;
 import com.spartronics4915.frc2019.loops.Loop;
 import com.spartronics4915.frc2019.loops.Looper;
 import com.spartronics4915.lib.util.DriveSignal;
-import com.spartronics4915.lib.util.ReflectingCSVWriter;
+import com.spartronics4915.lib.util.BinaryLogWriter;
 import com.spartronics4915.lib.util.Util;
 import com.spartronics4915.lib.control.Lookahead;
 import com.spartronics4915.lib.control.Path;
 import com.spartronics4915.lib.control.PathFollower;
+import com.spartronics4915.lib.control.PathMarkerListener;
 import com.spartronics4915.lib.drivers.TalonSRX4915Drive;
 import com.spartronics4915.lib.math.Pose2d;
 import com.spartronics4915.lib.math.Rotation2d;
@@ -78,13 +82,18 @@ public class Drive extends Subsystem
     private PathFollower mPathFollower;
     private Rotation2d mTargetHeading = new Rotation2d();
     private Path mCurrentPath = null;
+
+    // Completed, with the timestamp, when the path being followed passes each marker
+    private final ConcurrentHashMap<String, CompletableFuture<Double>> mPathMarkerEvents = new ConcurrentHashMap<>();
+    private final PathMarkerListener mPathMarkerListener = (marker, timestamp) -> getPathMarkerEvent(marker)
+            .complete(timestamp);
     private NetworkTableEntry mVisionTargetAngleEntry = null;
     private boolean mIsOnTarget = false;
     private boolean mIsApproaching = false;
     private boolean mIsSaturated = false;
 
     // Logging
-    private final ReflectingCSVWriter<PathFollower.DebugOutput> mCSVWriter;
+    private final BinaryLogWriter<PathFollower.DebugOutput> mPathLog;
 
     // mLoop not registered when we're not initialized
     private final Loop mLoop = new Loop()
@@ -124,7 +133,7 @@ public class Drive extends Subsystem
                         if (mPathFollower != null)
                         {
                             updatePathFollower(timestamp);
-                            mCSVWriter.add(mPathFollower.getDebug());
+                            mPathLog.add(mPathFollower.getDebug());
                         }
                         return;
                     case TURN_TO_HEADING:
@@ -148,7 +157,7 @@ public class Drive extends Subsystem
         public void onStop(double timestamp)
         {
             stop();
-            mCSVWriter.flush();
+            mPathLog.flush();
         }
     };
 
@@ -185,8 +194,9 @@ public class Drive extends Subsystem
             logInitialized(false);
         }
 
-        mCSVWriter = new ReflectingCSVWriter<PathFollower.DebugOutput>(
-                "/home/lvuser/PATH-FOLLOWER-LOGS.csv",
+        // BinaryLogToCSV turns this into the CSV file we used to write
+        mPathLog = new BinaryLogWriter<PathFollower.DebugOutput>(
+                "/home/lvuser/PATH-FOLLOWER-LOGS.bin",
                 PathFollower.DebugOutput.class);
     }
 
@@ -196,7 +206,7 @@ public class Drive extends Subsystem
         if (!this.isInitialized())
             return;
 
-        in.register(mLoop);
+        in.register(mLoop, Constants.kLooperDt, Looper.Priority.CRITICAL);
     }
 
     /**
@@ -480,7 +490,7 @@ public class Drive extends Subsystem
             return;
         // We need the field frame because mTargetHeading is specified in field coordinates, not robot ones
         final Rotation2d fieldToRobot =
-                mRobotState.getLatestFieldToVehicle().getValue().getRotation();
+                mRobotState.getLatestFieldToVehicle().getRotation();
         // Figure out the rotation necessary to turn to face the goal.
         final Rotation2d robotToTarget = fieldToRobot.inverse().rotateBy(mTargetHeading);
 
@@ -552,7 +562,7 @@ public class Drive extends Subsystem
     {
         if (!this.isInitialized())
             return;
-        Pose2d robot_pose = mRobotState.getLatestFieldToVehicle().getValue();
+        Pose2d robot_pose = mRobotState.getLatestFieldToVehicle();
         Twist2d command = mPathFollower.update(timestamp, robot_pose,
                 RobotState.getInstance().getDistanceDriven(),
                 RobotState.getInstance().getPredictedVelocity().dx);
@@ -690,6 +700,9 @@ public class Drive extends Subsystem
                             Constants.kPathStopSteeringDistance));
             mDriveControlState = DriveControlState.PATH_FOLLOWING;
             mCurrentPath = path;
+            // Markers passed on earlier paths don't count; those still awaited may be on this one
+            mPathMarkerEvents.values().removeIf(CompletableFuture::isDone);
+            path.addMarkerListener(mPathMarkerListener);
         }
         else
         {
@@ -740,6 +753,18 @@ public class Drive extends Subsystem
         }
     }
 
+    /**
+     * Returns an event for the path being followed (or the next one) passing
+     * marker, without taking the drive's lock. It's completed with the
+     * timestamp of the drive loop's tick that passed the marker, on the
+     * drive's loop thread, so anything chained to it must be quick. Actions
+     * run by the ActionScheduler see it in the same tick.
+     */
+    public CompletableFuture<Double> getPathMarkerEvent(String marker)
+    {
+        return mPathMarkerEvents.computeIfAbsent(marker, m -> new CompletableFuture<>());
+    }
+
     public synchronized boolean hasPassedMarker(String marker)
     {
         if (mDriveControlState == DriveControlState.PATH_FOLLOWING && mPathFollower != null)
@@ -790,12 +815,6 @@ public class Drive extends Subsystem
         }
     }
 
-    @Override
-    public void writeToLog()
-    {
-        mCSVWriter.write();
-    }
-
     /**
      * Check if the drive talons are configured for velocity control
      */
@@ -281,7 +281,7 @@ public class LED extends Subsystem
     {
         if (!this.isInitialized())
             return;
-        enabledLooper.register(mLoop);
+        enabledLooper.register(mLoop, Constants.kLooperBackgroundDt, Looper.Priority.BACKGROUND);
     }
 
     // when setWantedState is invoked, we merely trigger a behavior change
@@ -1,6 +1,7 @@
 package com.spartronics4915.frc2019.subsystems;
 
 import com.spartronics4915.frc2019.loops.Looper;
+import com.spartronics4915.lib.util.DashboardPublisher;
 import com.spartronics4915.lib.util.Logger;
 
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
@@ -63,23 +64,25 @@ public abstract class Subsystem
             this.logNotice("init SUCCEEDED");
         else
             this.logWarning("init FAILED");
-        SmartDashboard.putString(mName+"/Status", mInitialized ? "OK" : "ERROR");
+        DashboardPublisher.getInstance().putString(mName+"/Status", mInitialized ? "OK" : "ERROR");
     }
     
-    // broadcast methods are for smartdashboard with conventionalized keys
+    // broadcast methods are for smartdashboard with conventionalized keys;
+    // puts are published in batches by DashboardPublisher, so they're cheap
+    // enough for loops
     public void dashboardPutState(String state)
     {
-        SmartDashboard.putString(mName+"/State", state);
+        DashboardPublisher.getInstance().putString(mName+"/State", state);
     }
     
     public void dashboardPutWantedState(String state)
     {
-        SmartDashboard.putString(mName+"/WantedState", state);
+        DashboardPublisher.getInstance().putString(mName+"/WantedState", state);
     }
    
     public void dashboardPutString(String nm, String value)
     {
-        SmartDashboard.putString(mName+"/" + nm, value);
+        DashboardPublisher.getInstance().putString(mName+"/" + nm, value);
     }
     
     public String dashboardGetString(String nm, String defValue)
@@ -89,7 +92,7 @@ public abstract class Subsystem
     
     public void dashboardPutNumber(String nm, Number value)
     {
-        SmartDashboard.putNumber(mName+"/"+nm, value.doubleValue());
+        DashboardPublisher.getInstance().putNumber(mName+"/"+nm, value.doubleValue());
     }
     
     public Number dashboardGetNumber(String nm, Number defaultValue)
@@ -99,7 +102,7 @@ public abstract class Subsystem
     
     public void dashboardPutBoolean(String nm, Boolean value)
     {
-        SmartDashboard.putBoolean(mName+"/"+nm, value);
+        DashboardPublisher.getInstance().putBoolean(mName+"/"+nm, value);
     }
 
     public boolean dashboardGetBoolean(String nm, Boolean defValue)
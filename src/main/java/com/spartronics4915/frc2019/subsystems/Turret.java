@@ -83,14 +83,11 @@ public class Turret extends Subsystem
                 switch (mSystemState)
                 {
                     case FOLLOWING:
-                        Pose2d pose;
-                        if (mUseLidar)
+                        final double now = Timer.getFPGATimestamp();
+                        Pose2d pose = mUseLidar ? getLidarCorrectedFieldToVehicle(now) : null;
+                        if (pose == null)
                         {
-                            pose = mLidar.doICP();
-                        }
-                        else
-                        {
-                            pose = mOdometry.getFieldToVehicle(Timer.getFPGATimestamp());
+                            pose = mOdometry.getFieldToVehicle(now);
                         }
 
                         double newAbsoluteAngle = calculateAbsoluteTurretAngle(pose, Constants.kTurretTargetFieldPosition);
@@ -117,6 +114,30 @@ public class Turret extends Subsystem
         }
     };
 
+    /**
+     * Moves the odometry's pose at <code>now</code> by the error the lidar
+     * localization thread found in it at its latest scan. The lidar pose
+     * itself is a scan period plus ICP behind the robot; the correction
+     * holds until the odometry drifts further.
+     *
+     * @return null if ICP hasn't produced a pose in the last
+     *         {@link Constants#kTurretMaxLidarPoseAge} seconds (e.g. the
+     *         lidar or its server stopped), so the odometry has to do
+     */
+    private Pose2d getLidarCorrectedFieldToVehicle(double now)
+    {
+        // Never blocks on ICP
+        final double scanTimestamp = mLidar.getLatestFieldToLidarTimestamp();
+        if (Double.isNaN(scanTimestamp) || now - scanTimestamp > Constants.kTurretMaxLidarPoseAge)
+            return null;
+        // At scanTimestamp exactly, so it's that scan's pose even if a newer one came in since
+        final Pose2d lidarFieldToLidar = mLidar.getFieldToLidar(scanTimestamp);
+        final Pose2d odometryFieldToLidar = mOdometry.getFieldToLidar(scanTimestamp);
+        // Takes the odometry's field-to-lidar at the scan to the lidar's
+        final Pose2d correction = lidarFieldToLidar.transformBy(odometryFieldToLidar.inverse());
+        return correction.transformBy(mOdometry.getFieldToVehicle(now));
+    }
+
     /**
      * Calculates an absolute turret angle in degrees. The range is 0-360 degrees.
      * 
@@ -67,9 +67,11 @@ public class AdaptivePurePursuitController
      * 
      * @param pose
      *        robot pose
+     * @param timestamp
+     *        the time of this update
      * @return movement command for the robot to follow
      */
-    public Command update(Pose2d pose)
+    public Command update(Pose2d pose, double timestamp)
     {
         if (mReversed)
         {
@@ -77,7 +79,7 @@ public class AdaptivePurePursuitController
                     pose.getRotation().rotateBy(Rotation2d.fromRadians(Math.PI)));
         }
 
-        final Path.TargetPointReport report = mPath.getTargetPoint(pose.getTranslation(), mLookahead);
+        final Path.TargetPointReport report = mPath.getTargetPoint(pose.getTranslation(), mLookahead, timestamp);
         if (isFinished())
         {
             // Stop.
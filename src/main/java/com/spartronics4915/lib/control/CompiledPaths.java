@@ -0,0 +1,164 @@
+package com.spartronics4915.lib.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file of Paths built ahead of time, speed profiles and all, so following
+ * one doesn't start by running PathBuilder and generating a profile for every
+ * segment.
+ * <p>
+ * The file is memory-mapped when it's opened; {@link #getPath(String, long)}
+ * decodes a new Path from the mapping each time it's called, since following
+ * a Path uses it up. Each path is stored with a key (a fingerprint of whatever
+ * it was built from), and is only returned for the same key, so a path whose
+ * waypoints have changed since the file was written is rebuilt rather than
+ * followed stale.
+ * <p>
+ * Layout, big-endian: magic, version, number of paths; then for each path
+ * its name, key and offset; then the paths themselves.
+ */
+public class CompiledPaths
+{
+
+    static final int kMagic = 0x50415448; // "PATH"
+    static final int kVersion = 1;
+
+    private static class Entry
+    {
+
+        final long key;
+        final int offset;
+
+        Entry(long key, int offset)
+        {
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+
+    private final ByteBuffer mBuffer;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Maps a file written by {@link #write(String, Map, Map)}.
+     *
+     * @throws IOException if the file can't be read or isn't a compiled path
+     *         file of this version
+     */
+    public static CompiledPaths open(String fileName) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            // The mapping outlives the channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CompiledPaths(buffer);
+        }
+    }
+
+    CompiledPaths(ByteBuffer buffer) throws IOException
+    {
+        mBuffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        try
+        {
+            if (in.getInt() != kMagic || in.getInt() != kVersion)
+                throw new IOException("Not a version " + kVersion + " compiled path file");
+            final int numPaths = in.getInt();
+            for (int i = 0; i < numPaths; i++)
+            {
+                byte[] name = new byte[in.getShort() & 0xffff];
+                in.get(name);
+                mEntries.put(new String(name, StandardCharsets.UTF_8), new Entry(in.getLong(), in.getInt()));
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // Buffer underflow and the like: a truncated file
+            throw new IOException("Corrupt compiled path file", e);
+        }
+    }
+
+    /**
+     * @return the number of paths in the file
+     */
+    public int size()
+    {
+        return mEntries.size();
+    }
+
+    /**
+     * @return true if the file has the named path, built with key
+     */
+    public boolean hasPath(String name, long key)
+    {
+        Entry entry = mEntries.get(name);
+        return entry != null && entry.key == key;
+    }
+
+    /**
+     * @return a new copy of the named path if the file has it built with key,
+     *         otherwise null
+     */
+    public Path getPath(String name, long key)
+    {
+        Entry entry = mEntries.get(name);
+        if (entry == null || entry.key != key)
+            return null;
+        ByteBuffer in = mBuffer.duplicate();
+        in.position(entry.offset);
+        return Path.read(in);
+    }
+
+    /**
+     * Writes paths, each under its name with the key from keys, to fileName.
+     * The file is written beside fileName and renamed over it, so a reader
+     * never sees half a file.
+     */
+    public static void write(String fileName, Map<String, Long> keys, Map<String, Path> paths) throws IOException
+    {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        Map<String, Integer> bodyOffsets = new HashMap<>();
+        int headerSize = 12;
+        for (Map.Entry<String, Path> path : paths.entrySet())
+        {
+            bodyOffsets.put(path.getKey(), body.size());
+            path.getValue().write(body);
+            headerSize += 2 + path.getKey().getBytes(StandardCharsets.UTF_8).length + 8 + 4;
+        }
+        body.flush();
+
+        ByteArrayOutputStream fileBytes = new ByteArrayOutputStream(headerSize + body.size());
+        DataOutputStream out = new DataOutputStream(fileBytes);
+        out.writeInt(kMagic);
+        out.writeInt(kVersion);
+        out.writeInt(paths.size());
+        for (String name : paths.keySet())
+        {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(nameBytes.length);
+            out.write(nameBytes);
+            out.writeLong(keys.get(name));
+            out.writeInt(headerSize + bodyOffsets.get(name));
+        }
+        bodyBytes.writeTo(out);
+        out.flush();
+
+        java.nio.file.Path file = Paths.get(fileName);
+        java.nio.file.Path temp = Paths.get(fileName + ".tmp");
+        Files.write(temp, fileBytes.toByteArray());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
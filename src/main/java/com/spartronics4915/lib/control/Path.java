@@ -1,8 +1,13 @@
 package com.spartronics4915.lib.control;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.spartronics4915.frc2019.Constants;
 import com.spartronics4915.lib.math.Translation2d;
@@ -16,6 +21,17 @@ import com.spartronics4915.lib.motion.MotionState;
  * is at the bottom left corner of the field. For angles, 0 degrees is facing
  * right (1, 0) and angles increase as you
  * turn counter clockwise.
+ * 
+ * Segments are never removed once added: following the path moves a cursor
+ * (mCurrent) past the segments we've finished. The first time the path is
+ * followed it's compiled into a table of cumulative segment lengths, so the
+ * distance remaining and the lookahead point come from a subtraction and a
+ * binary search rather than a walk over every later segment; a path's update
+ * cost doesn't grow with its length.
+ * 
+ * Passing a marker is published to the path's {@link PathMarkerListener}s as
+ * it happens, with the update's timestamp; nothing is locked to publish it or
+ * to ask whether a marker has been passed.
  */
 
 public class Path
@@ -23,7 +39,10 @@ public class Path
 
     List<PathSegment> segments;
     PathSegment prevSegment;
-    HashSet<String> mMarkersCrossed = new HashSet<String>();
+    int mCurrent = 0; // index of the segment we're on; those before it are done
+    double[] mDistanceAt = null; // distance along the path to the start of each segment, then the end
+    Set<String> mMarkersCrossed = ConcurrentHashMap.newKeySet(); // read by other threads
+    final CopyOnWriteArrayList<PathMarkerListener> mMarkerListeners = new CopyOnWriteArrayList<>();
 
     public void extrapolateLast()
     {
@@ -50,6 +69,41 @@ public class Path
     public void addSegment(PathSegment segment)
     {
         segments.add(segment);
+        mDistanceAt = null;
+    }
+
+    /**
+     * Builds the table of cumulative segment lengths if we don't have one.
+     */
+    private void compile()
+    {
+        if (mDistanceAt != null)
+            return;
+        double[] distanceAt = new double[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++)
+        {
+            distanceAt[i + 1] = distanceAt[i] + segments.get(i).getLength();
+        }
+        mDistanceAt = distanceAt;
+    }
+
+    /**
+     * @return the index of the first segment in [from, last) that ends at or
+     *         beyond distance along the path, or the last segment if none
+     *         does
+     */
+    private int segmentEndingAfter(double distance, int from)
+    {
+        int lo = from, hi = segments.size() - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (mDistanceAt[mid + 1] < distance)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
     }
 
     /**
@@ -78,7 +132,7 @@ public class Path
      */
     public double getSegmentRemainingDist(Translation2d robotPos)
     {
-        PathSegment currentSegment = segments.get(0);
+        PathSegment currentSegment = segments.get(mCurrent);
         return currentSegment.getRemainingDistance(currentSegment.getClosestPoint(robotPos));
     }
 
@@ -87,7 +141,7 @@ public class Path
      */
     public double getSegmentLength()
     {
-        PathSegment currentSegment = segments.get(0);
+        PathSegment currentSegment = segments.get(mCurrent);
         return currentSegment.getLength();
     }
 
@@ -109,58 +163,37 @@ public class Path
     }
 
     /**
-     * Gives the position of the lookahead point (and removes any segments prior
+     * Gives the position of the lookahead point (and moves past any segments prior
      * to this point).
      * 
      * @param robot
      *        Translation of the current robot pose.
+     * @param timestamp
+     *        The time of this update, passed to marker listeners.
      * @return report containing everything we might want to know about the
      *         target point.
      */
-    public TargetPointReport getTargetPoint(Translation2d robot, Lookahead lookahead)
+    public TargetPointReport getTargetPoint(Translation2d robot, Lookahead lookahead, double timestamp)
     {
+        compile();
         TargetPointReport rv = new TargetPointReport();
-        PathSegment currentSegment = segments.get(0);
+        PathSegment currentSegment = segments.get(mCurrent);
         rv.closest_point = currentSegment.getClosestPoint(robot);
         rv.closest_point_distance = new Translation2d(robot, rv.closest_point).norm();
-        /*
-         * if (segments.size() > 1) { // Check next segment to see if it is
-         * closer. final Translation2d
-         * next_segment_closest_point = segments.get(1).getClosestPoint(robot);
-         * final double
-         * next_segment_closest_point_distance = new Translation2d(robot,
-         * next_segment_closest_point) .norm(); if
-         * (next_segment_closest_point_distance < rv.closest_point_distance) {
-         * rv.closest_point =
-         * next_segment_closest_point; rv.closest_point_distance =
-         * next_segment_closest_point_distance;
-         * removeCurrentSegment(); currentSegment = segments.get(0); } }
-         */
         rv.remaining_segment_distance = currentSegment.getRemainingDistance(rv.closest_point);
-        rv.remaining_path_distance = rv.remaining_segment_distance;
-        for (int i = 1; i < segments.size(); ++i)
-        {
-            rv.remaining_path_distance += segments.get(i).getLength();
-        }
+        rv.remaining_path_distance = rv.remaining_segment_distance
+                + (mDistanceAt[segments.size()] - mDistanceAt[mCurrent + 1]);
         rv.closest_point_speed = currentSegment
                 .getSpeedByDistance(currentSegment.getLength() - rv.remaining_segment_distance);
         double lookahead_distance = lookahead.getLookaheadForSpeed(rv.closest_point_speed) + rv.closest_point_distance;
-        if (rv.remaining_segment_distance < lookahead_distance && segments.size() > 1)
+        if (rv.remaining_segment_distance < lookahead_distance && mCurrent < segments.size() - 1)
         {
-            lookahead_distance -= rv.remaining_segment_distance;
-            for (int i = 1; i < segments.size(); ++i)
-            {
-                currentSegment = segments.get(i);
-                final double length = currentSegment.getLength();
-                if (length < lookahead_distance && i < segments.size() - 1)
-                {
-                    lookahead_distance -= length;
-                }
-                else
-                {
-                    break;
-                }
-            }
+            // The lookahead point is on a later segment: find it by its distance along the path.
+            final double lookahead_path_distance = mDistanceAt[mCurrent + 1]
+                    + (lookahead_distance - rv.remaining_segment_distance);
+            final int i = segmentEndingAfter(lookahead_path_distance, mCurrent + 1);
+            currentSegment = segments.get(i);
+            lookahead_distance = lookahead_path_distance - mDistanceAt[i];
         }
         else
         {
@@ -169,7 +202,7 @@ public class Path
         rv.max_speed = currentSegment.getMaxSpeed();
         rv.lookahead_point = currentSegment.getPointByDistance(lookahead_distance);
         rv.lookahead_point_speed = currentSegment.getSpeedByDistance(lookahead_distance);
-        checkSegmentDone(rv.closest_point);
+        checkSegmentDone(rv.closest_point, timestamp);
         return rv;
     }
 
@@ -182,7 +215,7 @@ public class Path
      */
     public double getSpeed(Translation2d robotPos)
     {
-        PathSegment currentSegment = segments.get(0);
+        PathSegment currentSegment = segments.get(mCurrent);
         return currentSegment.getSpeedByClosestPoint(robotPos);
     }
 
@@ -192,23 +225,45 @@ public class Path
      * 
      * @param robotPos
      *        robot position
+     * @param timestamp
+     *        the time of this update, passed to marker listeners
      */
-    public void checkSegmentDone(Translation2d robotPos)
+    public void checkSegmentDone(Translation2d robotPos, double timestamp)
     {
-        PathSegment currentSegment = segments.get(0);
+        PathSegment currentSegment = segments.get(mCurrent);
         double remainingDist = currentSegment.getRemainingDistance(currentSegment.getClosestPoint(robotPos));
         if (remainingDist < Constants.kSegmentCompletionTolerance)
         {
-            removeCurrentSegment();
+            removeCurrentSegment(timestamp);
         }
     }
 
-    public void removeCurrentSegment()
+    public void removeCurrentSegment(double timestamp)
     {
-        prevSegment = segments.remove(0);
+        prevSegment = segments.get(mCurrent++);
         String marker = prevSegment.getMarker();
         if (marker != null)
+        {
             mMarkersCrossed.add(marker);
+            for (PathMarkerListener listener : mMarkerListeners)
+            {
+                listener.onMarkerCrossed(marker, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Has listener told about each marker passed from now on. Adding a
+     * listener that's already been added does nothing.
+     */
+    public void addMarkerListener(PathMarkerListener listener)
+    {
+        mMarkerListeners.addIfAbsent(listener);
+    }
+
+    public void removeMarkerListener(PathMarkerListener listener)
+    {
+        mMarkerListeners.remove(listener);
     }
 
     /**
@@ -220,7 +275,7 @@ public class Path
         double maxStartSpeed = 0.0;
         double[] startSpeeds = new double[segments.size() + 1];
         startSpeeds[segments.size()] = 0.0;
-        for (int i = segments.size() - 1; i >= 0; i--)
+        for (int i = segments.size() - 1; i >= mCurrent; i--)
         {
             PathSegment segment = segments.get(i);
             maxStartSpeed += Math
@@ -234,16 +289,43 @@ public class Path
             }
             maxStartSpeed = startSpeeds[i];
         }
-        for (int i = 0; i < segments.size(); i++)
+        for (int i = mCurrent; i < segments.size(); i++)
         {
             PathSegment segment = segments.get(i);
             double endSpeed = startSpeeds[i + 1];
-            MotionState startState = (i > 0) ? segments.get(i - 1).getEndState() : new MotionState(0, 0, 0, 0);
+            MotionState startState = (i > mCurrent) ? segments.get(i - 1).getEndState() : new MotionState(0, 0, 0, 0);
             startState = new MotionState(0, 0, startState.vel(), startState.vel());
             segment.createMotionProfiler(startState, endSpeed);
         }
     }
 
+    /**
+     * Writes the segments we haven't finished, so {@link #read(ByteBuffer)}
+     * can rebuild the path without regenerating their speed profiles.
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(segments.size() - mCurrent);
+        for (int i = mCurrent; i < segments.size(); i++)
+        {
+            segments.get(i).write(out);
+        }
+    }
+
+    /**
+     * Reads a path written by {@link #write(DataOutput)}, advancing in.
+     */
+    static Path read(ByteBuffer in)
+    {
+        Path path = new Path();
+        final int numSegments = in.getInt();
+        for (int i = 0; i < numSegments; i++)
+        {
+            path.addSegment(PathSegment.read(in));
+        }
+        return path;
+    }
+
     public boolean hasPassedMarker(String marker)
     {
         return mMarkersCrossed.contains(marker);
@@ -252,7 +334,7 @@ public class Path
     public String toString()
     {
         String str = "";
-        for (PathSegment s : segments)
+        for (PathSegment s : segments.subList(mCurrent, segments.size()))
         {
             str += s.toString() + "\n";
         }
@@ -132,7 +132,7 @@ public class PathFollower
     {
         if (!mSteeringController.isFinished())
         {
-            final AdaptivePurePursuitController.Command steering_command = mSteeringController.update(pose);
+            final AdaptivePurePursuitController.Command steering_command = mSteeringController.update(pose, t);
             mDebugOutput.lookahead_point_x = steering_command.lookahead_point.x();
             mDebugOutput.lookahead_point_y = steering_command.lookahead_point.y();
             mDebugOutput.lookahead_point_velocity = steering_command.end_velocity;
@@ -0,0 +1,19 @@
+package com.spartronics4915.lib.control;
+
+/**
+ * Told when the robot passes a marker on a {@link Path} it's following.
+ *
+ * @see Path#addMarkerListener(PathMarkerListener)
+ */
+public interface PathMarkerListener
+{
+
+    /**
+     * Called on the thread following the path (the drive's loop), in the
+     * update that passed the marker, so it must be quick.
+     *
+     * @param timestamp
+     *        the time of that update
+     */
+    public void onMarkerCrossed(String marker, double timestamp);
+}
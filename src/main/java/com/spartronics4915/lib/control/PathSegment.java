@@ -1,5 +1,9 @@
 package com.spartronics4915.lib.control;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 import com.spartronics4915.frc2019.Constants;
@@ -10,6 +14,7 @@ import com.spartronics4915.lib.motion.MotionProfile;
 import com.spartronics4915.lib.motion.MotionProfileConstraints;
 import com.spartronics4915.lib.motion.MotionProfileGenerator;
 import com.spartronics4915.lib.motion.MotionProfileGoal;
+import com.spartronics4915.lib.motion.MotionSegment;
 import com.spartronics4915.lib.motion.MotionState;
 
 /**
@@ -25,6 +30,7 @@ public class PathSegment
     private Translation2d deltaStart;
     private Translation2d deltaEnd;
     private double maxSpeed;
+    private double length;
     private boolean isLine;
     private MotionProfile speedController;
     private boolean extrapolateLookahead;
@@ -55,6 +61,7 @@ public class PathSegment
         this.maxSpeed = maxSpeed;
         extrapolateLookahead = false;
         isLine = true;
+        length = computeLength();
         createMotionProfiler(startState, endSpeed);
     }
 
@@ -70,6 +77,7 @@ public class PathSegment
         extrapolateLookahead = false;
         isLine = true;
         this.marker = marker;
+        length = computeLength();
         createMotionProfiler(startState, endSpeed);
     }
 
@@ -104,6 +112,7 @@ public class PathSegment
         this.maxSpeed = maxSpeed;
         extrapolateLookahead = false;
         isLine = false;
+        length = computeLength();
         createMotionProfiler(startState, endSpeed);
     }
 
@@ -121,9 +130,37 @@ public class PathSegment
         extrapolateLookahead = false;
         isLine = false;
         this.marker = marker;
+        length = computeLength();
         createMotionProfiler(startState, endSpeed);
     }
 
+    /**
+     * Constructor for a segment read back by {@link #read(ByteBuffer)}, with
+     * its speed profile already generated. center is null for a line.
+     */
+    private PathSegment(Translation2d start, Translation2d end, Translation2d center, double maxSpeed,
+            MotionProfile speedController, boolean extrapolateLookahead, String marker)
+    {
+        this.start = start;
+        this.end = end;
+        this.center = center;
+        if (center == null)
+        {
+            this.deltaStart = new Translation2d(start, end);
+        }
+        else
+        {
+            this.deltaStart = new Translation2d(center, start);
+            this.deltaEnd = new Translation2d(center, end);
+        }
+        this.maxSpeed = maxSpeed;
+        this.isLine = center == null;
+        this.speedController = speedController;
+        this.extrapolateLookahead = extrapolateLookahead;
+        this.marker = marker;
+        length = computeLength();
+    }
+
     /**
      * @return max speed of the segment
      */
@@ -161,6 +198,11 @@ public class PathSegment
      * @return the total length of the segment
      */
     public double getLength()
+    {
+        return length;
+    }
+
+    private double computeLength()
     {
         if (isLine)
         {
@@ -335,4 +377,82 @@ public class PathSegment
                     + ")"; // + ", profile: " + speedController + ")";
         }
     }
+
+    private static final byte kIsLine = 1;
+    private static final byte kExtrapolateLookahead = 2;
+    private static final byte kHasMarker = 4;
+
+    /**
+     * Writes the segment, and its speed profile, so {@link #read(ByteBuffer)}
+     * can rebuild it without generating anything.
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeByte((isLine ? kIsLine : 0) | (extrapolateLookahead ? kExtrapolateLookahead : 0)
+                | (marker != null ? kHasMarker : 0));
+        out.writeDouble(start.x());
+        out.writeDouble(start.y());
+        out.writeDouble(end.x());
+        out.writeDouble(end.y());
+        if (!isLine)
+        {
+            out.writeDouble(center.x());
+            out.writeDouble(center.y());
+        }
+        out.writeDouble(maxSpeed);
+        if (marker != null)
+        {
+            byte[] bytes = marker.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(speedController.size());
+        for (MotionSegment segment : speedController.segments())
+        {
+            writeState(out, segment.start());
+            writeState(out, segment.end());
+        }
+    }
+
+    private static void writeState(DataOutput out, MotionState state) throws IOException
+    {
+        out.writeDouble(state.t());
+        out.writeDouble(state.pos());
+        out.writeDouble(state.vel());
+        out.writeDouble(state.acc());
+    }
+
+    /**
+     * Reads a segment written by {@link #write(DataOutput)}, advancing in.
+     */
+    static PathSegment read(ByteBuffer in)
+    {
+        final byte flags = in.get();
+        final Translation2d start = new Translation2d(in.getDouble(), in.getDouble());
+        final Translation2d end = new Translation2d(in.getDouble(), in.getDouble());
+        final Translation2d center = (flags & kIsLine) != 0 ? null
+                : new Translation2d(in.getDouble(), in.getDouble());
+        final double maxSpeed = in.getDouble();
+        String marker = null;
+        if ((flags & kHasMarker) != 0)
+        {
+            byte[] bytes = new byte[in.getShort() & 0xffff];
+            in.get(bytes);
+            marker = new String(bytes, StandardCharsets.UTF_8);
+        }
+        final int numSegments = in.getInt();
+        final MotionProfile speedController = new MotionProfile();
+        for (int i = 0; i < numSegments; i++)
+        {
+            final MotionState segmentStart = readState(in);
+            speedController.appendSegment(new MotionSegment(segmentStart, readState(in)));
+        }
+        return new PathSegment(start, end, center, maxSpeed, speedController,
+                (flags & kExtrapolateLookahead) != 0, marker);
+    }
+
+    private static MotionState readState(ByteBuffer in)
+    {
+        return new MotionState(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+    }
 }
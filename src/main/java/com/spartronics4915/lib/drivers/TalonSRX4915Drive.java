@@ -2,11 +2,11 @@ package com.spartronics4915.lib.drivers;
 
 import com.ctre.phoenix.sensors.PigeonIMU;
 import com.ctre.phoenix.sensors.PigeonIMU.PigeonState;
+import com.spartronics4915.lib.util.DashboardPublisher;
 import com.spartronics4915.lib.util.Logger;
 import com.spartronics4915.lib.util.Util;
 
 import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 import java.util.Arrays;
 
@@ -311,27 +311,28 @@ public class TalonSRX4915Drive
         // following names relied on by smartdashboard, change them with care:
         //  IMU_Heading, speed and speed error
 
+        final DashboardPublisher dashboard = DashboardPublisher.getInstance();
         final double leftSpeed = getLeftVelocityInchesPerSec();
         final double rightSpeed = getRightVelocityInchesPerSec();
 
-        SmartDashboard.putNumber("Drive/leftVoltage", mLeftMaster.getOutputVoltage());
-        SmartDashboard.putNumber("Drive/rightVoltage", mRightMaster.getOutputVoltage());
-        SmartDashboard.putNumber("Drive/leftSpeed", leftSpeed); // (ips)
-        SmartDashboard.putNumber("Drive/rightSpeed", rightSpeed); // (ips)
+        dashboard.putNumber("Drive/leftVoltage", mLeftMaster.getOutputVoltage());
+        dashboard.putNumber("Drive/rightVoltage", mRightMaster.getOutputVoltage());
+        dashboard.putNumber("Drive/leftSpeed", leftSpeed); // (ips)
+        dashboard.putNumber("Drive/rightSpeed", rightSpeed); // (ips)
         if (mLeftMaster.mControlMode == ControlMode.Velocity)
         {
-            SmartDashboard.putNumber("Drive/leftSpeedErr",
+            dashboard.putNumber("Drive/leftSpeedErr",
                     leftSpeed - rpmToInchesPerSecond(mLeftMaster.getSetpointRPM()));
-            SmartDashboard.putNumber("Drive/rightSpeedErr",
+            dashboard.putNumber("Drive/rightSpeedErr",
                     rightSpeed - rpmToInchesPerSecond(mRightMaster.getSetpointRPM()));
         }
         else if (mLeftMaster.mControlMode == ControlMode.MotionMagic ||
                 mLeftMaster.mControlMode == ControlMode.Position)
         {
-            SmartDashboard.putNumber("Drive/leftTargetPt", mLeftMaster.getSetpointRotations());
-            SmartDashboard.putNumber("Drive/rightTargetPt", mRightMaster.getSetpointRotations());
+            dashboard.putNumber("Drive/leftTargetPt", mLeftMaster.getSetpointRotations());
+            dashboard.putNumber("Drive/rightTargetPt", mRightMaster.getSetpointRotations());
         }
-        SmartDashboard.putNumber("Drive/IMU_Heading", getGyroAngle());
+        dashboard.putNumber("Drive/IMU_Heading", getGyroAngle());
     }
 
     public boolean checkSystem(String variant)
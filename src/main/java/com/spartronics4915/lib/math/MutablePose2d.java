@@ -0,0 +1,219 @@
+package com.spartronics4915.lib.math;
+
+import static com.spartronics4915.lib.util.Util.kEpsilon;
+
+/**
+ * A mutable Pose2d, for chaining the rigid transform math in a loop without
+ * allocating: each operation overwrites this pose (and returns it). The
+ * translation is (x, y) and the rotation is the point (cos, sin) on the unit
+ * circle, as in {@link Pose2d}, and every operation gives bit-for-bit the
+ * result of its Pose2d counterpart.
+ * <p>
+ * Keep one per loop as scratch, and call {@link #toPose2d()} for the result
+ * that's kept or shared. Not thread-safe.
+ */
+public class MutablePose2d {
+    private static final double kLogEps = 1E-9; // Pose2d.kEps
+
+    private double x_, y_;
+    private double cos_ = 1, sin_ = 0;
+
+    public MutablePose2d() {
+    }
+
+    public MutablePose2d(final Pose2d pose) {
+        set(pose);
+    }
+
+    public double x() {
+        return x_;
+    }
+
+    public double y() {
+        return y_;
+    }
+
+    public double cos() {
+        return cos_;
+    }
+
+    public double sin() {
+        return sin_;
+    }
+
+    public double getRadians() {
+        return Math.atan2(sin_, cos_);
+    }
+
+    public MutablePose2d set(double x, double y, double cos, double sin) {
+        x_ = x;
+        y_ = y;
+        cos_ = cos;
+        sin_ = sin;
+        return this;
+    }
+
+    public MutablePose2d set(final Pose2d pose) {
+        return set(pose.getTranslation().x(), pose.getTranslation().y(), pose.getRotation().cos(),
+                pose.getRotation().sin());
+    }
+
+    public MutablePose2d set(final MutablePose2d pose) {
+        return set(pose.x_, pose.y_, pose.cos_, pose.sin_);
+    }
+
+    public MutablePose2d setIdentity() {
+        return set(0, 0, 1, 0);
+    }
+
+    /**
+     * @return a new (immutable) Pose2d equal to this one
+     */
+    public Pose2d toPose2d() {
+        return new Pose2d(new Translation2d(x_, y_), new Rotation2d(cos_, sin_, false));
+    }
+
+    /**
+     * Sets this to this * other, like {@link Pose2d#transformBy(Pose2d)}.
+     */
+    public MutablePose2d transformBy(final Pose2d other) {
+        return transformBy(other.getTranslation().x(), other.getTranslation().y(), other.getRotation().cos(),
+                other.getRotation().sin());
+    }
+
+    public MutablePose2d transformBy(final MutablePose2d other) {
+        return transformBy(other.x_, other.y_, other.cos_, other.sin_);
+    }
+
+    /**
+     * Sets this to this * (x, y, cos, sin).
+     */
+    public MutablePose2d transformBy(double x, double y, double cos, double sin) {
+        final double tx = x * cos_ - y * sin_;
+        final double ty = x * sin_ + y * cos_;
+        x_ = x_ + tx;
+        y_ = y_ + ty;
+        setNormalizedRotation(cos_ * cos - sin_ * sin, cos_ * sin + sin_ * cos);
+        return this;
+    }
+
+    /**
+     * Sets this to its inverse, like {@link Pose2d#inverse()}.
+     */
+    public MutablePose2d inverse() {
+        final double cos = cos_, sin = -sin_;
+        final double x = -x_, y = -y_;
+        x_ = x * cos - y * sin;
+        y_ = x * sin + y * cos;
+        sin_ = sin;
+        return this;
+    }
+
+    /**
+     * Sets this to the pose reached by following twist (dx, dy, dtheta) from
+     * the origin, like {@link Pose2d#exp(Twist2d)}.
+     */
+    public MutablePose2d setExp(double dx, double dy, double dtheta) {
+        final double sin_theta = Math.sin(dtheta);
+        final double cos_theta = Math.cos(dtheta);
+        double s, c;
+        if (Math.abs(dtheta) < kLogEps) {
+            s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+            c = .5 * dtheta;
+        } else {
+            s = sin_theta / dtheta;
+            c = (1.0 - cos_theta) / dtheta;
+        }
+        return set(dx * s - dy * c, dx * c + dy * s, cos_theta, sin_theta);
+    }
+
+    public MutablePose2d setExp(final Twist2d twist) {
+        return setExp(twist.dx, twist.dy, twist.dtheta);
+    }
+
+    /**
+     * Sets this to this * exp(twist), i.e. moves it along twist, as
+     * Kinematics does with each odometry update.
+     */
+    public MutablePose2d transformByExp(double dx, double dy, double dtheta) {
+        final double x = x_, y = y_, cos = cos_, sin = sin_;
+        setExp(dx, dy, dtheta);
+        final double ex = x_, ey = y_, ecos = cos_, esin = sin_;
+        return set(x, y, cos, sin).transformBy(ex, ey, ecos, esin);
+    }
+
+    /**
+     * Writes the twist that reaches this pose from the origin, like
+     * {@link Pose2d#log(Pose2d)}, to out[offset] (dx), out[offset + 1] (dy)
+     * and out[offset + 2] (dtheta).
+     */
+    public void log(double[] out, int offset) {
+        final double dtheta = getRadians();
+        final double half_dtheta = 0.5 * dtheta;
+        final double halftheta_by_tan_of_halfdtheta = halfThetaByTanOfHalfDTheta(dtheta);
+        out[offset] = x_ * halftheta_by_tan_of_halfdtheta - y_ * -half_dtheta;
+        out[offset + 1] = x_ * -half_dtheta + y_ * halftheta_by_tan_of_halfdtheta;
+        out[offset + 2] = dtheta;
+    }
+
+    /**
+     * @return the norm of the twist that reaches this pose from the origin,
+     *         like Pose2d.log(this).norm()
+     */
+    public double logNorm() {
+        final double dtheta = getRadians();
+        final double half_dtheta = 0.5 * dtheta;
+        final double halftheta_by_tan_of_halfdtheta = halfThetaByTanOfHalfDTheta(dtheta);
+        final double dx = x_ * halftheta_by_tan_of_halfdtheta - y_ * -half_dtheta;
+        final double dy = x_ * -half_dtheta + y_ * halftheta_by_tan_of_halfdtheta;
+        // As Twist2d.norm()
+        if (dy == 0.0)
+            return Math.abs(dx);
+        return Math.hypot(dx, dy);
+    }
+
+    /**
+     * Sets this to the twist interpolation between a and b, like
+     * {@link Pose2d#interpolate(Pose2d, double)}.
+     */
+    public MutablePose2d setInterpolated(final Pose2d a, final Pose2d b, double x) {
+        if (x <= 0) {
+            return set(a);
+        } else if (x >= 1) {
+            return set(b);
+        }
+        // twist = log(a^-1 * b), scaled by x
+        set(a).inverse().transformBy(b);
+        final double dtheta = getRadians();
+        final double half_dtheta = 0.5 * dtheta;
+        final double halftheta_by_tan_of_halfdtheta = halfThetaByTanOfHalfDTheta(dtheta);
+        final double dx = x_ * halftheta_by_tan_of_halfdtheta - y_ * -half_dtheta;
+        final double dy = x_ * -half_dtheta + y_ * halftheta_by_tan_of_halfdtheta;
+        return set(a).transformByExp(dx * x, dy * x, dtheta * x);
+    }
+
+    private double halfThetaByTanOfHalfDTheta(double dtheta) {
+        final double cos_minus_one = cos_ - 1.0;
+        if (Math.abs(cos_minus_one) < kLogEps) {
+            return 1.0 - 1.0 / 12.0 * dtheta * dtheta;
+        }
+        return -(0.5 * dtheta * sin_) / cos_minus_one;
+    }
+
+    private void setNormalizedRotation(double cos, double sin) {
+        // As Rotation2d(cos, sin, true)
+        final double magnitude = Math.hypot(cos, sin);
+        if (magnitude > kEpsilon) {
+            sin_ = sin / magnitude;
+            cos_ = cos / magnitude;
+        } else {
+            sin_ = 0;
+            cos_ = 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toPose2d().toString();
+    }
+}
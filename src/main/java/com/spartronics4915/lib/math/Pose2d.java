@@ -107,6 +107,24 @@ public class Pose2d implements IPose2d<Pose2d> {
                 rotation_.rotateBy(other.rotation_));
     }
 
+    /**
+     * Sets out to this * other, without allocating.
+     *
+     * @return out
+     */
+    public MutablePose2d transformByInto(final Pose2d other, final MutablePose2d out) {
+        return out.set(this).transformBy(other);
+    }
+
+    /**
+     * Sets out to exp(delta), without allocating.
+     *
+     * @return out
+     */
+    public static MutablePose2d expInto(final Twist2d delta, final MutablePose2d out) {
+        return out.setExp(delta.dx, delta.dy, delta.dtheta);
+    }
+
     /**
      * The inverse of this transform "undoes" the effect of translating by this transform.
      *
@@ -117,6 +135,15 @@ public class Pose2d implements IPose2d<Pose2d> {
         return new Pose2d(translation_.inverse().rotateBy(rotation_inverted), rotation_inverted);
     }
 
+    /**
+     * Sets out to the inverse of this transform, without allocating.
+     *
+     * @return out
+     */
+    public MutablePose2d inverseInto(final MutablePose2d out) {
+        return out.set(this).inverse();
+    }
+
     public Pose2d normal() {
         return new Pose2d(translation_, rotation_.normal());
     }
@@ -178,8 +205,7 @@ public class Pose2d implements IPose2d<Pose2d> {
         } else if (x >= 1) {
             return new Pose2d(other);
         }
-        final Twist2d twist = Pose2d.log(inverse().transformBy(other));
-        return transformBy(Pose2d.exp(twist.scaled(x)));
+        return new MutablePose2d().setInterpolated(this, other, x).toPose2d();
     }
 
     @Override
@@ -194,7 +220,7 @@ public class Pose2d implements IPose2d<Pose2d> {
 
     @Override
     public double distance(final Pose2d other) {
-        return Pose2d.log(inverse().transformBy(other)).norm();
+        return new MutablePose2d().set(this).inverse().transformBy(other).logNorm();
     }
 
     @Override
@@ -0,0 +1,83 @@
+package com.spartronics4915.lib.math;
+
+/**
+ * Batch forms of the Pose2d operations, over poses, points and twists stored
+ * as parallel arrays of primitives (x[], y[], cos[], sin[] for poses, x[], y[]
+ * for points, dx[], dy[], dtheta[] for twists) rather than as objects. Each
+ * element's result is bit-for-bit what the Pose2d operation gives.
+ * <p>
+ * Outputs may be the same arrays as inputs. Only the first n elements are
+ * read or written.
+ */
+public class PoseArrays {
+    private PoseArrays() {
+    }
+
+    /**
+     * Transforms n points by pose: out = pose * (x, y), like
+     * pose.transformBy(Pose2d.fromTranslation(point)).getTranslation(). This is
+     * how a scan is brought from the robot's (or sensor's) frame into the
+     * field's.
+     */
+    public static void transformPoints(final Pose2d pose, double[] x, double[] y, double[] out_x, double[] out_y,
+            int n) {
+        final double px = pose.getTranslation().x(), py = pose.getTranslation().y();
+        final double cos = pose.getRotation().cos(), sin = pose.getRotation().sin();
+        for (int i = 0; i < n; i++) {
+            final double xi = x[i], yi = y[i];
+            out_x[i] = px + (xi * cos - yi * sin);
+            out_y[i] = py + (xi * sin + yi * cos);
+        }
+    }
+
+    /**
+     * Composes each of n poses with other, in place: pose[i] = pose[i] *
+     * other.
+     */
+    public static void transformBy(double[] x, double[] y, double[] cos, double[] sin, final Pose2d other, int n) {
+        final MutablePose2d pose = new MutablePose2d();
+        for (int i = 0; i < n; i++) {
+            pose.set(x[i], y[i], cos[i], sin[i]).transformBy(other);
+            x[i] = pose.x();
+            y[i] = pose.y();
+            cos[i] = pose.cos();
+            sin[i] = pose.sin();
+        }
+    }
+
+    /**
+     * Writes exp(twist) for each of n twists, like
+     * {@link Pose2d#exp(Twist2d)}.
+     */
+    public static void exp(double[] dx, double[] dy, double[] dtheta, double[] out_x, double[] out_y,
+            double[] out_cos, double[] out_sin, int n) {
+        final MutablePose2d pose = new MutablePose2d();
+        for (int i = 0; i < n; i++) {
+            pose.setExp(dx[i], dy[i], dtheta[i]);
+            out_x[i] = pose.x();
+            out_y[i] = pose.y();
+            out_cos[i] = pose.cos();
+            out_sin[i] = pose.sin();
+        }
+    }
+
+    /**
+     * Integrates n twists in order from start, like calling
+     * Kinematics.integrateForwardKinematics for each, and writes the pose
+     * after each one.
+     *
+     * @return the pose after the last twist
+     */
+    public static Pose2d integrate(final Pose2d start, double[] dx, double[] dy, double[] dtheta, double[] out_x,
+            double[] out_y, double[] out_cos, double[] out_sin, int n) {
+        final MutablePose2d pose = new MutablePose2d(start);
+        for (int i = 0; i < n; i++) {
+            pose.transformByExp(dx[i], dy[i], dtheta[i]);
+            out_x[i] = pose.x();
+            out_y[i] = pose.y();
+            out_cos[i] = pose.cos();
+            out_sin[i] = pose.sin();
+        }
+        return pose.toPose2d();
+    }
+}
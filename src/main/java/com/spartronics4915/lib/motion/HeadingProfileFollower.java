@@ -10,9 +10,13 @@ import com.spartronics4915.lib.math.Rotation2d;
 public class HeadingProfileFollower extends ProfileFollower
 {
 
+    /**
+     * Shares its profiles through the profile cache, since a heading
+     * follower is mostly asked for the same few turns.
+     */
     public HeadingProfileFollower(double kp, double ki, double kv, double kffv, double kffa)
     {
-        super(kp, ki, kv, kffv, kffa);
+        super(kp, ki, kv, kffv, kffa, true);
     }
 
     @Override
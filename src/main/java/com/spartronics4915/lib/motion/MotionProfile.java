@@ -4,7 +4,7 @@ import static com.spartronics4915.lib.util.Util.epsilonEquals;
 import static com.spartronics4915.lib.motion.MotionUtil.kEpsilon;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,47 +13,109 @@ import java.util.Optional;
  * is composed of successively coincident
  * MotionSegments from which the desired state of motion at any given distance
  * or time can be calculated.
+ * <p>
+ * The segments are kept in primitive arrays (the time, position, velocity
+ * and acceleration of each segment's start and end) rather than as
+ * MotionSegment objects. Lookups by time and by position are binary
+ * searches, and trimming the front of the profile moves a cursor instead of
+ * shifting the segments, so a profile that is sampled and trimmed every loop
+ * costs O(log n) per loop rather than O(n). The lookups assume the segments
+ * are in time order, as they are in every valid profile.
  */
 public class MotionProfile
 {
 
-    protected List<MotionSegment> mSegments;
+    private static final int kInitialCapacity = 8;
+
+    private double[] mStartT, mStartPos, mStartVel, mStartAcc;
+    private double[] mEndT, mEndPos, mEndVel, mEndAcc;
+    private int mFirst = 0; // the live segments are [mFirst, mEnd)
+    private int mEnd = 0;
+
+    // isValid() is asked every loop by SetpointGenerator, so remember it
+    private boolean mValidityKnown = false;
+    private boolean mValid;
+
+    // For firstStateByPos: the lowest and highest positions reached by the
+    // live segments up to and including each one. Null when out of date.
+    private double[] mReachMin = null, mReachMax = null;
 
     /**
      * Create an empty MotionProfile.
      */
     public MotionProfile()
     {
-        mSegments = new ArrayList<>();
+        allocate(kInitialCapacity);
     }
 
     /**
      * Create a MotionProfile from an existing list of segments (note that
-     * validity is not checked).
-     * 
+     * validity is not checked). The segments are copied.
+     *
      * @param segments
      *        The new segments of the profile.
      */
     public MotionProfile(List<MotionSegment> segments)
     {
-        mSegments = segments;
+        allocate(Math.max(kInitialCapacity, segments.size()));
+        for (MotionSegment s : segments)
+        {
+            appendSegment(s);
+        }
+    }
+
+    /**
+     * Create a copy of a MotionProfile.
+     *
+     * @param profile
+     *        The profile to copy.
+     */
+    public MotionProfile(MotionProfile profile)
+    {
+        allocate(Math.max(kInitialCapacity, profile.size()));
+        appendProfile(profile);
+        mValidityKnown = profile.mValidityKnown;
+        mValid = profile.mValid;
+    }
+
+    private void allocate(int capacity)
+    {
+        mStartT = new double[capacity];
+        mStartPos = new double[capacity];
+        mStartVel = new double[capacity];
+        mStartAcc = new double[capacity];
+        mEndT = new double[capacity];
+        mEndPos = new double[capacity];
+        mEndVel = new double[capacity];
+        mEndAcc = new double[capacity];
     }
 
     /**
      * Checks if the given MotionProfile is valid. This checks that:
-     * 
+     *
      * 1. All segments are valid.
-     * 
+     *
      * 2. Successive segments are C1 continuous in position and C0 continuous in
      * velocity.
-     * 
+     *
      * @return True if the MotionProfile is valid.
      */
     public boolean isValid()
+    {
+        if (!mValidityKnown)
+        {
+            mValid = checkValid();
+            mValidityKnown = true;
+        }
+        return mValid;
+    }
+
+    private boolean checkValid()
     {
         MotionSegment prev_segment = null;
-        for (MotionSegment s : mSegments)
+        for (int i = mFirst; i < mEnd; i++)
         {
+            MotionSegment s = segment(i);
             if (!s.isValid())
             {
                 return false;
@@ -71,17 +133,17 @@ public class MotionProfile
 
     /**
      * Check if the profile is empty.
-     * 
+     *
      * @return True if there are no segments.
      */
     public boolean isEmpty()
     {
-        return mSegments.isEmpty();
+        return mEnd == mFirst;
     }
 
     /**
      * Get the interpolated MotionState at any given time.
-     * 
+     *
      * @param t
      *        The time to query.
      * @return Empty if the time is outside the time bounds of the profile, or
@@ -97,20 +159,18 @@ public class MotionProfile
         {
             return Optional.of(endState());
         }
-        for (MotionSegment s : mSegments)
+        final int i = segmentByTime(t);
+        if (i < 0)
         {
-            if (s.containsTime(t))
-            {
-                return Optional.of(s.start().extrapolate(t));
-            }
+            return Optional.empty();
         }
-        return Optional.empty();
+        return Optional.of(extrapolate(i, t));
     }
 
     /**
      * Get the interpolated MotionState at any given time, clamping to the
      * endpoints if time is out of bounds.
-     * 
+     *
      * @param t
      *        The time to query.
      * @return The MotionState at time t, or closest to it if t is outside the
@@ -126,22 +186,39 @@ public class MotionProfile
         {
             return endState();
         }
-        for (MotionSegment s : mSegments)
+        final int i = segmentByTime(t);
+        if (i < 0)
         {
-            if (s.containsTime(t))
-            {
-                return s.start().extrapolate(t);
-            }
+            // Should never get here.
+            return MotionState.kInvalidState;
         }
-        // Should never get here.
-        return MotionState.kInvalidState;
+        return extrapolate(i, t);
+    }
+
+    /**
+     * @return the index of the first segment that contains time
+     *         <code>t</code>, or -1 if none does
+     */
+    private int segmentByTime(double t)
+    {
+        // The first segment that doesn't end before t
+        int lo = mFirst, hi = mEnd;
+        while (lo < hi)
+        {
+            final int mid = (lo + hi) >>> 1;
+            if (mEndT[mid] < t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo < mEnd && mStartT[lo] <= t ? lo : -1;
     }
 
     /**
      * Get the interpolated MotionState by distance (the "pos()" field of
      * MotionState). Note that since a profile may
      * reverse, this method only returns the *first* instance of this position.
-     * 
+     *
      * @param pos
      *        The position to query.
      * @return Empty if the profile never crosses pos or if the profile is
@@ -150,52 +227,109 @@ public class MotionProfile
      */
     public Optional<MotionState> firstStateByPos(double pos)
     {
-        for (MotionSegment s : mSegments)
+        final int i = firstSegmentByPos(pos);
+        if (i < 0)
+        {
+            // We never reach pos.
+            return Optional.empty();
+        }
+        if (epsilonEquals(mEndPos[i], pos, kEpsilon))
+        {
+            return Optional.of(endState(i));
+        }
+        final MotionState start = startState(i);
+        final double t = Math.min(start.nextTimeAtPos(pos), mEndT[i]);
+        if (Double.isNaN(t))
+        {
+            System.err.println("Error! We should reach 'pos' but we don't");
+            return Optional.empty();
+        }
+        return Optional.of(start.extrapolate(t));
+    }
+
+    /**
+     * @return the index of the first segment that contains position
+     *         <code>pos</code>, or -1 if none does
+     */
+    private int firstSegmentByPos(double pos)
+    {
+        if (mReachMin == null)
+        {
+            updateReach();
+        }
+        // Segments are continuous, so the positions reached up to a segment
+        // form an interval that only grows: the first segment whose interval
+        // holds pos is the first to reach it.
+        int lo = mFirst, hi = mEnd;
+        while (lo < hi)
         {
-            if (s.containsPos(pos))
+            final int mid = (lo + hi) >>> 1;
+            if (pos < mReachMin[mid] || pos > mReachMax[mid])
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        // A segment that doesn't quite meet the one before it can leave a
+        // gap in that interval; keep looking past it.
+        for (int i = lo; i < mEnd; i++)
+        {
+            if (pos >= mStartPos[i] && pos <= mEndPos[i] || pos <= mStartPos[i] && pos >= mEndPos[i])
             {
-                if (epsilonEquals(s.end().pos(), pos, kEpsilon))
-                {
-                    return Optional.of(s.end());
-                }
-                final double t = Math.min(s.start().nextTimeAtPos(pos), s.end().t());
-                if (Double.isNaN(t))
-                {
-                    System.err.println("Error! We should reach 'pos' but we don't");
-                    return Optional.empty();
-                }
-                return Optional.of(s.start().extrapolate(t));
+                return i;
             }
         }
-        // We never reach pos.
-        return Optional.empty();
+        return -1;
+    }
+
+    private void updateReach()
+    {
+        mReachMin = new double[mStartT.length];
+        mReachMax = new double[mStartT.length];
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = mFirst; i < mEnd; i++)
+        {
+            min = Math.min(min, Math.min(mStartPos[i], mEndPos[i]));
+            max = Math.max(max, Math.max(mStartPos[i], mEndPos[i]));
+            mReachMin[i] = min;
+            mReachMax[i] = max;
+        }
     }
 
     /**
      * Remove all parts of the profile prior to the query time. This eliminates
      * whole segments and also shortens any
      * segments containing t.
-     * 
+     *
      * @param t
      *        The query time.
      */
     public void trimBeforeTime(double t)
     {
-        for (Iterator<MotionSegment> iterator = mSegments.iterator(); iterator.hasNext();)
+        // Segments fully before t are skipped over
+        int lo = mFirst, hi = mEnd;
+        while (lo < hi)
         {
-            MotionSegment s = iterator.next();
-            if (s.end().t() <= t)
-            {
-                // Segment is fully before t.
-                iterator.remove();
-                continue;
-            }
-            if (s.start().t() <= t)
-            {
-                // Segment begins before t; let's shorten the segment.
-                s.setStart(s.start().extrapolate(t));
-            }
-            break;
+            final int mid = (lo + hi) >>> 1;
+            if (mEndT[mid] <= t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        mFirst = lo;
+        if (mFirst < mEnd && mStartT[mFirst] <= t)
+        {
+            // Segment begins before t; let's shorten the segment.
+            setStart(mFirst, extrapolate(mFirst, t));
+        }
+        // Trimming a valid profile leaves it valid; anything else is rechecked
+        if (!mValid)
+        {
+            mValidityKnown = false;
+        }
+        mReachMin = mReachMax = null;
+        if (mFirst == mEnd)
+        {
+            mFirst = mEnd = 0;
         }
     }
 
@@ -204,21 +338,22 @@ public class MotionProfile
      */
     public void clear()
     {
-        mSegments.clear();
+        mFirst = mEnd = 0;
+        changed();
     }
 
     /**
      * Remove all segments and initialize to the desired state (actually a
      * segment of length 0 that starts and ends at
      * initial_state).
-     * 
+     *
      * @param initial_state
      *        The MotionState to initialize to.
      */
     public void reset(MotionState initial_state)
     {
         clear();
-        mSegments.add(new MotionSegment(initial_state, initial_state));
+        append(initial_state, initial_state);
     }
 
     /**
@@ -227,21 +362,28 @@ public class MotionProfile
      */
     public void consolidate()
     {
-        for (Iterator<MotionSegment> iterator = mSegments.iterator(); iterator.hasNext() && mSegments.size() > 1;)
+        int kept = mFirst;
+        int size = size();
+        for (int i = mFirst; i < mEnd; i++)
         {
-            MotionSegment s = iterator.next();
-            if (s.start().coincident(s.end()))
+            if (size > 1 && epsilonEquals(mStartT[i], mEndT[i], kEpsilon) &&
+                    epsilonEquals(mStartPos[i], mEndPos[i], kEpsilon) &&
+                    epsilonEquals(mStartVel[i], mEndVel[i], kEpsilon))
             {
-                iterator.remove();
+                size--;
+                continue;
             }
+            copy(i, kept++);
         }
+        mEnd = kept;
+        changed();
     }
 
     /**
      * Add to the profile by applying an acceleration control for a given time.
      * This is appended to the previous last
      * state.
-     * 
+     *
      * @param acc
      *        The acceleration to apply.
      * @param dt
@@ -254,37 +396,173 @@ public class MotionProfile
             System.err.println("Error!  Trying to append to empty profile");
             return;
         }
-        MotionState last_end_state = mSegments.get(mSegments.size() - 1).end();
+        MotionState last_end_state = endState();
         MotionState new_start_state = new MotionState(last_end_state.t(), last_end_state.pos(), last_end_state.vel(),
                 acc);
-        appendSegment(new MotionSegment(new_start_state, new_start_state.extrapolate(new_start_state.t() + dt)));
+        append(new_start_state, new_start_state.extrapolate(new_start_state.t() + dt));
     }
 
     /**
      * Add to the profile by inserting a new segment. No validity checking is
      * done.
-     * 
+     *
      * @param segment
      *        The segment to add.
      */
     public void appendSegment(MotionSegment segment)
     {
-        mSegments.add(segment);
+        append(segment.start(), segment.end());
     }
 
     /**
      * Add to the profile by inserting a new profile after the final state. No
      * validity checking is done.
-     * 
+     *
      * @param profile
      *        The profile to add.
      */
     public void appendProfile(MotionProfile profile)
     {
-        for (MotionSegment s : profile.segments())
+        final int n = profile.size();
+        ensureRoom(n);
+        final int from = profile.mFirst;
+        System.arraycopy(profile.mStartT, from, mStartT, mEnd, n);
+        System.arraycopy(profile.mStartPos, from, mStartPos, mEnd, n);
+        System.arraycopy(profile.mStartVel, from, mStartVel, mEnd, n);
+        System.arraycopy(profile.mStartAcc, from, mStartAcc, mEnd, n);
+        System.arraycopy(profile.mEndT, from, mEndT, mEnd, n);
+        System.arraycopy(profile.mEndPos, from, mEndPos, mEnd, n);
+        System.arraycopy(profile.mEndVel, from, mEndVel, mEnd, n);
+        System.arraycopy(profile.mEndAcc, from, mEndAcc, mEnd, n);
+        mEnd += n;
+        changed();
+    }
+
+    /**
+     * Mirrors the profile about position 0 (see {@link MotionState#flipped()}).
+     */
+    public void flip()
+    {
+        for (int i = mFirst; i < mEnd; i++)
         {
-            appendSegment(s);
+            mStartPos[i] = -mStartPos[i];
+            mStartVel[i] = -mStartVel[i];
+            mStartAcc[i] = -mStartAcc[i];
+            mEndPos[i] = -mEndPos[i];
+            mEndVel[i] = -mEndVel[i];
+            mEndAcc[i] = -mEndAcc[i];
+        }
+        mReachMin = mReachMax = null;
+    }
+
+    /**
+     * Moves the whole profile <code>dt</code> later in time.
+     */
+    public void shiftTime(double dt)
+    {
+        for (int i = mFirst; i < mEnd; i++)
+        {
+            mStartT[i] += dt;
+            mEndT[i] += dt;
+        }
+    }
+
+    private void append(MotionState start, MotionState end)
+    {
+        ensureRoom(1);
+        setStart(mEnd, start);
+        mEndT[mEnd] = end.t();
+        mEndPos[mEnd] = end.pos();
+        mEndVel[mEnd] = end.vel();
+        mEndAcc[mEnd] = end.acc();
+        mEnd++;
+        changed();
+    }
+
+    private void setStart(int i, MotionState start)
+    {
+        mStartT[i] = start.t();
+        mStartPos[i] = start.pos();
+        mStartVel[i] = start.vel();
+        mStartAcc[i] = start.acc();
+    }
+
+    private void copy(int from, int to)
+    {
+        mStartT[to] = mStartT[from];
+        mStartPos[to] = mStartPos[from];
+        mStartVel[to] = mStartVel[from];
+        mStartAcc[to] = mStartAcc[from];
+        mEndT[to] = mEndT[from];
+        mEndPos[to] = mEndPos[from];
+        mEndVel[to] = mEndVel[from];
+        mEndAcc[to] = mEndAcc[from];
+    }
+
+    /**
+     * Makes room for <code>n</code> more segments at the end, first by
+     * moving the live segments to the front of the arrays, then by growing
+     * the arrays.
+     */
+    private void ensureRoom(int n)
+    {
+        if (mEnd + n <= mStartT.length)
+            return;
+        final int size = size();
+        if (mFirst > 0)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                copy(mFirst + i, i);
+            }
+            mFirst = 0;
+            mEnd = size;
+            mReachMin = mReachMax = null;
+            if (size + n <= mStartT.length)
+                return;
         }
+        final int capacity = Math.max(size + n, 2 * mStartT.length);
+        mStartT = Arrays.copyOf(mStartT, capacity);
+        mStartPos = Arrays.copyOf(mStartPos, capacity);
+        mStartVel = Arrays.copyOf(mStartVel, capacity);
+        mStartAcc = Arrays.copyOf(mStartAcc, capacity);
+        mEndT = Arrays.copyOf(mEndT, capacity);
+        mEndPos = Arrays.copyOf(mEndPos, capacity);
+        mEndVel = Arrays.copyOf(mEndVel, capacity);
+        mEndAcc = Arrays.copyOf(mEndAcc, capacity);
+    }
+
+    private void changed()
+    {
+        mValidityKnown = false;
+        mReachMin = mReachMax = null;
+    }
+
+    private MotionState startState(int i)
+    {
+        return new MotionState(mStartT[i], mStartPos[i], mStartVel[i], mStartAcc[i]);
+    }
+
+    private MotionState endState(int i)
+    {
+        return new MotionState(mEndT[i], mEndPos[i], mEndVel[i], mEndAcc[i]);
+    }
+
+    private MotionSegment segment(int i)
+    {
+        return new MotionSegment(startState(i), endState(i));
+    }
+
+    /**
+     * @return segment i's start state extrapolated to time t (as
+     *         {@link MotionState#extrapolate(double)})
+     */
+    private MotionState extrapolate(int i, double t)
+    {
+        final double dt = t - mStartT[i];
+        final double acc = mStartAcc[i];
+        return new MotionState(t, mStartPos[i] + mStartVel[i] * dt + .5 * acc * dt * dt, mStartVel[i] + acc * dt,
+                acc);
     }
 
     /**
@@ -292,15 +570,21 @@ public class MotionProfile
      */
     public int size()
     {
-        return mSegments.size();
+        return mEnd - mFirst;
     }
 
     /**
-     * @return The list of segments.
+     * @return A copy of the segments; changing them doesn't change the
+     *         profile.
      */
     public List<MotionSegment> segments()
     {
-        return mSegments;
+        List<MotionSegment> segments = new ArrayList<>(size());
+        for (int i = mFirst; i < mEnd; i++)
+        {
+            segments.add(segment(i));
+        }
+        return segments;
     }
 
     /**
@@ -312,7 +596,7 @@ public class MotionProfile
         {
             return MotionState.kInvalidState;
         }
-        return mSegments.get(0).start();
+        return startState(mFirst);
     }
 
     /**
@@ -320,7 +604,7 @@ public class MotionProfile
      */
     public double startTime()
     {
-        return startState().t();
+        return isEmpty() ? Double.NaN : mStartT[mFirst];
     }
 
     /**
@@ -328,7 +612,7 @@ public class MotionProfile
      */
     public double startPos()
     {
-        return startState().pos();
+        return isEmpty() ? Double.NaN : mStartPos[mFirst];
     }
 
     /**
@@ -340,7 +624,7 @@ public class MotionProfile
         {
             return MotionState.kInvalidState;
         }
-        return mSegments.get(mSegments.size() - 1).end();
+        return endState(mEnd - 1);
     }
 
     /**
@@ -348,7 +632,7 @@ public class MotionProfile
      */
     public double endTime()
     {
-        return endState().t();
+        return isEmpty() ? Double.NaN : mEndT[mEnd - 1];
     }
 
     /**
@@ -356,7 +640,7 @@ public class MotionProfile
      */
     public double endPos()
     {
-        return endState().pos();
+        return isEmpty() ? Double.NaN : mEndPos[mEnd - 1];
     }
 
     /**
@@ -376,9 +660,9 @@ public class MotionProfile
     public double length()
     {
         double length = 0.0;
-        for (MotionSegment s : segments())
+        for (int i = mFirst; i < mEnd; i++)
         {
-            length += Math.abs(s.end().pos() - s.start().pos());
+            length += Math.abs(mEndPos[i] - mStartPos[i]);
         }
         return length;
     }
@@ -387,10 +671,10 @@ public class MotionProfile
     public String toString()
     {
         StringBuilder builder = new StringBuilder("Profile:");
-        for (MotionSegment s : segments())
+        for (int i = mFirst; i < mEnd; i++)
         {
             builder.append("\n\t");
-            builder.append(s);
+            builder.append(segment(i));
         }
         return builder.toString();
     }
@@ -19,11 +19,7 @@ public class MotionProfileGenerator
             MotionProfileGoal goal_state, MotionState prev_state)
     {
         MotionProfile profile = generateProfile(constraints, goal_state.flipped(), prev_state.flipped());
-        for (MotionSegment s : profile.segments())
-        {
-            s.setStart(s.start().flipped());
-            s.setEnd(s.end().flipped());
-        }
+        profile.flip();
         return profile;
     }
 
@@ -39,7 +35,7 @@ public class MotionProfileGenerator
      * @return A motion profile from prev_state to goal_state that satisfies
      *         constraints.
      */
-    public synchronized static MotionProfile generateProfile(MotionProfileConstraints constraints,
+    public static MotionProfile generateProfile(MotionProfileConstraints constraints,
             MotionProfileGoal goal_state,
             MotionState prev_state)
     {
@@ -0,0 +1,164 @@
+package com.spartronics4915.lib.motion;
+
+import static com.spartronics4915.lib.motion.MotionUtil.kEpsilon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of generated MotionProfiles, shared by
+ * every SetpointGenerator, so that a follower asked for the same move again
+ * (a turn to the same heading from rest, say) doesn't regenerate it.
+ * <p>
+ * Profiles are keyed on the constraints and goal (exactly, as their equals()
+ * compare them) and on the start state's position, velocity and
+ * acceleration rounded to {@link MotionUtil#kEpsilon}, so a hit starts
+ * within kEpsilon of the state asked for. The start time isn't part of the
+ * key: a hit is shifted to start at the time asked for.
+ * <p>
+ * The cache's lock is only held to look up or store a profile; profiles are
+ * generated (and copied) outside it, so threads don't wait on each other's
+ * generation.
+ */
+class ProfileCache
+{
+
+    private static class Key
+    {
+
+        final double max_abs_vel, max_abs_acc;
+        final double goal_pos, goal_max_abs_vel, pos_tolerance, vel_tolerance;
+        final MotionProfileGoal.CompletionBehavior completion_behavior;
+        final long pos, vel, acc;
+        final int hash;
+
+        Key(MotionProfileConstraints constraints, MotionProfileGoal goal, MotionState state)
+        {
+            max_abs_vel = constraints.max_abs_vel();
+            max_abs_acc = constraints.max_abs_acc();
+            goal_pos = goal.pos();
+            goal_max_abs_vel = goal.max_abs_vel();
+            pos_tolerance = goal.pos_tolerance();
+            vel_tolerance = goal.vel_tolerance();
+            completion_behavior = goal.completion_behavior();
+            pos = Math.round(state.pos() / kEpsilon);
+            vel = Math.round(state.vel() / kEpsilon);
+            acc = Math.round(state.acc() / kEpsilon);
+
+            int h = Double.hashCode(max_abs_vel);
+            h = 31 * h + Double.hashCode(max_abs_acc);
+            h = 31 * h + Double.hashCode(goal_pos);
+            h = 31 * h + Double.hashCode(goal_max_abs_vel);
+            h = 31 * h + Double.hashCode(pos_tolerance);
+            h = 31 * h + Double.hashCode(vel_tolerance);
+            h = 31 * h + completion_behavior.hashCode();
+            h = 31 * h + Long.hashCode(pos);
+            h = 31 * h + Long.hashCode(vel);
+            h = 31 * h + Long.hashCode(acc);
+            hash = h;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash && pos == other.pos && vel == other.vel && acc == other.acc
+                    && max_abs_vel == other.max_abs_vel && max_abs_acc == other.max_abs_acc
+                    && goal_pos == other.goal_pos && goal_max_abs_vel == other.goal_max_abs_vel
+                    && pos_tolerance == other.pos_tolerance && vel_tolerance == other.vel_tolerance
+                    && completion_behavior == other.completion_behavior;
+        }
+    }
+
+    private final Map<Key, MotionProfile> mProfiles;
+
+    ProfileCache(final int capacity)
+    {
+        mProfiles = new LinkedHashMap<Key, MotionProfile>(2 * capacity, 0.75f, true)
+        {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, MotionProfile> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return A copy of the cached profile from (about) prev_state to goal
+     *         that satisfies constraints, shifted to start at prev_state's
+     *         time, or null if there's none.
+     */
+    MotionProfile lookup(MotionProfileConstraints constraints, MotionProfileGoal goal, MotionState prev_state)
+    {
+        if (!isCacheable(constraints, goal, prev_state))
+        {
+            return null;
+        }
+        final Key key = new Key(constraints, goal, prev_state);
+        MotionProfile cached;
+        synchronized (mProfiles)
+        {
+            cached = mProfiles.get(key);
+        }
+        if (cached == null)
+        {
+            return null;
+        }
+        MotionProfile profile = new MotionProfile(cached);
+        profile.shiftTime(prev_state.t() - cached.startTime());
+        return profile;
+    }
+
+    /**
+     * Caches a copy of profile, which was generated from the same arguments.
+     */
+    void store(MotionProfileConstraints constraints, MotionProfileGoal goal, MotionState prev_state,
+            MotionProfile profile)
+    {
+        if (profile.isEmpty() || !isCacheable(constraints, goal, prev_state))
+        {
+            return;
+        }
+        final Key key = new Key(constraints, goal, prev_state);
+        final MotionProfile copy = new MotionProfile(profile);
+        synchronized (mProfiles)
+        {
+            mProfiles.put(key, copy);
+        }
+    }
+
+    private static boolean isCacheable(MotionProfileConstraints constraints, MotionProfileGoal goal,
+            MotionState state)
+    {
+        return isFinite(state.t()) && isFinite(state.pos()) && isFinite(state.vel()) && isFinite(state.acc())
+                && isFinite(goal.pos()) && isFinite(goal.max_abs_vel())
+                && isFinite(constraints.max_abs_vel()) && isFinite(constraints.max_abs_acc());
+    }
+
+    private static boolean isFinite(double d)
+    {
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    void clear()
+    {
+        synchronized (mProfiles)
+        {
+            mProfiles.clear();
+        }
+    }
+}
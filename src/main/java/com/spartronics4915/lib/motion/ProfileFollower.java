@@ -28,7 +28,7 @@ public class ProfileFollower
 
     protected MotionProfileGoal mGoal = null;
     protected MotionProfileConstraints mConstraints = null;
-    protected SetpointGenerator mSetpointGenerator = new SetpointGenerator();
+    protected final SetpointGenerator mSetpointGenerator;
     protected SetpointGenerator.Setpoint mLatestSetpoint = null;
 
     /**
@@ -50,6 +50,17 @@ public class ProfileFollower
      */
     public ProfileFollower(double kp, double ki, double kv, double kffv, double kffa)
     {
+        this(kp, ki, kv, kffv, kffa, false);
+    }
+
+    /**
+     * Create a new ProfileFollower, optionally sharing its profiles through
+     * the profile cache. Only worth it if it's asked for the same moves
+     * again; see SetpointGenerator.
+     */
+    public ProfileFollower(double kp, double ki, double kv, double kffv, double kffa, boolean useProfileCache)
+    {
+        mSetpointGenerator = new SetpointGenerator(useProfileCache);
         resetProfile();
         setGains(kp, ki, kv, kffv, kffa);
     }
@@ -213,6 +224,24 @@ public class ProfileFollower
         return mLatestVelError;
     }
 
+    /**
+     * @return The number of this follower's profiles that came from the
+     *         shared profile cache (0 if it doesn't use it).
+     */
+    public long getProfileCacheHits()
+    {
+        return mSetpointGenerator.getCacheHits();
+    }
+
+    /**
+     * @return The number of this follower's profiles that weren't in the
+     *         shared profile cache (0 if it doesn't use it).
+     */
+    public long getProfileCacheMisses()
+    {
+        return mSetpointGenerator.getCacheMisses();
+    }
+
     /**
      * We are finished the profile when the final setpoint has been generated.
      * Note that this does not check whether we
@@ -1,6 +1,9 @@
 package com.spartronics4915.lib.motion;
 
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.spartronics4915.lib.util.DashboardPublisher;
 
 /**
  * A SetpointGenerate does just-in-time motion profile generation to supply a
@@ -14,6 +17,15 @@ import java.util.Optional;
  * getSetpoint(), and should only use a measured state directly on the first
  * iteration or if a large disturbance is
  * detected.
+ * 
+ * A generator constructed with useProfileCache also keeps its profiles in a
+ * small cache shared by every such generator (see ProfileCache), so a
+ * follower that's asked for a move it (or another follower) has made before,
+ * from the same state, reuses that profile rather than generating it again.
+ * That only pays off for repeated moves (a mechanism going between a few set
+ * positions); a follower whose goal changes every update, like
+ * PathFollower's, would miss every time and pay for the lookup and copy, so
+ * caching is off by default.
  */
 public class SetpointGenerator
 {
@@ -37,12 +49,30 @@ public class SetpointGenerator
         }
     }
 
+    private static final int kProfileCacheSize = 64;
+    private static final ProfileCache sProfileCache = new ProfileCache(kProfileCacheSize);
+    private static final AtomicLong sCacheHits = new AtomicLong();
+    private static final AtomicLong sCacheMisses = new AtomicLong();
+
     protected MotionProfile mProfile = null;
     protected MotionProfileGoal mGoal = null;
     protected MotionProfileConstraints mConstraints = null;
+    private final boolean mUseProfileCache;
+    private long mCacheHits = 0;
+    private long mCacheMisses = 0;
 
     public SetpointGenerator()
     {
+        this(false);
+    }
+
+    /**
+     * @param useProfileCache
+     *        Whether to share generated profiles through the profile cache.
+     */
+    public SetpointGenerator(boolean useProfileCache)
+    {
+        mUseProfileCache = useProfileCache;
     }
 
     /**
@@ -85,7 +115,22 @@ public class SetpointGenerator
             // Regenerate the profile, as our current profile does not satisfy the inputs.
             mConstraints = constraints;
             mGoal = goal;
-            mProfile = MotionProfileGenerator.generateProfile(constraints, goal, prev_state);
+            mProfile = mUseProfileCache ? sProfileCache.lookup(constraints, goal, prev_state) : null;
+            if (mProfile == null)
+            {
+                mProfile = MotionProfileGenerator.generateProfile(constraints, goal, prev_state);
+                if (mUseProfileCache)
+                {
+                    sProfileCache.store(constraints, goal, prev_state, mProfile);
+                    mCacheMisses++;
+                    sCacheMisses.incrementAndGet();
+                }
+            }
+            else
+            {
+                mCacheHits++;
+                sCacheHits.incrementAndGet();
+            }
             // System.out.println("Regenerating profile: " + mProfile);
         }
 
@@ -139,4 +184,54 @@ public class SetpointGenerator
     {
         return mProfile;
     }
+
+    public boolean isUsingProfileCache()
+    {
+        return mUseProfileCache;
+    }
+
+    /**
+     * @return The number of profiles this generator took from the cache.
+     */
+    public synchronized long getCacheHits()
+    {
+        return mCacheHits;
+    }
+
+    /**
+     * @return The number of profiles this generator had to generate.
+     */
+    public synchronized long getCacheMisses()
+    {
+        return mCacheMisses;
+    }
+
+    /**
+     * @return The number of profiles every generator took from the cache.
+     */
+    public static long getTotalCacheHits()
+    {
+        return sCacheHits.get();
+    }
+
+    /**
+     * @return The number of profiles every generator had to generate.
+     */
+    public static long getTotalCacheMisses()
+    {
+        return sCacheMisses.get();
+    }
+
+    /**
+     * Publishes how often the generators that use the profile cache found
+     * their profile in it.
+     */
+    public static void outputToSmartDashboard()
+    {
+        final long hits = sCacheHits.get(), misses = sCacheMisses.get();
+        DashboardPublisher dashboard = DashboardPublisher.getInstance();
+        dashboard.putNumber("ProfileCache/hits", hits);
+        dashboard.putNumber("ProfileCache/misses", misses);
+        dashboard.putNumber("ProfileCache/hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+    }
 }
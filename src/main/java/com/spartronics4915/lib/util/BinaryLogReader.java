@@ -0,0 +1,197 @@
+package com.spartronics4915.lib.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads back the files written by {@link BinaryLogWriter}, one record at a
+ * time, and turns them into CSV files like the ones ReflectingCSVWriter
+ * used to write.
+ * <p>
+ * A log that was never closed (Drive's, when the robot is switched off)
+ * usually ends part way through its last block. Reading stops at the last
+ * whole record; {@link #getRecordsTruncated()} says how many the block was
+ * short of.
+ */
+public class BinaryLogReader implements AutoCloseable
+{
+
+    private final DataInputStream mIn;
+    private final String[] mNames;
+    private final byte[] mTypes;
+    private final long[] mValues; // the current record; doubles and floats as double bits
+    private int mRecordsLeftInBlock = 0;
+    private int mRecordsTruncated = 0;
+
+    public static BinaryLogReader open(String fileName) throws IOException
+    {
+        return new BinaryLogReader(new FileInputStream(fileName));
+    }
+
+    public BinaryLogReader(InputStream in) throws IOException
+    {
+        mIn = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        int magic = mIn.readInt();
+        int version = mIn.readInt();
+        if (magic != BinaryLogWriter.kMagic || version != BinaryLogWriter.kVersion)
+            throw new IOException("Not a version " + BinaryLogWriter.kVersion + " binary log");
+        int numFields = mIn.readInt();
+        mNames = new String[numFields];
+        mTypes = new byte[numFields];
+        mValues = new long[numFields];
+        for (int i = 0; i < numFields; i++)
+        {
+            mTypes[i] = mIn.readByte();
+            BinaryLogWriter.sizeOf(mTypes[i]); // throws on a type we don't know
+            byte[] name = new byte[mIn.readUnsignedShort()];
+            mIn.readFully(name);
+            mNames[i] = new String(name, StandardCharsets.UTF_8);
+        }
+    }
+
+    public int getNumFields()
+    {
+        return mNames.length;
+    }
+
+    public String getFieldName(int field)
+    {
+        return mNames[field];
+    }
+
+    /**
+     * Reads the next record; its fields are then available from
+     * {@link #getDouble(int)} and friends.
+     *
+     * @return false at the end of the log, including an end part way
+     *         through a record
+     */
+    public boolean next() throws IOException
+    {
+        try
+        {
+            while (mRecordsLeftInBlock == 0)
+                mRecordsLeftInBlock = mIn.readInt();
+            readRecord();
+        }
+        catch (EOFException e)
+        {
+            mRecordsTruncated = mRecordsLeftInBlock;
+            mRecordsLeftInBlock = 0;
+            return false;
+        }
+        mRecordsLeftInBlock--;
+        return true;
+    }
+
+    /**
+     * @return the number of records the log's last block was cut short by,
+     *         counting one cut off part way through, once {@link #next()}
+     *         has reached the end; 0 if the log ended cleanly
+     */
+    public int getRecordsTruncated()
+    {
+        return mRecordsTruncated;
+    }
+
+    private void readRecord() throws IOException
+    {
+        for (int i = 0; i < mTypes.length; i++)
+        {
+            switch (mTypes[i])
+            {
+                case BinaryLogWriter.kDouble:
+                    mValues[i] = mIn.readLong();
+                    break;
+                case BinaryLogWriter.kFloat:
+                    mValues[i] = Double.doubleToRawLongBits(mIn.readFloat());
+                    break;
+                case BinaryLogWriter.kLong:
+                    mValues[i] = mIn.readLong();
+                    break;
+                case BinaryLogWriter.kInt:
+                    mValues[i] = mIn.readInt();
+                    break;
+                default:
+                    mValues[i] = mIn.readByte();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the field of the current record as a double, whatever its
+     *         type (booleans are 1 or 0)
+     */
+    public double getDouble(int field)
+    {
+        switch (mTypes[field])
+        {
+            case BinaryLogWriter.kDouble:
+            case BinaryLogWriter.kFloat:
+                return Double.longBitsToDouble(mValues[field]);
+            default:
+                return mValues[field];
+        }
+    }
+
+    /**
+     * @return the field of the current record as written by
+     *         {@link Object#toString()}
+     */
+    public String getString(int field)
+    {
+        switch (mTypes[field])
+        {
+            case BinaryLogWriter.kDouble:
+                return Double.toString(Double.longBitsToDouble(mValues[field]));
+            case BinaryLogWriter.kFloat:
+                return Float.toString((float) Double.longBitsToDouble(mValues[field]));
+            case BinaryLogWriter.kBoolean:
+                return Boolean.toString(mValues[field] != 0);
+            default:
+                return Long.toString(mValues[field]);
+        }
+    }
+
+    /**
+     * Writes the rest of the log as CSV, with a header line of field names.
+     *
+     * @return the number of records written
+     */
+    public long writeCSV(Writer out) throws IOException
+    {
+        for (int i = 0; i < mNames.length; i++)
+        {
+            if (i != 0)
+                out.write(", ");
+            out.write(mNames[i]);
+        }
+        out.write('\n');
+        long records = 0;
+        while (next())
+        {
+            for (int i = 0; i < mNames.length; i++)
+            {
+                if (i != 0)
+                    out.write(", ");
+                out.write(getString(i));
+            }
+            out.write('\n');
+            records++;
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        mIn.close();
+    }
+}
@@ -0,0 +1,379 @@
+package com.spartronics4915.lib.util;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs the public primitive fields of a class, one record per
+ * {@link #add(Object)}, to a binary file that {@link BinaryLogReader} reads
+ * back (and can turn into a CSV file). Replaces ReflectingCSVWriter, which
+ * boxed and formatted every field of every record on the caller's thread.
+ * <p>
+ * The schema (the fields, their types and the size of a record) is
+ * worked out once, in the constructor. {@link #add(Object)} copies each
+ * field's primitive value into a preallocated direct buffer; nothing is
+ * boxed, formatted or allocated. Full buffers are handed to a background
+ * thread through a {@link BoundedQueue} and written with a
+ * {@link FileChannel}. If the writer falls so far behind that no free
+ * buffer is left, the records in the current buffer are dropped rather
+ * than blocking the caller; see {@link #getRecordsDropped()}.
+ * <p>
+ * File format (big-endian):
+ * <pre>
+ * header: int {@link #kMagic}, int {@link #kVersion}, int numFields,
+ *         numFields x {byte type ({@link #kDouble}...), short nameLength, UTF-8 name}
+ * block:  int numRecords, numRecords x record
+ * record: the fields, in header order, each in its type's size
+ * </pre>
+ * If the file can't be opened, a warning is logged and records are thrown
+ * away.
+ */
+public class BinaryLogWriter<T>
+{
+
+    public static final int kMagic = 0x424C4F47; // "BLOG"
+    public static final int kVersion = 1;
+
+    public static final byte kDouble = 'D', kFloat = 'F', kLong = 'J', kInt = 'I', kBoolean = 'Z';
+
+    private static final int kDefaultRecordsPerBlock = 256;
+    private static final int kDefaultNumBlocks = 8;
+    private static final long kIdleParkNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long kCloseTimeoutMs = 2000;
+
+    private final Field[] mFields;
+    private final byte[] mTypes;
+    private final int mRecordSize;
+
+    private final FileChannel mChannel;
+    private final BoundedQueue<ByteBuffer> mFreeBlocks, mFullBlocks;
+    private final Thread mThread;
+    private volatile boolean mClosing = false;
+
+    private ByteBuffer mCurrent; // guarded by this
+    private int mNumRecords = 0; // in mCurrent
+
+    private final AtomicLong mRecordsWritten = new AtomicLong();
+    private final AtomicLong mRecordsDropped = new AtomicLong();
+
+    public BinaryLogWriter(String fileName, Class<T> typeClass)
+    {
+        this(fileName, typeClass, kDefaultNumBlocks, kDefaultRecordsPerBlock);
+    }
+
+    /**
+     * @param numBlocks       Buffers in the pool, including the one being filled
+     * @param recordsPerBlock Records per buffer
+     * @throws IllegalArgumentException if a public field of
+     *         <code>typeClass</code> isn't a double, float, long, int or
+     *         boolean
+     */
+    public BinaryLogWriter(String fileName, Class<T> typeClass, int numBlocks, int recordsPerBlock)
+    {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : typeClass.getFields())
+        {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+            field.setAccessible(true); // also skips the access check on every get
+            fields.add(field);
+        }
+        mFields = fields.toArray(new Field[fields.size()]);
+        mTypes = new byte[mFields.length];
+        int recordSize = 0;
+        for (int i = 0; i < mFields.length; i++)
+        {
+            mTypes[i] = typeOf(mFields[i]);
+            recordSize += sizeOf(mTypes[i]);
+        }
+        mRecordSize = recordSize;
+
+        FileChannel channel = null;
+        try
+        {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = header();
+            while (header.hasRemaining())
+                channel.write(header);
+        }
+        catch (IOException e)
+        {
+            Logger.warning("BinaryLogWriter: can't open " + fileName + ": " + e.getMessage());
+            closeQuietly(channel);
+            channel = null;
+        }
+        mChannel = channel;
+
+        numBlocks = Math.max(2, numBlocks);
+        final int blockSize = 4 + Math.max(1, recordsPerBlock) * mRecordSize;
+        mFreeBlocks = new BoundedQueue<>(numBlocks);
+        mFullBlocks = new BoundedQueue<>(numBlocks);
+        if (mChannel == null)
+        {
+            mCurrent = null;
+            mThread = null;
+            mClosing = true;
+            return;
+        }
+        for (int i = 1; i < numBlocks; i++)
+        {
+            mFreeBlocks.offer(ByteBuffer.allocateDirect(blockSize));
+        }
+        mCurrent = ByteBuffer.allocateDirect(blockSize);
+        mCurrent.position(4);
+
+        mThread = new Thread(new CrashTrackingRunnable()
+        {
+
+            @Override
+            public void runCrashTracked()
+            {
+                drain();
+            }
+        }, "BinaryLogWriter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    private static byte typeOf(Field field)
+    {
+        Class<?> type = field.getType();
+        if (type == double.class)
+            return kDouble;
+        if (type == float.class)
+            return kFloat;
+        if (type == long.class)
+            return kLong;
+        if (type == int.class)
+            return kInt;
+        if (type == boolean.class)
+            return kBoolean;
+        throw new IllegalArgumentException("BinaryLogWriter can't log " + field.getName() + " (" + type + ")");
+    }
+
+    static int sizeOf(byte type)
+    {
+        switch (type)
+        {
+            case kDouble:
+            case kLong:
+                return 8;
+            case kFloat:
+            case kInt:
+                return 4;
+            case kBoolean:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unknown field type " + type);
+        }
+    }
+
+    private ByteBuffer header()
+    {
+        int size = 12;
+        byte[][] names = new byte[mFields.length][];
+        for (int i = 0; i < mFields.length; i++)
+        {
+            names[i] = mFields[i].getName().getBytes(StandardCharsets.UTF_8);
+            size += 3 + names[i].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size);
+        header.putInt(kMagic);
+        header.putInt(kVersion);
+        header.putInt(mFields.length);
+        for (int i = 0; i < mFields.length; i++)
+        {
+            header.put(mTypes[i]);
+            header.putShort((short) names[i].length);
+            header.put(names[i]);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Copies the fields of <code>value</code> into the current buffer.
+     * Never blocks on I/O.
+     */
+    public synchronized void add(T value)
+    {
+        if (mClosing)
+            return;
+        final ByteBuffer b = mCurrent;
+        try
+        {
+            for (int i = 0; i < mFields.length; i++)
+            {
+                switch (mTypes[i])
+                {
+                    case kDouble:
+                        b.putDouble(mFields[i].getDouble(value));
+                        break;
+                    case kFloat:
+                        b.putFloat(mFields[i].getFloat(value));
+                        break;
+                    case kLong:
+                        b.putLong(mFields[i].getLong(value));
+                        break;
+                    case kInt:
+                        b.putInt(mFields[i].getInt(value));
+                        break;
+                    default:
+                        b.put(mFields[i].getBoolean(value) ? (byte) 1 : (byte) 0);
+                        break;
+                }
+            }
+        }
+        catch (IllegalAccessException e)
+        {
+            // Can't happen; the fields were made accessible
+            throw new IllegalStateException(e);
+        }
+        mNumRecords++;
+        if (b.remaining() < mRecordSize)
+            publish();
+    }
+
+    /**
+     * Hands the current buffer to the writer thread and takes a free one,
+     * or drops the current buffer's records if none is free.
+     */
+    private void publish()
+    {
+        ByteBuffer next = mFreeBlocks.poll();
+        mCurrent.putInt(0, mNumRecords);
+        mCurrent.flip();
+        if (next == null || !mFullBlocks.offer(mCurrent))
+        {
+            if (next != null)
+                mFreeBlocks.offer(next);
+            // The writer can't keep up; throw these records away and reuse the buffer
+            mRecordsDropped.addAndGet(mNumRecords);
+            next = mCurrent;
+        }
+        else
+        {
+            LockSupport.unpark(mThread);
+        }
+        next.clear();
+        next.position(4);
+        mNumRecords = 0;
+        mCurrent = next;
+    }
+
+    private void drain()
+    {
+        try
+        {
+            while (true)
+            {
+                ByteBuffer b = mFullBlocks.poll();
+                if (b == null)
+                {
+                    if (mClosing && mFullBlocks.isEmpty())
+                        break;
+                    LockSupport.parkNanos(this, kIdleParkNanos);
+                    continue;
+                }
+                int numRecords = b.getInt(0);
+                while (b.hasRemaining())
+                    mChannel.write(b);
+                mFreeBlocks.offer(b);
+                mRecordsWritten.addAndGet(numRecords);
+            }
+        }
+        catch (IOException e)
+        {
+            Logger.warning("BinaryLogWriter: write failed: " + e.getMessage());
+            mClosing = true;
+        }
+        finally
+        {
+            closeQuietly(mChannel);
+        }
+    }
+
+    /**
+     * Hands the records added so far to the writer thread, without waiting
+     * for them to be written.
+     */
+    public synchronized void flush()
+    {
+        if (!mClosing && mNumRecords > 0)
+            publish();
+    }
+
+    /**
+     * Writes out the records added so far, waits for the writer thread to
+     * finish, and closes the file. Later records are thrown away.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (mClosing)
+                return;
+            if (mNumRecords > 0)
+                publish();
+            mClosing = true;
+        }
+        LockSupport.unpark(mThread);
+        try
+        {
+            mThread.join(kCloseTimeoutMs);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive())
+            Logger.warning("BinaryLogWriter didn't finish within " + kCloseTimeoutMs + " ms");
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        if (channel == null)
+            return;
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            Logger.warning("BinaryLogWriter: close failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the bytes in one record
+     */
+    public int getRecordSize()
+    {
+        return mRecordSize;
+    }
+
+    public long getRecordsWritten()
+    {
+        return mRecordsWritten.get();
+    }
+
+    /**
+     * @return records thrown away because the writer was behind
+     */
+    public long getRecordsDropped()
+    {
+        return mRecordsDropped.get();
+    }
+}
@@ -0,0 +1,123 @@
+package com.spartronics4915.lib.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity, lock-free FIFO queue that is safe for any number of
+ * producer and consumer threads. {@link #offer(Object)} never blocks or
+ * allocates: when the queue is full it just returns false and the caller
+ * decides what to drop.
+ * <p>
+ * Each slot carries a sequence number that tells producers and consumers
+ * whose turn it is to touch the slot, so threads only contend on the
+ * head/tail counters (after D. Vyukov's bounded MPMC queue).
+ */
+public class BoundedQueue<T>
+{
+
+    private final int mMask;
+    private final AtomicReferenceArray<T> mItems;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mHead = new AtomicLong(); // next slot to poll
+    private final AtomicLong mTail = new AtomicLong(); // next slot to offer
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public BoundedQueue(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mItems = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(T item)
+    {
+        long pos = mTail.get();
+        while (true)
+        {
+            int index = (int) pos & mMask;
+            long diff = mSequences.get(index) - pos;
+            if (diff == 0)
+            {
+                if (mTail.compareAndSet(pos, pos + 1))
+                {
+                    mItems.set(index, item);
+                    mSequences.lazySet(index, pos + 1); // publish to consumers
+                    return true;
+                }
+                pos = mTail.get();
+            }
+            else if (diff < 0)
+            {
+                return false; // the consumer hasn't freed this slot yet
+            }
+            else
+            {
+                pos = mTail.get(); // another producer got here first
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item, or null if the queue is empty
+     */
+    public T poll()
+    {
+        long pos = mHead.get();
+        while (true)
+        {
+            int index = (int) pos & mMask;
+            long diff = mSequences.get(index) - (pos + 1);
+            if (diff == 0)
+            {
+                if (mHead.compareAndSet(pos, pos + 1))
+                {
+                    T item = mItems.get(index);
+                    mItems.lazySet(index, null);
+                    mSequences.lazySet(index, pos + mMask + 1); // hand back to producers
+                    return item;
+                }
+                pos = mHead.get();
+            }
+            else if (diff < 0)
+            {
+                return null;
+            }
+            else
+            {
+                pos = mHead.get();
+            }
+        }
+    }
+
+    /**
+     * @return the number of queued items. Only a snapshot if other threads
+     *         are using the queue.
+     */
+    public int size()
+    {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    public int capacity()
+    {
+        return mMask + 1;
+    }
+}
@@ -0,0 +1,270 @@
+package com.spartronics4915.lib.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Takes SmartDashboard values off the control path. A put only stores the
+ * latest value in a slot preallocated for its key and marks the slot
+ * changed; a background thread publishes the changed slots to
+ * NetworkTables in one batch, every period passed to {@link #start(double)}.
+ * Values put between two flushes are coalesced, as NetworkTables would do
+ * anyway.
+ * <p>
+ * The first put of a key claims a slot (and allocates); later puts of a
+ * number or boolean don't allocate, and a put of the value a slot already
+ * holds is ignored. Puts are safe from any thread. If every slot is
+ * taken, puts of new keys go straight to SmartDashboard. A slot keeps the
+ * type of its key's first put; a put of another type is logged (once per
+ * key) and goes straight to SmartDashboard, which decides what to do with
+ * it.
+ * <p>
+ * Until {@link #start(double)} is called, nothing is published.
+ */
+public class DashboardPublisher
+{
+
+    private static final int kMaxKeys = 512;
+
+    private static final int kNumber = 1, kBoolean = 2, kString = 3;
+    // Bits of a NaN no one will put, so a slot's first number always counts as a change
+    private static final long kNoValue = 0x7ff8dead0000beefL;
+
+    private static DashboardPublisher sInstance = null;
+
+    public static synchronized DashboardPublisher getInstance()
+    {
+        if (sInstance == null)
+        {
+            sInstance = new DashboardPublisher();
+        }
+        return sInstance;
+    }
+
+    private final ConcurrentHashMap<String, Integer> mSlots = new ConcurrentHashMap<>();
+    private final String[] mKeys = new String[kMaxKeys];
+    private final int[] mTypes = new int[kMaxKeys];
+    private final AtomicLongArray mNumbers = new AtomicLongArray(kMaxKeys); // doubles, as bits
+    private final AtomicReferenceArray<String> mStrings = new AtomicReferenceArray<>(kMaxKeys);
+    private final AtomicIntegerArray mChanged = new AtomicIntegerArray(kMaxKeys);
+    private final AtomicIntegerArray mTypeWarned = new AtomicIntegerArray(kMaxKeys);
+    private int mNumSlots = 0; // guarded by mSlots
+    private volatile int mPublishedSlots = 0; // slots the flusher may read
+    private boolean mFull = false;
+
+    private Thread mThread = null;
+    private volatile boolean mRunning = false;
+    private volatile long mFlushes = 0;
+    private volatile long mValuesPublished = 0;
+
+    private DashboardPublisher()
+    {
+    }
+
+    public void putNumber(String key, double value)
+    {
+        int slot = slotFor(key, kNumber);
+        if (slot < 0)
+        {
+            SmartDashboard.putNumber(key, value);
+            return;
+        }
+        long bits = Double.doubleToLongBits(value);
+        if (mNumbers.getAndSet(slot, bits) != bits)
+            mChanged.set(slot, 1);
+    }
+
+    public void putBoolean(String key, boolean value)
+    {
+        int slot = slotFor(key, kBoolean);
+        if (slot < 0)
+        {
+            SmartDashboard.putBoolean(key, value);
+            return;
+        }
+        long bits = value ? 1 : 0;
+        if (mNumbers.getAndSet(slot, bits) != bits)
+            mChanged.set(slot, 1);
+    }
+
+    public void putString(String key, String value)
+    {
+        int slot = slotFor(key, kString);
+        if (slot < 0)
+        {
+            SmartDashboard.putString(key, value);
+            return;
+        }
+        String old = mStrings.getAndSet(slot, value);
+        if (!value.equals(old))
+            mChanged.set(slot, 1);
+    }
+
+    /**
+     * @return the key's slot, or -1 if there's no room for it or the slot
+     *         holds another type
+     */
+    private int slotFor(String key, int type)
+    {
+        Integer slot = mSlots.get(key);
+        if (slot != null)
+            return checkType(slot, type);
+        synchronized (mSlots)
+        {
+            slot = mSlots.get(key);
+            if (slot != null)
+                return checkType(slot, type);
+            if (mNumSlots == kMaxKeys)
+            {
+                if (!mFull)
+                {
+                    mFull = true;
+                    Logger.warning("DashboardPublisher: more than " + kMaxKeys + " keys; publishing " + key +
+                            " and later new keys directly");
+                }
+                return -1;
+            }
+            int s = mNumSlots++;
+            mKeys[s] = key;
+            mTypes[s] = type;
+            mNumbers.set(s, kNoValue);
+            mSlots.put(key, s);
+            mPublishedSlots = mNumSlots; // publishes the slot's key and type to the flusher
+            return s;
+        }
+    }
+
+    private int checkType(int slot, int type)
+    {
+        if (mTypes[slot] == type)
+            return slot;
+        if (mTypeWarned.compareAndSet(slot, 0, 1))
+        {
+            Logger.warning("DashboardPublisher: " + mKeys[slot] + " was first put as a " + typeName(mTypes[slot]) +
+                    ", now as a " + typeName(type) + "; publishing it directly");
+        }
+        return -1;
+    }
+
+    private static String typeName(int type)
+    {
+        switch (type)
+        {
+            case kNumber:
+                return "number";
+            case kBoolean:
+                return "boolean";
+            default:
+                return "string";
+        }
+    }
+
+    /**
+     * Starts publishing every <code>period</code> seconds on a background
+     * thread.
+     */
+    public synchronized void start(double period)
+    {
+        if (mThread != null)
+            return;
+        final long periodMs = Math.max(1, Math.round(period * 1000));
+        mRunning = true;
+        mThread = new Thread(new CrashTrackingRunnable()
+        {
+
+            @Override
+            public void runCrashTracked()
+            {
+                while (mRunning)
+                {
+                    flush();
+                    try
+                    {
+                        Thread.sleep(periodMs);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+            }
+        }, "DashboardPublisher");
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    public synchronized void stop()
+    {
+        if (mThread == null)
+            return;
+        mRunning = false;
+        mThread.interrupt();
+        mThread = null;
+        flush();
+    }
+
+    /**
+     * Publishes every changed value now. Called by the background thread;
+     * safe to call from anywhere, but it's as slow as the NetworkTables
+     * writes it does.
+     */
+    public synchronized void flush()
+    {
+        final int numSlots = mPublishedSlots;
+        int published = 0;
+        for (int s = 0; s < numSlots; s++)
+        {
+            if (mChanged.get(s) == 0 || mChanged.getAndSet(s, 0) == 0)
+                continue;
+            switch (mTypes[s])
+            {
+                case kNumber:
+                    SmartDashboard.putNumber(mKeys[s], Double.longBitsToDouble(mNumbers.get(s)));
+                    break;
+                case kBoolean:
+                    SmartDashboard.putBoolean(mKeys[s], mNumbers.get(s) != 0);
+                    break;
+                default:
+                    SmartDashboard.putString(mKeys[s], mStrings.get(s));
+                    break;
+            }
+            published++;
+        }
+        if (published > 0)
+        {
+            NetworkTableInstance.getDefault().flush();
+            mValuesPublished += published;
+        }
+        mFlushes++;
+    }
+
+    /**
+     * @return the number of flushes so far
+     */
+    public long getFlushes()
+    {
+        return mFlushes;
+    }
+
+    /**
+     * @return the number of values written to NetworkTables so far
+     */
+    public long getValuesPublished()
+    {
+        return mValuesPublished;
+    }
+
+    /**
+     * @return the number of keys that have a slot
+     */
+    public int getNumKeys()
+    {
+        return mPublishedSlots;
+    }
+}
@@ -0,0 +1,125 @@
+package com.spartronics4915.lib.util;
+
+/**
+ * Histogram of durations in nanoseconds, for timing code that runs every
+ * few milliseconds. Recording a value is a few arithmetic operations and
+ * an array increment; nothing is allocated after construction.
+ * <p>
+ * Buckets are log-linear (as in HdrHistogram): each power of two is split
+ * into {@link #kSubBuckets} equal buckets, so percentiles are reported
+ * with about 6% precision from a nanosecond up to about half an hour.
+ * Values beyond that land in the last bucket; min, max and mean are exact.
+ * <p>
+ * Meant to be recorded from one thread. Other threads may read it at any
+ * time, but see a snapshot that may be a value or two out of date.
+ */
+public class LatencyHistogram
+{
+
+    private static final int kSubBucketBits = 4;
+    public static final int kSubBuckets = 1 << kSubBucketBits;
+    private static final int kMaxShift = 36; // 2^(36 + 5) ns is about 37 minutes
+
+    private final long[] mCounts = new long[(kMaxShift + 2) * kSubBuckets];
+    private long mCount, mSum, mMin = Long.MAX_VALUE, mMax;
+
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        mCounts[bucketOf(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        if (nanos < mMin)
+            mMin = nanos;
+        if (nanos > mMax)
+            mMax = nanos;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < mCounts.length; i++)
+        {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * @return the smallest recorded value, or 0 if nothing was recorded
+     */
+    public long getMin()
+    {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax()
+    {
+        return mMax;
+    }
+
+    public double getMean()
+    {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return a value that at least <code>percentile</code> percent of the
+     *         recorded values are less than or equal to (the top of its
+     *         bucket, but never more than the max), or 0 if nothing was
+     *         recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        final long count = mCount;
+        if (count == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++)
+        {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(highestValueIn(i), mMax);
+        }
+        return mMax;
+    }
+
+    /**
+     * Formats the count and the min, p50, p90, p99, p99.9 and max in
+     * microseconds. Allocates; don't call it from a time-critical loop.
+     */
+    public String summary()
+    {
+        return String.format("n %d  min %.1f  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f us",
+                getCount(), getMin() / 1e3, getPercentile(50) / 1e3, getPercentile(90) / 1e3,
+                getPercentile(99) / 1e3, getPercentile(99.9) / 1e3, getMax() / 1e3);
+    }
+
+    private static int bucketOf(long value)
+    {
+        if (value < kSubBuckets)
+            return (int) value;
+        final int shift = Math.min(kMaxShift, 63 - Long.numberOfLeadingZeros(value) - kSubBucketBits);
+        final long mantissa = Math.min(value >>> shift, 2 * kSubBuckets - 1);
+        return (shift + 1) * kSubBuckets + (int) (mantissa - kSubBuckets);
+    }
+
+    private static long highestValueIn(int bucket)
+    {
+        if (bucket < kSubBuckets)
+            return bucket;
+        final int shift = bucket / kSubBuckets - 1;
+        final long mantissa = bucket % kSubBuckets + kSubBuckets;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -1,23 +1,80 @@
 package com.spartronics4915.lib.util;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Tracks start-up and caught crash events, logging them to a file which dosn't
- * roll over
+ * Tracks start-up and caught crash events, logging them to a file that
+ * rolls over at {@link #kMaxFileBytes}, and logs messages to the console.
+ * <p>
+ * Logging never touches the disk or the console on the caller's thread:
+ * messages go onto a lock-free {@link BoundedQueue} and a background thread
+ * formats and writes them through one long-lived writer. If the queue is
+ * full, messages are dropped (and the drops reported) rather than blocking
+ * the caller. Crashes are the exception: logThrowableCrash writes
+ * everything queued, and the crash, before it returns, since the thread
+ * (or robot) may be about to die.
  */
 public class Logger
 {
 
     private static final UUID RUN_INSTANCE_UUID = UUID.randomUUID();
     public static int sVerbosity = 0; // 0: notices and above,  1: info and above, 2: all
-    private static final DateFormat s_dateFormat = new SimpleDateFormat("hh:mm:ss"); 
+
+    private static final String kFileName = "/home/lvuser/crash_tracking.txt";
+    private static final long kMaxFileBytes = 4 << 20;
+    private static final int kFilesToKeep = 3; // crash_tracking.txt, crash_tracking.1.txt, ...
+    private static final int kQueueSize = 1024;
+    private static final long kIdleParkNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static class Message
+    {
+
+        final long time = System.currentTimeMillis();
+        final String level;
+        final String text;
+        final Throwable throwable; // may be null
+        final boolean toFile;
+
+        Message(String level, String text, Throwable throwable, boolean toFile)
+        {
+            this.level = level;
+            this.text = text;
+            this.throwable = throwable;
+            this.toFile = toFile;
+        }
+    }
+
+    private static final BoundedQueue<Message> sQueue = new BoundedQueue<>(kQueueSize);
+    private static final AtomicLong sDropped = new AtomicLong();
+
+    // Everything below is guarded by sWriteLock
+    private static final Object sWriteLock = new Object();
+    private static final DateFormat sDateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+    private static FileOutputStream sFileStream = null;
+    private static PrintWriter sFile = null;
+    private static boolean sFileFailed = false;
+
+    static
+    {
+        Thread writer = new Thread(Logger::writeForever, "Logger");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "Logger flush"));
+    }
 
     public static void setVerbosity(String nm)
     {
@@ -32,7 +89,7 @@ public class Logger
         else
             error("Logger: unknown verbosity level:" + nm);
     }
-    
+
     public static void logRobotStartup()
     {
         notice("robot startup");
@@ -47,7 +104,7 @@ public class Logger
     {
         notice("robot init");
     }
-    
+
     public static void logTeleopInit()
     {
         notice("teleop init");
@@ -65,34 +122,34 @@ public class Logger
 
     public static void logThrowableCrash(Throwable throwable)
     {
-        logMarker("Exception", throwable);
+        logCrash(new Message("Exception", "", throwable, true));
     }
 
     public static void logThrowableCrash(String msg, Throwable throwable)
     {
-        logMarker("ERROR " + msg, throwable);
+        logCrash(new Message("ERROR ", msg, throwable, true));
     }
-    
+
     public static void error(String m)
     {
-        logMarker("ERROR   " + m);
+        enqueue(new Message("ERROR   ", m, null, true));
     }
 
     public static void warning(String m)
     {
-        logMarker("WARNING " + m);
+        enqueue(new Message("WARNING ", m, null, true));
     }
 
     public static void notice(String m)
     {
-        logMarker("NOTICE  " + m);
+        enqueue(new Message("NOTICE  ", m, null, true));
     }
 
     public static void info(String m)
     {
         if (sVerbosity > 0)
         {
-            printMarker("INFO    " + m);
+            enqueue(new Message("INFO    ", m, null, false));
         }
     }
 
@@ -100,47 +157,177 @@ public class Logger
     {
         if (sVerbosity > 1)
         {
-            printMarker("DEBUG    " + m);
+            enqueue(new Message("DEBUG    ", m, null, false));
         }
     }
-    
-    private static String getTimeStamp()
+
+    /**
+     * Writes every queued message before returning. Blocks on the disk;
+     * don't call it from a loop.
+     */
+    public static void flush()
     {
-        Date now = new Date();
-        String nowstr = s_dateFormat.format(now) + " ";
-        return nowstr;
+        synchronized (sWriteLock)
+        {
+            drain();
+            if (sFile != null)
+                sFile.flush();
+        }
     }
 
-    private static void logMarker(String mark)
+    private static void enqueue(Message message)
     {
-        logMarker(mark, null);
+        if (!sQueue.offer(message))
+            sDropped.incrementAndGet();
     }
 
-    private static void printMarker(String mark)
+    private static void logCrash(Message message)
     {
-        System.out.println(mark);
+        synchronized (sWriteLock)
+        {
+            drain();
+            write(message);
+            if (sFile != null)
+            {
+                sFile.flush();
+                try
+                {
+                    sFileStream.getFD().sync();
+                }
+                catch (IOException e)
+                {
+                    // We tried; the data is with the OS
+                }
+            }
+        }
     }
 
-    private static void logMarker(String mark, Throwable nullableException)
+    private static void writeForever()
     {
-        printMarker(mark);
-        if(nullableException != null)
-            nullableException.printStackTrace();
-        try (PrintWriter writer = new PrintWriter(new FileWriter("/home/lvuser/crash_tracking.txt", true)))
+        while (true)
         {
-            writer.print(RUN_INSTANCE_UUID.toString());
-            writer.print(", ");
-            writer.print(mark);
-            if (nullableException != null)
+            boolean wrote;
+            synchronized (sWriteLock)
             {
-                writer.print(", ");
-                nullableException.printStackTrace(writer);
+                wrote = drain();
+                if (wrote && sFile != null)
+                    sFile.flush();
             }
-            writer.println();
+            if (!wrote)
+                LockSupport.parkNanos(kIdleParkNanos);
+        }
+    }
+
+    /**
+     * Writes the queued messages. Call with sWriteLock held.
+     *
+     * @return true if anything was written
+     */
+    private static boolean drain()
+    {
+        boolean wrote = false;
+        long dropped = sDropped.getAndSet(0);
+        if (dropped > 0)
+        {
+            write(new Message("WARNING ", "Logger dropped " + dropped + " messages", null, true));
+            wrote = true;
+        }
+        Message message;
+        while ((message = sQueue.poll()) != null)
+        {
+            write(message);
+            wrote = true;
+        }
+        return wrote;
+    }
+
+    /**
+     * Call with sWriteLock held.
+     */
+    private static void write(Message message)
+    {
+        System.out.println(message.level + message.text);
+        if (message.throwable != null)
+            message.throwable.printStackTrace();
+        if (!message.toFile || !openFile())
+            return;
+
+        sFile.print(RUN_INSTANCE_UUID.toString());
+        sFile.print(", ");
+        sFile.print(sDateFormat.format(new Date(message.time)));
+        sFile.print(", ");
+        sFile.print(message.level);
+        sFile.print(message.text);
+        if (message.throwable != null)
+        {
+            sFile.print(", ");
+            message.throwable.printStackTrace(sFile);
+        }
+        sFile.println();
+        rollOverIfFull();
+    }
+
+    /**
+     * Opens the log file if it isn't open. Call with sWriteLock held.
+     *
+     * @return false if there's no log file to write to
+     */
+    private static boolean openFile()
+    {
+        if (sFile != null)
+            return true;
+        if (sFileFailed)
+            return false;
+        try
+        {
+            sFileStream = new FileOutputStream(kFileName, true);
+            sFile = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(sFileStream, StandardCharsets.UTF_8), 1 << 14));
+            return true;
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            // Don't retry every message; off the robot there's no /home/lvuser
+            sFileFailed = true;
+            System.err.println("Logger: can't open " + kFileName + ": " + e.getMessage());
+            return false;
         }
     }
+
+    /**
+     * Call with sWriteLock held and the file open.
+     */
+    private static void rollOverIfFull()
+    {
+        try
+        {
+            if (sFileStream.getChannel().position() < kMaxFileBytes)
+                return;
+        }
+        catch (IOException e)
+        {
+            return;
+        }
+        sFile.close();
+        sFile = null;
+        sFileStream = null;
+        for (int i = kFilesToKeep - 1; i > 0; i--)
+        {
+            File older = rolledFile(i);
+            older.delete();
+            rolledFile(i - 1).renameTo(older);
+        }
+        openFile();
+    }
+
+    /**
+     * @return crash_tracking.txt for 0, crash_tracking.n.txt otherwise
+     */
+    private static File rolledFile(int n)
+    {
+        if (n == 0)
+            return new File(kFileName);
+        int dot = kFileName.lastIndexOf('.');
+        return new File(kFileName.substring(0, dot) + "." + n + kFileName.substring(dot));
+    }
 }
@@ -0,0 +1,249 @@
+package com.spartronics4915.lib.util;
+
+import com.spartronics4915.lib.math.Pose2d;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A bounded, time-ordered history of poses that can be interpolated, like
+ * an {@link InterpolatingTreeMap} of {@link InterpolatingDouble} to
+ * {@link Pose2d}, but meant for one thread that adds poses and any number
+ * of threads that read them.
+ * <p>
+ * Timestamps live in a primitive ring buffer next to the (immutable)
+ * poses, so adding a pose allocates nothing and lookups are a binary
+ * search. Readers never block the writer: they read optimistically and only
+ * retry, under a shared read lock, if a write happened while they were
+ * reading (a seqlock, via {@link StampedLock}). Writers are serialized
+ * with each other, so a second writer (e.g. a reset from another thread)
+ * is safe, just not free.
+ */
+public class PoseHistory
+{
+
+    private final StampedLock mLock = new StampedLock();
+    private final double[] mTimestamps;
+    private final Pose2d[] mPoses;
+    private int mFirst = 0; // ring index of the oldest pose
+    private int mSize = 0;
+
+    public PoseHistory(int capacity)
+    {
+        mTimestamps = new double[capacity];
+        mPoses = new Pose2d[capacity];
+    }
+
+    /**
+     * Forgets every pose, then adds <code>pose</code>.
+     */
+    public void reset(double timestamp, Pose2d pose)
+    {
+        long stamp = mLock.writeLock();
+        try
+        {
+            mFirst = 0;
+            mSize = 0;
+            Arrays.fill(mPoses, null);
+            insert(timestamp, pose);
+        }
+        finally
+        {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a pose, dropping the oldest one if the history is full. A pose
+     * with the same timestamp as an existing one replaces it. Poses are
+     * expected to arrive in time order; an older one is still inserted in
+     * place, at the cost of shifting the newer ones.
+     */
+    public void add(double timestamp, Pose2d pose)
+    {
+        long stamp = mLock.writeLock();
+        try
+        {
+            insert(timestamp, pose);
+        }
+        finally
+        {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    private void insert(double timestamp, Pose2d pose)
+    {
+        final int capacity = mTimestamps.length;
+        // Index (from the oldest) of the first pose not older than timestamp
+        int pos = lowerBound(timestamp);
+        if (pos < mSize && mTimestamps[ring(pos)] == timestamp)
+        {
+            mPoses[ring(pos)] = pose;
+            return;
+        }
+        if (mSize == capacity)
+        {
+            if (pos == 0)
+                return; // older than everything we're keeping
+            // Drop the oldest
+            mPoses[mFirst] = null;
+            mFirst = ring(1);
+            mSize--;
+            pos--;
+        }
+        for (int i = mSize; i > pos; i--)
+        {
+            mTimestamps[ring(i)] = mTimestamps[ring(i - 1)];
+            mPoses[ring(i)] = mPoses[ring(i - 1)];
+        }
+        mTimestamps[ring(pos)] = timestamp;
+        mPoses[ring(pos)] = pose;
+        mSize++;
+    }
+
+    /**
+     * @return the pose at <code>timestamp</code>, linearly interpolated
+     *         between the poses around it. Outside the history, the nearest
+     *         pose. Null if the history is empty.
+     */
+    public Pose2d getInterpolated(double timestamp)
+    {
+        long stamp = mLock.tryOptimisticRead();
+        Pose2d pose = interpolate(timestamp);
+        if (!mLock.validate(stamp))
+        {
+            stamp = mLock.readLock();
+            try
+            {
+                pose = interpolate(timestamp);
+            }
+            finally
+            {
+                mLock.unlockRead(stamp);
+            }
+        }
+        return pose;
+    }
+
+    /**
+     * @return the newest pose, or null if the history is empty
+     */
+    public Pose2d getLatest()
+    {
+        long stamp = mLock.tryOptimisticRead();
+        Pose2d pose = latest();
+        if (!mLock.validate(stamp))
+        {
+            stamp = mLock.readLock();
+            try
+            {
+                pose = latest();
+            }
+            finally
+            {
+                mLock.unlockRead(stamp);
+            }
+        }
+        return pose;
+    }
+
+    /**
+     * @return the timestamp of the newest pose, or NaN if the history is
+     *         empty
+     */
+    public double getLatestTimestamp()
+    {
+        long stamp = mLock.tryOptimisticRead();
+        double timestamp = latestTimestamp();
+        if (!mLock.validate(stamp))
+        {
+            stamp = mLock.readLock();
+            try
+            {
+                timestamp = latestTimestamp();
+            }
+            finally
+            {
+                mLock.unlockRead(stamp);
+            }
+        }
+        return timestamp;
+    }
+
+    public int size()
+    {
+        long stamp = mLock.tryOptimisticRead();
+        int size = mSize;
+        if (!mLock.validate(stamp))
+        {
+            stamp = mLock.readLock();
+            size = mSize;
+            mLock.unlockRead(stamp);
+        }
+        return size;
+    }
+
+    // The methods below may run concurrently with a write (then their result
+    // is thrown away), so they must not fail on inconsistent state.
+
+    private Pose2d interpolate(double timestamp)
+    {
+        final int size = Math.min(mSize, mTimestamps.length);
+        if (size == 0)
+            return null;
+        int hi = lowerBound(timestamp, size);
+        if (hi == size)
+            return mPoses[ring(size - 1)];
+        final double topTime = mTimestamps[ring(hi)];
+        final Pose2d top = mPoses[ring(hi)];
+        if (hi == 0 || topTime == timestamp || top == null)
+            return top;
+        final double bottomTime = mTimestamps[ring(hi - 1)];
+        final Pose2d bottom = mPoses[ring(hi - 1)];
+        if (bottom == null)
+            return top;
+        return bottom.interpolate(top, (timestamp - bottomTime) / (topTime - bottomTime));
+    }
+
+    private Pose2d latest()
+    {
+        final int size = Math.min(mSize, mTimestamps.length);
+        return size == 0 ? null : mPoses[ring(size - 1)];
+    }
+
+    private double latestTimestamp()
+    {
+        final int size = Math.min(mSize, mTimestamps.length);
+        return size == 0 ? Double.NaN : mTimestamps[ring(size - 1)];
+    }
+
+    private int lowerBound(double timestamp)
+    {
+        return lowerBound(timestamp, mSize);
+    }
+
+    /**
+     * @return the index (from the oldest) of the first of the
+     *         <code>size</code> oldest poses whose timestamp is not less than
+     *         <code>timestamp</code>, or <code>size</code> if there's none
+     */
+    private int lowerBound(double timestamp, int size)
+    {
+        int lo = 0, hi = size;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (mTimestamps[ring(mid)] < timestamp)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private int ring(int index)
+    {
+        return (mFirst + index) % mTimestamps.length;
+    }
+}